@@ -18,17 +18,20 @@
 
 package com.azazar.bitcoin.jsonrpcclient;
 
-import static com.azazar.bitcoin.jsonrpcclient.MapWrapper.mapCTime;
 import static com.azazar.bitcoin.jsonrpcclient.MapWrapper.mapDouble;
 import static com.azazar.bitcoin.jsonrpcclient.MapWrapper.mapInt;
+import static com.azazar.bitcoin.jsonrpcclient.MapWrapper.mapLong;
 import static com.azazar.bitcoin.jsonrpcclient.MapWrapper.mapStr;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  *
@@ -38,41 +41,150 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
 
     public abstract Object query(String method, Object... o) throws BitcoinException;
 
+    /**
+     * Calls the same method once for every parameter set. Transports that support JSON-RPC batches send all calls in
+     * a single round trip, this implementation falls back to sequential queries.
+     *
+     * @param method
+     * @param params parameters of each call
+     * @return results in the order of params, failed calls are returned as {@link BitcoinException} instances
+     * @throws BitcoinException if the batch itself could not be executed
+     */
+    public List<Object> batchQuery(String method, List<Object[]> params) throws BitcoinException {
+        List<Object> results = new ArrayList<Object>(params.size());
+        for (Object[] p : params) {
+            try {
+                results.add(query(method, p));
+            } catch (BitcoinRPCException ex) {
+                throw ex;
+            } catch (BitcoinException ex) {
+                results.add(ex);
+            }
+        }
+        return results;
+    }
+
     @Override
     public List<String> getRawMempool() throws BitcoinException {
         return (List<String>) query("getrawmempool", new String[] {});
     }
 
-    public void addNode(String node, AddNoteCmd command) throws BitcoinException {
-        query("addnode", node, command.toString());
+    public MempoolSnapshot getRawMempoolWithSequence() throws BitcoinException {
+        final Map r = (Map) query("getrawmempool", false, true);
+        return new MempoolSnapshot() {
+
+            public List<String> txIds() {
+                return (List<String>) r.get("txids");
+            }
+
+            public long mempoolSequence() {
+                return mapLong(r, "mempool_sequence");
+            }
+
+        };
     }
 
-    public String createRawTransaction(List<TxInput> inputs, List<TxOutput> outputs) throws BitcoinException {
-        List<Map> pInputs = new ArrayList<Map>();
+    private class MempoolEntryMapWrapper extends MapWrapper implements MempoolEntry {
 
-        for (final TxInput txInput : inputs) {
-            pInputs.add(new LinkedHashMap() {
-                {
-                    put("txid", txInput.txid());
-                    put("vout", txInput.vout());
-                }
-            });
+        public MempoolEntryMapWrapper(Map m) {
+            super(m);
         }
 
-        Map<String, Double> pOutputs = new LinkedHashMap();
+        public int vsize() {
+            return m.containsKey("vsize") ? mapInt("vsize") : mapInt("size");
+        }
 
-        Double oldValue;
-        for (TxOutput txOutput : outputs) {
-            if ((oldValue = pOutputs.put(txOutput.address(), txOutput.amount())) != null)
-                pOutputs.put(txOutput.address(), BitcoinUtil.normalizeAmount(oldValue.doubleValue() + txOutput.amount()));
-            // throw new BitcoinException("Duplicate output");
+        public double fee() {
+            Map fees = (Map) m.get("fees");
+            return fees != null ? mapDouble(fees, "base") : mapDouble("fee");
+        }
+
+        public Date time() {
+            return mapCTime("time");
+        }
+
+        public int height() {
+            return mapInt("height");
+        }
+
+        public int descendantCount() {
+            return mapInt("descendantcount");
+        }
+
+        public int descendantSize() {
+            return mapInt("descendantsize");
+        }
+
+        public int ancestorCount() {
+            return mapInt("ancestorcount");
         }
 
-        return (String) query("createrawtransaction", pInputs, pOutputs);
+        public int ancestorSize() {
+            return mapInt("ancestorsize");
+        }
+
+        public List<String> depends() {
+            return (List<String>) m.get("depends");
+        }
+
+    }
+
+    public MempoolEntry getMempoolEntry(String txId) throws BitcoinException {
+        return new MempoolEntryMapWrapper((Map) query("getmempoolentry", txId));
+    }
+
+    public Map<String, MempoolEntry> getMempoolEntries(Collection<String> txIds) throws BitcoinException {
+        List<String> ids = new ArrayList<String>(new LinkedHashSet<String>(txIds));
+        List<Object[]> params = new ArrayList<Object[]>(ids.size());
+        for (String txId : ids)
+            params.add(new Object[] { txId });
+        List<Object> results = batchQuery("getmempoolentry", params);
+        Map<String, MempoolEntry> r = new LinkedHashMap<String, MempoolEntry>();
+        for (int i = 0; i < ids.size(); i++)
+            if (results.get(i) instanceof Map)
+                r.put(ids.get(i), new MempoolEntryMapWrapper((Map) results.get(i)));
+        return r;
+    }
+
+    public void addNode(String node, AddNoteCmd command) throws BitcoinException {
+        query("addnode", node, command.toString());
+    }
+
+    private volatile BitcoinNetwork network = null;
+
+    public BitcoinNetwork getNetwork() throws BitcoinException {
+        if (network == null) {
+            String chain = mapStr((Map) query("getblockchaininfo"), "chain");
+            BitcoinNetwork n = BitcoinNetwork.forChain(chain);
+            if (n == null)
+                throw new BitcoinException("Unknown chain: " + chain);
+            network = n;
+        }
+        return network;
+    }
+
+    /**
+     * Sets the network explicitly, so getblockchaininfo isn't queried
+     * @param network 
+     */
+    public void setNetwork(BitcoinNetwork network) {
+        this.network = network;
+    }
+
+    /**
+     * Serialized locally as version 2 with final sequences, like createrawtransaction does. Outputs to the same
+     * address are merged. Addresses of another network than {@link #getNetwork()} are rejected.
+     */
+    public String createRawTransaction(List<TxInput> inputs, List<TxOutput> outputs) throws BitcoinException {
+        return BinaryRawTransaction.create(inputs, outputs, this, getNetwork()).hex();
     }
 
     public RawTransaction decodeRawTransaction(String hex) throws BitcoinException {
-        return new RawTransactionImpl((Map) query("decoderawtransaction", hex));
+        try {
+            return BinaryRawTransaction.parse(hex, this, getNetwork());
+        } catch (IllegalArgumentException ex) {
+            throw new BitcoinException("Invalid transaction: " + ex.getMessage(), ex);
+        }
     }
 
     public String dumpPrivKey(String address) throws BitcoinException {
@@ -103,9 +215,9 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         return ((Number) query("getbalance", account, minConf)).doubleValue();
     }
 
-    private class BlockMapWrapper extends MapWrapper implements Block {
+    private class BlockHeaderMapWrapper extends MapWrapper implements BlockHeader {
 
-        public BlockMapWrapper(Map m) {
+        public BlockHeaderMapWrapper(Map m) {
             super(m);
         }
 
@@ -117,10 +229,6 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
             return mapInt("confirmations");
         }
 
-        public int size() {
-            return mapInt("size");
-        }
-
         public int height() {
             return mapInt("height");
         }
@@ -130,11 +238,7 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         }
 
         public String merkleRoot() {
-            return mapStr("");
-        }
-
-        public List<String> tx() {
-            return (List<String>) m.get("tx");
+            return mapStr("merkleroot");
         }
 
         public Date time() {
@@ -161,6 +265,40 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
             return mapStr("nextblockhash");
         }
 
+    }
+
+    public BlockHeader getBlockHeader(String blockHash) throws BitcoinException {
+        return new BlockHeaderMapWrapper((Map) query("getblockheader", blockHash));
+    }
+
+    public List<BlockHeader> getBlockHeaders(int fromHeight, int toHeight) throws BitcoinException {
+        List<String> hashes = getBlockHashes(fromHeight, toHeight);
+        List<Object[]> params = new ArrayList<Object[]>(hashes.size());
+        for (String hash : hashes)
+            params.add(new Object[] { hash });
+        List<BlockHeader> r = new ArrayList<BlockHeader>(hashes.size());
+        for (Object o : batchQuery("getblockheader", params)) {
+            if (o instanceof BitcoinException)
+                throw (BitcoinException) o;
+            r.add(new BlockHeaderMapWrapper((Map) o));
+        }
+        return r;
+    }
+
+    private class BlockMapWrapper extends BlockHeaderMapWrapper implements Block {
+
+        public BlockMapWrapper(Map m) {
+            super(m);
+        }
+
+        public int size() {
+            return mapInt("size");
+        }
+
+        public List<String> tx() {
+            return (List<String>) m.get("tx");
+        }
+
         public Block previous() throws BitcoinException {
             if (!m.containsKey("previousblockhash"))
                 return null;
@@ -179,6 +317,83 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         return new BlockMapWrapper((Map) query("getblock", blockHash));
     }
 
+    private class FullBlockMapWrapper extends BlockMapWrapper implements FullBlock {
+
+        public FullBlockMapWrapper(Map m) {
+            super(m);
+        }
+
+        @Override
+        public List<String> tx() {
+            final List<Map> tx = (List<Map>) m.get("tx");
+            return new AbstractList<String>() {
+
+                @Override
+                public String get(int index) {
+                    return mapStr(tx.get(index), "txid");
+                }
+
+                @Override
+                public int size() {
+                    return tx.size();
+                }
+            };
+        }
+
+        public List<RawTransaction> transactions() {
+            return new ListMapWrapper<RawTransaction>((List<Map>) m.get("tx")) {
+
+                @Override
+                protected RawTransaction wrap(Map m) {
+                    return new BlockTransactionImpl(m, FullBlockMapWrapper.this);
+                }
+            };
+        }
+
+    }
+
+    /**
+     * Transaction embedded into a block, which carries no block related fields of its own
+     */
+    private class BlockTransactionImpl extends RawTransactionImpl {
+
+        private final Block block;
+
+        public BlockTransactionImpl(Map<String, Object> tx, Block block) {
+            super(tx);
+            this.block = block;
+        }
+
+        @Override
+        public String blockHash() {
+            return block.hash();
+        }
+
+        @Override
+        public int confirmations() {
+            return block.confirmations();
+        }
+
+        @Override
+        public Date time() {
+            return block.time();
+        }
+
+        @Override
+        public Date blocktime() {
+            return block.time();
+        }
+
+    }
+
+    public FullBlock getFullBlock(String blockHash) throws BitcoinException {
+        return new FullBlockMapWrapper((Map) query("getblock", blockHash, 2));
+    }
+
+    public byte[] getRawBlock(String blockHash) throws BitcoinException {
+        return BitcoinUtil.hexToBytes((String) query("getblock", blockHash, 0));
+    }
+
     public int getBlockCount() throws BitcoinException {
         return ((Number) query("getblockcount")).intValue();
     }
@@ -187,6 +402,84 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         return (String) query("getblockhash", blockId);
     }
 
+    public List<String> getBlockHashes(int fromHeight, int toHeight) throws BitcoinException {
+        List<Object[]> params = new ArrayList<Object[]>(Math.max(0, toHeight - fromHeight + 1));
+        for (int height = fromHeight; height <= toHeight; height++)
+            params.add(new Object[] { height });
+        List<String> r = new ArrayList<String>(params.size());
+        for (Object o : batchQuery("getblockhash", params)) {
+            if (o instanceof BitcoinException)
+                throw (BitcoinException) o;
+            r.add((String) o);
+        }
+        return r;
+    }
+
+    private class BlockFilterMapWrapper extends MapWrapper implements BlockFilter {
+
+        private final String blockHash;
+
+        public BlockFilterMapWrapper(String blockHash, Map m) {
+            super(m);
+            this.blockHash = blockHash;
+        }
+
+        public String blockHash() {
+            return blockHash;
+        }
+
+        public String filter() {
+            return mapStr("filter");
+        }
+
+        public String header() {
+            return mapStr("header");
+        }
+
+    }
+
+    public BlockFilter getBlockFilter(String blockHash) throws BitcoinException {
+        return new BlockFilterMapWrapper(blockHash, (Map) query("getblockfilter", blockHash));
+    }
+
+    public List<BlockFilter> getBlockFilters(List<String> blockHashes) throws BitcoinException {
+        List<Object[]> params = new ArrayList<Object[]>(blockHashes.size());
+        for (String blockHash : blockHashes)
+            params.add(new Object[] { blockHash });
+        List<BlockFilter> r = new ArrayList<BlockFilter>(params.size());
+        int i = 0;
+        for (Object o : batchQuery("getblockfilter", params)) {
+            if (o instanceof BitcoinException)
+                throw (BitcoinException) o;
+            r.add(new BlockFilterMapWrapper(blockHashes.get(i++), (Map) o));
+        }
+        return r;
+    }
+
+    private class BlockTipMapWrapper extends MapWrapper implements BlockTip {
+
+        public BlockTipMapWrapper(Map m) {
+            super(m);
+        }
+
+        public String hash() {
+            return mapStr("hash");
+        }
+
+        public int height() {
+            return mapInt("height");
+        }
+
+    }
+
+    public BlockTip waitForNewBlock(int timeout) throws BitcoinException {
+        return new BlockTipMapWrapper((Map) query("waitfornewblock", timeout));
+    }
+
+    public BlockTip waitForBlockHeight(int height, int timeout) throws BitcoinException {
+        return new BlockTipMapWrapper((Map) query("waitforblockheight", height, timeout));
+    }
+
     public int getConnectionCount() throws BitcoinException {
         return ((Number) query("getconnectioncount")).intValue();
     }
@@ -579,6 +872,32 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         return new RawTransactionImpl((Map) query("getrawtransaction", txId, 1));
     }
 
+    public Map<String, RawTransaction> getRawTransactions(Collection<String> txIds) throws BitcoinException {
+        List<String> ids = new ArrayList<String>(new LinkedHashSet<String>(txIds));
+        List<Object[]> params = new ArrayList<Object[]>(ids.size());
+        for (String txId : ids)
+            params.add(new Object[] { txId, 1 });
+        List<Object> results = batchQuery("getrawtransaction", params);
+        Map<String, RawTransaction> r = new LinkedHashMap<String, RawTransaction>();
+        for (int i = 0; i < ids.size(); i++)
+            if (results.get(i) instanceof Map)
+                r.put(ids.get(i), new RawTransactionImpl((Map) results.get(i)));
+        return r;
+    }
+
+    public Map<String, RawTransaction> getWalletTransactions(Collection<String> txIds) throws BitcoinException {
+        List<String> ids = new ArrayList<String>(new LinkedHashSet<String>(txIds));
+        List<Object[]> params = new ArrayList<Object[]>(ids.size());
+        for (String txId : ids)
+            params.add(new Object[] { txId });
+        List<Object> results = batchQuery("gettransaction", params);
+        Map<String, RawTransaction> r = new LinkedHashMap<String, RawTransaction>();
+        for (int i = 0; i < ids.size(); i++)
+            if (results.get(i) instanceof Map && ((Map) results.get(i)).get("hex") instanceof String)
+                r.put(ids.get(i), BinaryRawTransaction.parse((String) ((Map) results.get(i)).get("hex")));
+        return r;
+    }
+
     public double getReceivedByAccount(String account) throws BitcoinException {
         return ((Number) query("getreceivedbyaccount", account)).doubleValue();
     }
@@ -599,6 +918,52 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         return this.getRawTransaction(txId);
     }
 
+    private class TxOutMapWrapper extends MapWrapper implements TxOut {
+
+        public TxOutMapWrapper(Map m) {
+            super(m);
+        }
+
+        public String bestBlock() {
+            return mapStr("bestblock");
+        }
+
+        public int confirmations() {
+            return mapInt("confirmations");
+        }
+
+        public double value() {
+            return mapDouble("value");
+        }
+
+        public String scriptPubKey() {
+            return mapStr((Map) m.get("scriptPubKey"), "hex");
+        }
+
+        public boolean coinbase() {
+            return mapBool("coinbase");
+        }
+
+    }
+
+    public TxOut getTxOut(String txId, int vout) throws BitcoinException {
+        Map m = (Map) query("gettxout", txId, vout);
+        return m == null ? null : new TxOutMapWrapper(m);
+    }
+
+    public List<TxOut> getTxOuts(List<? extends TxInput> outputs) throws BitcoinException {
+        List<Object[]> params = new ArrayList<Object[]>(outputs.size());
+        for (TxInput output : outputs)
+            params.add(new Object[] { output.txid(), output.vout() });
+        List<TxOut> r = new ArrayList<TxOut>(params.size());
+        for (Object o : batchQuery("gettxout", params)) {
+            if (o instanceof BitcoinException)
+                throw (BitcoinException) o;
+            r.add(o == null ? null : new TxOutMapWrapper((Map) o));
+        }
+        return r;
+    }
+
     public TxOutSetInfo getTxOutSetInfo() throws BitcoinException {
         final Map txoutsetinfoResult = (Map) query("gettxoutsetinfo");
         return new TxOutSetInfo() {
@@ -755,102 +1120,130 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         return new ReceivedAddressListWrapper((List) query("listreceivedbyaddress", minConf, includeEmpty));
     }
 
-    private class TransactionListMapWrapper extends ListMapWrapper<Transaction> {
+    private class TransactionImpl extends MapWrapper implements Transaction {
 
-        public TransactionListMapWrapper(List<Map> list) {
-            super(list);
+        public TransactionImpl(Map m) {
+            super(m);
         }
 
-        @Override
-        protected Transaction wrap(final Map m) {
-            return new Transaction() {
+        public String account() {
+            return mapStr("account");
+        }
 
-                public String account() {
-                    return mapStr(m, "account");
-                }
+        public String address() {
+            return mapStr("address");
+        }
 
-                public String address() {
-                    return mapStr(m, "address");
-                }
+        public String category() {
+            return mapStr("category");
+        }
 
-                public String category() {
-                    return mapStr(m, "category");
-                }
+        public double amount() {
+            return mapDouble("amount");
+        }
 
-                public double amount() {
-                    return mapDouble(m, "amount");
-                }
+        public double fee() {
+            return mapDouble("fee");
+        }
 
-                public double fee() {
-                    return mapDouble(m, "fee");
-                }
+        public int confirmations() {
+            return mapInt("confirmations");
+        }
 
-                public int confirmations() {
-                    return mapInt(m, "confirmations");
-                }
+        public String blockHash() {
+            return mapStr("blockhash");
+        }
 
-                public String blockHash() {
-                    return mapStr(m, "blockhash");
-                }
+        public int blockIndex() {
+            return mapInt("blockindex");
+        }
 
-                public int blockIndex() {
-                    return mapInt(m, "blockindex");
-                }
+        public Date blockTime() {
+            return mapCTime("blocktime");
+        }
 
-                public Date blockTime() {
-                    return mapCTime(m, "blocktime");
-                }
+        public String txId() {
+            return mapStr("txid");
+        }
 
-                public String txId() {
-                    return mapStr(m, "txid");
-                }
+        public int vout() {
+            return m.containsKey("vout") ? mapInt("vout") : -1;
+        }
 
-                public Date time() {
-                    return mapCTime(m, "time");
-                }
+        public Date time() {
+            return mapCTime("time");
+        }
 
-                public Date timeReceived() {
-                    return mapCTime(m, "timereceived");
-                }
+        public Date timeReceived() {
+            return mapCTime("timereceived");
+        }
 
-                public String comment() {
-                    return mapStr(m, "comment");
-                }
+        public String comment() {
+            return mapStr("comment");
+        }
 
-                public String commentTo() {
-                    return mapStr(m, "to");
-                }
+        public String commentTo() {
+            return mapStr("to");
+        }
 
-                private RawTransaction raw = null;
+        private RawTransaction raw = null;
 
-                public RawTransaction raw() {
-                    if (raw == null)
-                        try {
-                            raw = getRawTransaction(txId());
-                        } catch (BitcoinException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                    return raw;
+        public RawTransaction raw() {
+            if (raw == null)
+                try {
+                    raw = getRawTransaction(txId());
+                } catch (BitcoinException ex) {
+                    throw new RuntimeException(ex);
                 }
+            return raw;
+        }
 
-                @Override
-                public String toString() {
-                    return m.toString();
-                }
+    }
 
-            };
+    private class TransactionListMapWrapper extends ListMapWrapper<Transaction> {
+
+        public TransactionListMapWrapper(List<Map> list) {
+            super(list);
+        }
+
+        @Override
+        protected Transaction wrap(final Map m) {
+            return new TransactionImpl(m);
         }
 
     }
 
+    public void prefetchRaw(List<Transaction> transactions) throws BitcoinException {
+        Set<String> txIds = new LinkedHashSet<String>();
+        for (Transaction t : transactions)
+            if (t instanceof TransactionImpl && ((TransactionImpl) t).raw == null)
+                txIds.add(t.txId());
+        if (txIds.isEmpty())
+            return;
+        Map<String, RawTransaction> raw = getRawTransactions(txIds);
+        for (Transaction t : transactions)
+            if (t instanceof TransactionImpl && ((TransactionImpl) t).raw == null)
+                ((TransactionImpl) t).raw = raw.get(t.txId());
+    }
+
+    private List<Transaction> prefetched(List<Transaction> transactions) throws BitcoinException {
+        List<Transaction> r = new ArrayList<Transaction>(transactions);
+        prefetchRaw(r);
+        return r;
+    }
+
     private class TransactionsSinceBlockImpl implements TransactionsSinceBlock {
 
         public final List<Transaction> transactions;
         public final String lastBlock;
 
         public TransactionsSinceBlockImpl(Map r) {
-            this.transactions = new TransactionListMapWrapper((List) r.get("transactions"));
-            this.lastBlock = (String) r.get("lastblock");
+            this(new TransactionListMapWrapper((List) r.get("transactions")), (String) r.get("lastblock"));
+        }
+
+        public TransactionsSinceBlockImpl(List<Transaction> transactions, String lastBlock) {
+            this.transactions = transactions;
+            this.lastBlock = lastBlock;
         }
 
         public List<Transaction> transactions() {
@@ -875,6 +1268,13 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         return new TransactionsSinceBlockImpl((Map) query("listsinceblock", blockHash, targetConfirmations));
     }
 
+    public TransactionsSinceBlock listSinceBlock(String blockHash, int targetConfirmations, boolean prefetchRaw) throws BitcoinException {
+        TransactionsSinceBlock r = listSinceBlock(blockHash == null ? "" : blockHash, targetConfirmations);
+        if (!prefetchRaw)
+            return r;
+        return new TransactionsSinceBlockImpl(prefetched(r.transactions()), r.lastBlock());
+    }
+
     public List<Transaction> listTransactions() throws BitcoinException {
         return new TransactionListMapWrapper((List) query("listtransactions"));
     }
@@ -891,6 +1291,11 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         return new TransactionListMapWrapper((List) query("listtransactions", account, count, from));
     }
 
+    public List<Transaction> listTransactions(String account, int count, int from, boolean prefetchRaw) throws BitcoinException {
+        List<Transaction> r = listTransactions(account, count, from);
+        return prefetchRaw ? prefetched(r) : r;
+    }
+
     private class UnspentListWrapper extends ListMapWrapper<Unspent> {
 
         public UnspentListWrapper(List<Map> list) {
@@ -933,6 +1338,24 @@ public abstract class AbstractBitcoinClient implements Bitcoin {
         }
     }
 
+    public List<TxInput> listLockUnspent() throws BitcoinException {
+        List<TxInput> r = new ArrayList<TxInput>();
+        for (Map m : (List<Map>) query("listlockunspent"))
+            r.add(new BasicTxInput(mapStr(m, "txid"), mapInt(m, "vout")));
+        return r;
+    }
+
+    public boolean lockUnspent(boolean unlock, List<? extends TxInput> outputs) throws BitcoinException {
+        List<Map> pOutputs = new ArrayList<Map>(outputs.size());
+        for (TxInput output : outputs) {
+            Map m = new LinkedHashMap();
+            m.put("txid", output.txid());
+            m.put("vout", output.vout());
+            pOutputs.add(m);
+        }
+        return (Boolean) query("lockunspent", unlock, pOutputs);
+    }
+
     public List<Unspent> listUnspent() throws BitcoinException {
         return new UnspentListWrapper((List) query("listunspent"));
     }
@@ -0,0 +1,52 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Persists the position of a {@link BitcoinAcceptor}, so that after a restart it resumes where it left off
+ * instead of re-delivering or missing payments
+ */
+public interface AcceptorCheckpointStore {
+
+    public static class Checkpoint {
+        public final String lastBlock;
+        /**
+         * txids already delivered since lastBlock
+         */
+        public final Collection<String> seen;
+
+        public Checkpoint(String lastBlock, Collection<String> seen) {
+            this.lastBlock = lastBlock;
+            this.seen = seen;
+        }
+    }
+
+    /**
+     * @return the last saved checkpoint, null if there is none
+     * @throws IOException 
+     */
+    public Checkpoint load() throws IOException;
+
+    public void save(Checkpoint checkpoint) throws IOException;
+
+}
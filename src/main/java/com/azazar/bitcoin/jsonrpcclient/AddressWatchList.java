@@ -0,0 +1,350 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import wang.lcs.bitcoin.account.Base58;
+import wang.lcs.bitcoin.account.Bech32;
+
+/**
+ * Watch-list of deposit addresses for matching against blocks and mempool transactions.
+ * Addresses are stored as 20 byte hash160 values in a single array with open addressing, and a bloom filter in
+ * front of it rejects almost all non-matching outputs with a couple of memory reads.
+ * A hash160 matches every script type built from it, so adding a P2PKH address also matches P2WPKH outputs
+ * paying the same key.
+ */
+public class AddressWatchList {
+
+    private static final int HASH_LENGTH = 20;
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 5;
+
+    public static class Hit {
+        public final String txId;
+        public final int vout;
+        public final double value;
+        public final byte[] hash160;
+
+        public Hit(String txId, int vout, double value, byte[] hash160) {
+            this.txId = txId;
+            this.vout = vout;
+            this.value = value;
+            this.hash160 = hash160;
+        }
+
+        @Override
+        public String toString() {
+            return "Hit{" + "txId=" + txId + ", vout=" + vout + ", value=" + value + '}';
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final String bech32Hrp;
+    private final BitcoinNetwork network;
+    private byte[] table;
+    private long[] occupied;
+    private int mask;
+    private int size = 0;
+    private long[] bloom;
+    private int bloomMask;
+
+    /**
+     * @param expectedSize number of addresses to size the tables for, they grow as needed
+     * @param network network addresses must belong to
+     */
+    public AddressWatchList(int expectedSize, BitcoinNetwork network) {
+        this.bech32Hrp = network.bech32Hrp;
+        this.network = network;
+        allocate(expectedSize);
+    }
+
+    /**
+     * @param expectedSize number of addresses to size the tables for, they grow as needed
+     * @param bech32Hrp human readable part of segwit addresses, e.g. "bc" or "tb"
+     */
+    public AddressWatchList(int expectedSize, String bech32Hrp) {
+        this.bech32Hrp = bech32Hrp;
+        this.network = forHrp(bech32Hrp);
+        allocate(expectedSize);
+    }
+
+    public AddressWatchList() {
+        this(1024, BitcoinNetwork.MAIN);
+    }
+
+    private static BitcoinNetwork forHrp(String bech32Hrp) {
+        // networks sharing a prefix share the base58 versions as well
+        for (BitcoinNetwork n : BitcoinNetwork.values())
+            if (n.bech32Hrp.equals(bech32Hrp))
+                return n;
+        return null;
+    }
+
+    private void allocate(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 < expectedSize * 4)
+            capacity <<= 1;
+        allocateCapacity(capacity, expectedSize);
+    }
+
+    private void allocateCapacity(int capacity, int expectedSize) {
+        table = new byte[capacity * HASH_LENGTH];
+        occupied = new long[(capacity + 63) >>> 6];
+        mask = capacity - 1;
+        int bloomBits = 64;
+        while (bloomBits < expectedSize * BLOOM_BITS_PER_ENTRY)
+            bloomBits <<= 1;
+        bloom = new long[bloomBits >>> 6];
+        bloomMask = bloomBits - 1;
+        size = 0;
+    }
+
+    int capacity() {
+        lock.readLock().lock();
+        try {
+            return mask + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int word(byte[] h, int o) {
+        return ((h[o] & 0xff) << 24) | ((h[o + 1] & 0xff) << 16) | ((h[o + 2] & 0xff) << 8) | (h[o + 3] & 0xff);
+    }
+
+    private boolean bloomContains(byte[] h, int o) {
+        // hash160 output is uniformly distributed already, two of its words give all probe positions
+        int h1 = word(h, o), h2 = word(h, o + 4) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void bloomAdd(byte[] h, int o) {
+        int h1 = word(h, o), h2 = word(h, o + 4) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean isOccupied(int slot) {
+        return (occupied[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private boolean equalsAt(int slot, byte[] h, int o) {
+        int s = slot * HASH_LENGTH;
+        for (int i = 0; i < HASH_LENGTH; i++)
+            if (table[s + i] != h[o + i])
+                return false;
+        return true;
+    }
+
+    private int find(byte[] h, int o) {
+        int slot = word(h, o + 8) & mask;
+        while (isOccupied(slot)) {
+            if (equalsAt(slot, h, o))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1 - slot;
+    }
+
+    private boolean insert(byte[] h, int o) {
+        int slot = find(h, o);
+        if (slot >= 0)
+            return false;
+        slot = -1 - slot;
+        System.arraycopy(h, o, table, slot * HASH_LENGTH, HASH_LENGTH);
+        occupied[slot >>> 6] |= 1L << slot;
+        bloomAdd(h, o);
+        size++;
+        return true;
+    }
+
+    private void grow() {
+        byte[] oldTable = table;
+        long[] oldOccupied = occupied;
+        int oldCapacity = mask + 1;
+        // the doubled table takes twice the current entries before it grows again
+        allocateCapacity(oldCapacity << 1, size << 1);
+        for (int slot = 0; slot < oldCapacity; slot++)
+            if ((oldOccupied[slot >>> 6] & (1L << slot)) != 0)
+                insert(oldTable, slot * HASH_LENGTH);
+    }
+
+    /**
+     * Adds hash160 of a public key or script
+     * @return false if it was already watched
+     */
+    public boolean add(byte[] hash160) {
+        if (hash160.length != HASH_LENGTH)
+            throw new IllegalArgumentException("hash160 must be 20 bytes long");
+        lock.writeLock().lock();
+        try {
+            if ((size + 1) * 4 > (mask + 1) * 3)
+                grow();
+            return insert(hash160, 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds base58 P2PKH/P2SH or bech32 P2WPKH address of the network of the list
+     * @return false if it was already watched
+     */
+    public boolean addAddress(String address) throws BitcoinException {
+        return add(addressToHash160(address));
+    }
+
+    public boolean contains(byte[] hash160) {
+        if (hash160 == null || hash160.length != HASH_LENGTH)
+            return false;
+        return contains(hash160, 0);
+    }
+
+    private boolean contains(byte[] h, int o) {
+        lock.readLock().lock();
+        try {
+            return bloomContains(h, o) && find(h, o) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return false for null and invalid addresses
+     */
+    public boolean containsAddress(String address) {
+        if (address == null)
+            return false;
+        try {
+            return contains(addressToHash160(address));
+        } catch (BitcoinException ex) {
+            return false;
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private byte[] addressToHash160(String address) throws BitcoinException {
+        if (address == null)
+            throw new BitcoinException("No address");
+        if (address.length() > bech32Hrp.length() && address.substring(0, bech32Hrp.length() + 1).equalsIgnoreCase(bech32Hrp + "1")) {
+            byte[] program;
+            try {
+                program = Bech32.decodeSegwitAddress(bech32Hrp, address);
+            } catch (IllegalArgumentException ex) {
+                throw new BitcoinException("Invalid address: " + address, ex);
+            }
+            if (program[0] != 0 || program.length != HASH_LENGTH + 1)
+                throw new BitcoinException("Unsupported witness program: " + address);
+            byte[] r = new byte[HASH_LENGTH];
+            System.arraycopy(program, 1, r, 0, HASH_LENGTH);
+            return r;
+        }
+        byte[] decoded;
+        try {
+            decoded = Base58.decodeChecked(address);
+        } catch (IllegalArgumentException ex) {
+            throw new BitcoinException("Invalid address: " + address, ex);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new BitcoinException(ex);
+        }
+        if (decoded.length != HASH_LENGTH + 1)
+            throw new BitcoinException("Invalid address: " + address);
+        if (network != null && decoded[0] != network.pubKeyHashVersion && decoded[0] != network.scriptHashVersion)
+            throw new BitcoinException("Address is not for " + network.chain + ": " + address);
+        byte[] r = new byte[HASH_LENGTH];
+        System.arraycopy(decoded, 1, r, 0, HASH_LENGTH);
+        return r;
+    }
+
+    /**
+     * Extracts hash160 from P2PKH, P2SH and P2WPKH output scripts
+     * @return null for any other script
+     */
+    public static byte[] scriptHash160(byte[] script) {
+        int o;
+        if (script.length == 25 && script[0] == 0x76 && script[1] == (byte) 0xa9 && script[2] == 0x14 && script[23] == (byte) 0x88 && script[24] == (byte) 0xac)
+            o = 3;
+        else if (script.length == 23 && script[0] == (byte) 0xa9 && script[1] == 0x14 && script[22] == (byte) 0x87)
+            o = 2;
+        else if (script.length == 22 && script[0] == 0x00 && script[1] == 0x14)
+            o = 2;
+        else
+            return null;
+        byte[] r = new byte[HASH_LENGTH];
+        System.arraycopy(script, o, r, 0, HASH_LENGTH);
+        return r;
+    }
+
+    public static byte[] scriptHash160(String scriptHex) {
+        if (scriptHex == null)
+            return null;
+        int len = scriptHex.length();
+        if (len != 50 && len != 46 && len != 44)
+            return null;
+        return scriptHash160(BitcoinUtil.hexToBytes(scriptHex));
+    }
+
+    /**
+     * @return outputs of the transaction paying to watched addresses
+     */
+    public List<Hit> match(Bitcoin.RawTransaction tx) {
+        List<Hit> hits = null;
+        for (Bitcoin.RawTransaction.Out out : tx.vOut()) {
+            Bitcoin.RawTransaction.Out.ScriptPubKey spk = out.scriptPubKey();
+            byte[] h = spk == null ? null : scriptHash160(spk.hex());
+            if (h != null && contains(h, 0)) {
+                if (hits == null)
+                    hits = new ArrayList<Hit>();
+                hits.add(new Hit(tx.txId(), out.n(), out.value(), h));
+            }
+        }
+        return hits == null ? Collections.<Hit>emptyList() : hits;
+    }
+
+    /**
+     * @return outputs in the block paying to watched addresses, in block order
+     */
+    public List<Hit> match(Bitcoin.FullBlock block) {
+        List<Hit> hits = new ArrayList<Hit>();
+        for (Bitcoin.RawTransaction tx : block.transactions())
+            hits.addAll(match(tx));
+        return hits;
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.LinkedList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands events over to the wrapped listener on an executor, so a slow listener does not hold up the acceptor or
+ * other listeners. Events are queued in a bounded ring buffer and delivered one at a time in their original order.
+ */
+public class AsyncPaymentListener implements BitcoinReorgListener {
+
+    private static final Logger logger = Logger.getLogger(AsyncPaymentListener.class.getCanonicalName());
+
+    public static enum OverflowPolicy {
+        /**
+         * Wait for the listener to catch up
+         */
+        BLOCK,
+        /**
+         * Discard the oldest queued event
+         */
+        DROP_OLDEST,
+        /**
+         * Move events to an overflow queue of spillCapacity events, delivered after the ring buffer. The oldest
+         * event is discarded when the overflow queue is full too.
+         */
+        SPILL
+    }
+
+    public final BitcoinPaymentListener listener;
+    private final Executor executor;
+    private final OverflowPolicy overflowPolicy;
+    private final int spillCapacity;
+
+    private final Object[] events;
+    private final long[] enqueued;
+    private int head = 0, size = 0;
+    private final LinkedList<Object[]> spill = new LinkedList<Object[]>();
+    private boolean scheduled = false;
+
+    private long accepted = 0, delivered = 0, dropped = 0, spilled = 0;
+    private final CopyOnWriteArrayList<Runnable> deliveryCallbacks = new CopyOnWriteArrayList<Runnable>();
+
+    /**
+     * @param listener
+     * @param executor
+     * @param capacity size of the ring buffer
+     * @param overflowPolicy
+     * @param spillCapacity size of the overflow queue of {@link OverflowPolicy#SPILL}
+     */
+    public AsyncPaymentListener(BitcoinPaymentListener listener, Executor executor, int capacity, OverflowPolicy overflowPolicy, int spillCapacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (spillCapacity <= 0)
+            throw new IllegalArgumentException("spillCapacity must be positive");
+        this.listener = listener;
+        this.executor = executor;
+        this.overflowPolicy = overflowPolicy;
+        this.spillCapacity = spillCapacity;
+        this.events = new Object[capacity];
+        this.enqueued = new long[capacity];
+    }
+
+    public AsyncPaymentListener(BitcoinPaymentListener listener, Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+        this(listener, executor, capacity, overflowPolicy, capacity * 16);
+    }
+
+    public AsyncPaymentListener(BitcoinPaymentListener listener, Executor executor) {
+        this(listener, executor, 1024, OverflowPolicy.BLOCK);
+    }
+
+    private final Runnable drain = new Runnable() {
+
+        public void run() {
+            for (;;) {
+                Object event;
+                synchronized (AsyncPaymentListener.this) {
+                    if (size > 0) {
+                        event = events[head];
+                        events[head] = null;
+                        head = (head + 1) % events.length;
+                        size--;
+                        if (!spill.isEmpty()) {
+                            Object[] e = spill.removeFirst();
+                            int tail = (head + size) % events.length;
+                            events[tail] = e[0];
+                            enqueued[tail] = (Long) e[1];
+                            size++;
+                        }
+                        AsyncPaymentListener.this.notifyAll();
+                    } else {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    if (event instanceof Bitcoin.Transaction)
+                        listener.transaction((Bitcoin.Transaction) event);
+                    else if (event instanceof String)
+                        listener.block((String) event);
+                    else if (event instanceof BlockDisconnected)
+                        ((BitcoinReorgListener) listener).blockDisconnected(((BlockDisconnected) event).blockHash);
+                    else
+                        ((BitcoinReorgListener) listener).transactionUnconfirmed(((TransactionUnconfirmed) event).transaction);
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+                synchronized (AsyncPaymentListener.this) {
+                    delivered++;
+                }
+                for (Runnable callback : deliveryCallbacks)
+                    try {
+                        callback.run();
+                    } catch (Exception ex) {
+                        logger.log(Level.SEVERE, null, ex);
+                    }
+            }
+        }
+    };
+
+    private void spill(Object event, long now) {
+        if (spill.size() == spillCapacity) {
+            // the ring is full while anything is spilled, drop its oldest event and move the first spilled one up
+            events[head] = null;
+            head = (head + 1) % events.length;
+            dropped++;
+            Object[] e = spill.removeFirst();
+            int tail = (head + size - 1) % events.length;
+            events[tail] = e[0];
+            enqueued[tail] = (Long) e[1];
+        }
+        spill.add(new Object[] { event, now });
+        spilled++;
+    }
+
+    /**
+     * @return false if the ring buffer is full under {@link OverflowPolicy#BLOCK} and no drain is scheduled to
+     * empty it, the caller has to drain then
+     */
+    private boolean offer(Object event) {
+        boolean schedule;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (!spill.isEmpty()) {
+                // keep the order behind already spilled events
+                spill(event, now);
+                accepted++;
+                return true;
+            }
+            if (size == events.length) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        boolean interrupted = false;
+                        while (size == events.length && scheduled)
+                            try {
+                                wait();
+                            } catch (InterruptedException ex) {
+                                interrupted = true;
+                            }
+                        if (interrupted)
+                            Thread.currentThread().interrupt();
+                        if (size == events.length) {
+                            scheduled = true;
+                            return false;
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        events[head] = null;
+                        head = (head + 1) % events.length;
+                        size--;
+                        dropped++;
+                        break;
+                    case SPILL:
+                        spill(event, now);
+                        accepted++;
+                        return true;
+                }
+            }
+            int tail = (head + size) % events.length;
+            events[tail] = event;
+            enqueued[tail] = now;
+            size++;
+            accepted++;
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule)
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException ex) {
+                logger.log(Level.WARNING, "Listener dispatch rejected, delivering on the calling thread", ex);
+                drain.run();
+            }
+        return true;
+    }
+
+    private void enqueue(Object event) {
+        while (!offer(event))
+            drain.run();
+    }
+
+    public void block(String blockHash) {
+        enqueue(blockHash);
+    }
+
+    public void transaction(Bitcoin.Transaction transaction) {
+        enqueue(transaction);
+    }
+
+    private static class BlockDisconnected {
+        final String blockHash;
+
+        BlockDisconnected(String blockHash) {
+            this.blockHash = blockHash;
+        }
+    }
+
+    private static class TransactionUnconfirmed {
+        final Bitcoin.Transaction transaction;
+
+        TransactionUnconfirmed(Bitcoin.Transaction transaction) {
+            this.transaction = transaction;
+        }
+    }
+
+    /**
+     * Forwarded only if the wrapped listener is a {@link BitcoinReorgListener}
+     */
+    public void blockDisconnected(String blockHash) {
+        if (listener instanceof BitcoinReorgListener)
+            enqueue(new BlockDisconnected(blockHash));
+    }
+
+    /**
+     * Forwarded only if the wrapped listener is a {@link BitcoinReorgListener}
+     */
+    public void transactionUnconfirmed(Bitcoin.Transaction transaction) {
+        if (listener instanceof BitcoinReorgListener)
+            enqueue(new TransactionUnconfirmed(transaction));
+    }
+
+    /**
+     * @return number of events waiting for the listener, including spilled ones
+     */
+    public synchronized int getQueued() {
+        return size + spill.size();
+    }
+
+    /**
+     * @return milliseconds the oldest waiting event has been queued for, 0 if the listener is idle
+     */
+    public synchronized long getLagMillis() {
+        return size == 0 ? 0 : System.currentTimeMillis() - enqueued[head];
+    }
+
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return number of events accepted from the acceptor so far
+     */
+    public synchronized long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Events leave the queue in order, so the first getSettled() accepted events are done with
+     *
+     * @return number of events that were delivered or dropped by the overflow policy
+     */
+    public synchronized long getSettled() {
+        return delivered + dropped;
+    }
+
+    /**
+     * @param callback run on the delivering thread after every delivered event
+     */
+    public void addDeliveryCallback(Runnable callback) {
+        deliveryCallbacks.add(callback);
+    }
+
+    public void removeDeliveryCallback(Runnable callback) {
+        deliveryCallbacks.remove(callback);
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getSpilled() {
+        return spilled;
+    }
+
+}
@@ -0,0 +1,497 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import wang.lcs.bitcoin.account.BitcoinAccount;
+
+/**
+ * Transaction decoded and serialized locally, in legacy or BIP144 segwit format, without createrawtransaction
+ * or decoderawtransaction round trips. Inputs and outputs are mutable so the transaction can be built and
+ * signed in place.
+ */
+public class BinaryRawTransaction implements Bitcoin.RawTransaction {
+
+    public static final long SEQUENCE_FINAL = 0xffffffffL;
+    private static final String NULL_HASH = "0000000000000000000000000000000000000000000000000000000000000000";
+
+    public class Input implements Bitcoin.RawTransaction.In {
+
+        public final String txid;
+        public final int vout;
+        public byte[] scriptSig;
+        public long sequence;
+        public byte[][] witness;
+
+        public Input(String txid, int vout, byte[] scriptSig, long sequence, byte[][] witness) {
+            this.txid = txid;
+            this.vout = vout;
+            this.scriptSig = scriptSig;
+            this.sequence = sequence;
+            this.witness = witness;
+        }
+
+        /**
+         * @return null for a coinbase input, like decoderawtransaction
+         */
+        public String txid() {
+            return vout == -1 && txid.equals(NULL_HASH) ? null : txid;
+        }
+
+        public int vout() {
+            return vout;
+        }
+
+        public Map<String, Object> scriptSig() {
+            Map<String, Object> m = new LinkedHashMap<String, Object>();
+            m.put("asm", BitcoinScript.asm(scriptSig));
+            m.put("hex", BitcoinUtil.bytesToHex(scriptSig));
+            return m;
+        }
+
+        public long sequence() {
+            return sequence;
+        }
+
+        public List<String> txinwitness() {
+            List<String> r = new ArrayList<String>(witness.length);
+            for (byte[] w : witness)
+                r.add(BitcoinUtil.bytesToHex(w));
+            return r;
+        }
+
+        public Bitcoin.RawTransaction getTransaction() {
+            if (bitcoin == null)
+                throw new IllegalStateException("Transaction was decoded without a client");
+            try {
+                return bitcoin.getRawTransaction(txid);
+            } catch (BitcoinException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        public Out getTransactionOutput() {
+            return getTransaction().vOut().get(vout);
+        }
+
+    }
+
+    public class Output implements Bitcoin.RawTransaction.Out, Bitcoin.RawTransaction.Out.ScriptPubKey {
+
+        /**
+         * in satoshis
+         */
+        public long value;
+        public byte[] script;
+
+        public Output(long value, byte[] script) {
+            this.value = value;
+            this.script = script;
+        }
+
+        public double value() {
+            return UtxoIndex.toAmount(value);
+        }
+
+        public int n() {
+            return outputs.indexOf(this);
+        }
+
+        public ScriptPubKey scriptPubKey() {
+            return this;
+        }
+
+        public String asm() {
+            return BitcoinScript.asm(script);
+        }
+
+        public String hex() {
+            return BitcoinUtil.bytesToHex(script);
+        }
+
+        public int reqSigs() {
+            return BitcoinScript.reqSigs(script);
+        }
+
+        public String type() {
+            return BitcoinScript.type(script);
+        }
+
+        public List<String> addresses() {
+            return BitcoinScript.addresses(script, network);
+        }
+
+        public Bitcoin.TxInput toInput() {
+            return new Bitcoin.BasicTxInput(txId(), n());
+        }
+
+        public Bitcoin.RawTransaction transaction() {
+            return BinaryRawTransaction.this;
+        }
+
+    }
+
+    public int version = 2;
+    public long lockTime = 0;
+    public final List<Input> inputs = new ArrayList<Input>();
+    public final List<Output> outputs = new ArrayList<Output>();
+    private final Bitcoin bitcoin;
+    private final BitcoinNetwork network;
+
+    /**
+     * @param bitcoin client to look up previous transactions with, may be null
+     * @param network network to format addresses for
+     */
+    public BinaryRawTransaction(Bitcoin bitcoin, BitcoinNetwork network) {
+        this.bitcoin = bitcoin;
+        this.network = network;
+    }
+
+    public BinaryRawTransaction() {
+        this(null, BitcoinNetwork.MAIN);
+    }
+
+    /**
+     * Builds an unsigned transaction the way createrawtransaction does: version 2, final sequences, zero lock
+     * time, and outputs to the same address merged into one
+     * @param network network of the output addresses, null to accept any and format addresses for
+     * {@link BitcoinNetwork#MAIN}
+     * @throws BitcoinException for an invalid address or an address of another network
+     */
+    public static BinaryRawTransaction create(List<? extends Bitcoin.TxInput> inputs, List<? extends Bitcoin.TxOutput> outputs, Bitcoin bitcoin, BitcoinNetwork network) throws BitcoinException {
+        BinaryRawTransaction tx = new BinaryRawTransaction(bitcoin, network == null ? BitcoinNetwork.MAIN : network);
+        for (Bitcoin.TxInput in : inputs)
+            tx.addInput(in.txid(), in.vout());
+        LinkedHashMap<String, Long> merged = new LinkedHashMap<String, Long>();
+        for (Bitcoin.TxOutput out : outputs) {
+            Long v = merged.get(out.address());
+            merged.put(out.address(), (v == null ? 0 : v) + UtxoIndex.toSatoshis(out.amount()));
+        }
+        for (Map.Entry<String, Long> e : merged.entrySet())
+            try {
+                tx.addOutput(e.getValue(), BitcoinScript.fromAddress(e.getKey(), network));
+            } catch (IllegalArgumentException ex) {
+                throw new BitcoinException("Invalid address: " + e.getKey(), ex);
+            }
+        return tx;
+    }
+
+    public Input addInput(String txid, int vout) {
+        return addInput(txid, vout, SEQUENCE_FINAL);
+    }
+
+    public Input addInput(String txid, int vout, long sequence) {
+        Input in = new Input(txid, vout, new byte[0], sequence, new byte[0][]);
+        inputs.add(in);
+        return in;
+    }
+
+    public Output addOutput(long value, byte[] script) {
+        Output out = new Output(value, script);
+        outputs.add(out);
+        return out;
+    }
+
+    /**
+     * @throws IllegalArgumentException for an invalid address or an address of another network
+     */
+    public Output addOutput(String address, double amount) throws IllegalArgumentException {
+        return addOutput(UtxoIndex.toSatoshis(amount), BitcoinScript.fromAddress(address, network));
+    }
+
+    public boolean hasWitness() {
+        for (Input in : inputs)
+            if (in.witness.length > 0)
+                return true;
+        return false;
+    }
+
+    private static class Reader {
+
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        private void require(long n) {
+            if (n < 0 || pos + n > data.length)
+                throw new IllegalArgumentException("Truncated transaction");
+        }
+
+        int u8() {
+            require(1);
+            return data[pos++] & 0xff;
+        }
+
+        long u32() {
+            require(4);
+            long r = (data[pos] & 0xffL) | ((data[pos + 1] & 0xffL) << 8) | ((data[pos + 2] & 0xffL) << 16) | ((data[pos + 3] & 0xffL) << 24);
+            pos += 4;
+            return r;
+        }
+
+        long u64() {
+            long lo = u32();
+            return lo | (u32() << 32);
+        }
+
+        long varInt() {
+            int first = u8();
+            if (first < 0xfd)
+                return first;
+            if (first == 0xfd) {
+                int r = u8();
+                return r | (u8() << 8);
+            }
+            if (first == 0xfe)
+                return u32();
+            return u64();
+        }
+
+        int count() {
+            long n = varInt();
+            // every item takes at least one byte, bigger counts are corrupt
+            require(n);
+            return (int) n;
+        }
+
+        byte[] bytes(int n) {
+            require(n);
+            byte[] r = new byte[n];
+            System.arraycopy(data, pos, r, 0, n);
+            pos += n;
+            return r;
+        }
+
+        String hash() {
+            byte[] h = bytes(32);
+            return hashToHex(h);
+        }
+    }
+
+    static String hashToHex(byte[] h) {
+        byte[] r = new byte[h.length];
+        for (int i = 0; i < h.length; i++)
+            r[i] = h[h.length - 1 - i];
+        return BitcoinUtil.bytesToHex(r);
+    }
+
+    static byte[] hexToHash(String hex) {
+        byte[] h = BitcoinUtil.hexToBytes(hex);
+        byte[] r = new byte[h.length];
+        for (int i = 0; i < h.length; i++)
+            r[i] = h[h.length - 1 - i];
+        return r;
+    }
+
+    /**
+     * @param data serialized transaction
+     * @param bitcoin client to look up previous transactions with, may be null
+     * @param network network to format addresses for
+     * @throws IllegalArgumentException if data is not a valid transaction
+     */
+    public static BinaryRawTransaction parse(byte[] data, Bitcoin bitcoin, BitcoinNetwork network) throws IllegalArgumentException {
+        BinaryRawTransaction tx = new BinaryRawTransaction(bitcoin, network);
+        Reader r = new Reader(data);
+        tx.version = (int) r.u32();
+        boolean witness = false;
+        int inCount = r.count();
+        if (inCount == 0) {
+            // segwit marker, a transaction without inputs is invalid otherwise
+            if (r.u8() != 1)
+                throw new IllegalArgumentException("Unknown transaction flag");
+            witness = true;
+            inCount = r.count();
+        }
+        for (int i = 0; i < inCount; i++) {
+            String txid = r.hash();
+            int vout = (int) r.u32();
+            byte[] script = r.bytes(r.count());
+            tx.inputs.add(tx.new Input(txid, vout, script, r.u32(), new byte[0][]));
+        }
+        int outCount = r.count();
+        for (int i = 0; i < outCount; i++) {
+            long value = r.u64();
+            tx.outputs.add(tx.new Output(value, r.bytes(r.count())));
+        }
+        if (witness) {
+            for (Input in : tx.inputs) {
+                byte[][] items = new byte[r.count()][];
+                for (int i = 0; i < items.length; i++)
+                    items[i] = r.bytes(r.count());
+                in.witness = items;
+            }
+        }
+        tx.lockTime = r.u32();
+        if (r.pos != data.length)
+            throw new IllegalArgumentException("Unexpected data after transaction");
+        return tx;
+    }
+
+    public static BinaryRawTransaction parse(String hex, Bitcoin bitcoin, BitcoinNetwork network) throws IllegalArgumentException {
+        return parse(BitcoinUtil.hexToBytes(hex), bitcoin, network);
+    }
+
+    public static BinaryRawTransaction parse(String hex) throws IllegalArgumentException {
+        return parse(BitcoinUtil.hexToBytes(hex), null, BitcoinNetwork.MAIN);
+    }
+
+    static void writeU32(ByteArrayOutputStream out, long v) {
+        out.write((int) v);
+        out.write((int) (v >>> 8));
+        out.write((int) (v >>> 16));
+        out.write((int) (v >>> 24));
+    }
+
+    static void writeU64(ByteArrayOutputStream out, long v) {
+        writeU32(out, v);
+        writeU32(out, v >>> 32);
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, long v) {
+        if (v < 0xfd)
+            out.write((int) v);
+        else if (v <= 0xffff) {
+            out.write(0xfd);
+            out.write((int) v);
+            out.write((int) (v >>> 8));
+        } else if (v <= 0xffffffffL) {
+            out.write(0xfe);
+            writeU32(out, v);
+        } else {
+            out.write(0xff);
+            writeU64(out, v);
+        }
+    }
+
+    static void writeBytes(ByteArrayOutputStream out, byte[] b) {
+        writeVarInt(out, b.length);
+        out.write(b, 0, b.length);
+    }
+
+    /**
+     * @param withWitness false for the legacy serialization txid is computed from
+     * @return serialized transaction, witness data is only written if any input has some
+     */
+    public byte[] serialize(boolean withWitness) {
+        boolean witness = withWitness && hasWitness();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + inputs.size() * 150 + outputs.size() * 34);
+        writeU32(out, version);
+        if (witness) {
+            out.write(0);
+            out.write(1);
+        }
+        writeVarInt(out, inputs.size());
+        for (Input in : inputs) {
+            byte[] h = hexToHash(in.txid);
+            out.write(h, 0, h.length);
+            writeU32(out, in.vout);
+            writeBytes(out, in.scriptSig);
+            writeU32(out, in.sequence);
+        }
+        writeVarInt(out, outputs.size());
+        for (Output o : outputs) {
+            writeU64(out, o.value);
+            writeBytes(out, o.script);
+        }
+        if (witness)
+            for (Input in : inputs) {
+                writeVarInt(out, in.witness.length);
+                for (byte[] item : in.witness)
+                    writeBytes(out, item);
+            }
+        writeU32(out, lockTime);
+        return out.toByteArray();
+    }
+
+    public byte[] serialize() {
+        return serialize(true);
+    }
+
+    public String hex() {
+        return BitcoinUtil.bytesToHex(serialize(true));
+    }
+
+    public String txId() {
+        byte[] data = serialize(false);
+        return hashToHex(BitcoinAccount.hashTwice(data, 0, data.length));
+    }
+
+    /**
+     * @return witness transaction id, equal to txid for transactions without witness data
+     */
+    public String wtxId() {
+        byte[] data = serialize(true);
+        return hashToHex(BitcoinAccount.hashTwice(data, 0, data.length));
+    }
+
+    public int getWeight() {
+        return serialize(false).length * 3 + serialize(true).length;
+    }
+
+    public int getVirtualSize() {
+        return (getWeight() + 3) / 4;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public long lockTime() {
+        return lockTime;
+    }
+
+    public List<In> vIn() {
+        return Collections.<In>unmodifiableList(inputs);
+    }
+
+    public List<Out> vOut() {
+        return Collections.<Out>unmodifiableList(outputs);
+    }
+
+    public String blockHash() {
+        return null;
+    }
+
+    public int confirmations() {
+        return 0;
+    }
+
+    public Date time() {
+        return null;
+    }
+
+    public Date blocktime() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "BinaryRawTransaction{" + "txid=" + txId() + ", inputs=" + inputs.size() + ", outputs=" + outputs.size() + '}';
+    }
+}
@@ -18,6 +18,7 @@
 
 package com.azazar.bitcoin.jsonrpcclient;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -95,8 +96,20 @@ public interface Bitcoin {
      */
     public String createRawTransaction(List<TxInput> inputs, List<TxOutput> outputs) throws BitcoinException;
     
+    /**
+     * Decoded locally, see {@link BinaryRawTransaction}
+     * @param hex
+     * @return
+     * @throws BitcoinException 
+     */
     public RawTransaction decodeRawTransaction(String hex) throws BitcoinException;
     
+    /**
+     * @return network of the node, determined with getblockchaininfo once
+     * @throws BitcoinException 
+     */
+    public BitcoinNetwork getNetwork() throws BitcoinException;
+    
     public String dumpPrivKey(String address) throws BitcoinException;
     
     //encryptwallet
@@ -133,29 +146,126 @@ public interface Bitcoin {
      */
     public double getBalance(String account, int minConf) throws BitcoinException;
 
-    public static interface Block {
+    /**
+     * Block header as returned by getblockheader, without the transaction list
+     */
+    public static interface BlockHeader {
         public String hash();
+        /**
+         * @return -1 if the block is not on the main chain
+         */
         public int confirmations();
-        public int size();
         public int height();
         public int version();
         public String merkleRoot();
-        public List<String> tx();
         public Date time();
         public long nonce();
         public String bits();
         public double difficulty();
         public String previousHash();
         public String nextHash();
+    }
+    public BlockHeader getBlockHeader(String blockHash) throws BitcoinException;
+
+    /**
+     * Fetches headers of a main chain height range using batched getblockhash and getblockheader calls
+     * @param fromHeight first height, inclusive
+     * @param toHeight last height, inclusive
+     * @return headers in height order
+     * @throws BitcoinException 
+     */
+    public List<BlockHeader> getBlockHeaders(int fromHeight, int toHeight) throws BitcoinException;
+
+    public static interface Block extends BlockHeader {
+        public int size();
+        public List<String> tx();
         public Block previous() throws BitcoinException;
         public Block next() throws BitcoinException;
     }
     public Block getBlock(String blockHash) throws BitcoinException;
+
+    /**
+     * Block returned by getblock with verbosity 2
+     */
+    public static interface FullBlock extends Block {
+        /**
+         * Transactions are decoded from the block payload, so neither getrawtransaction nor txindex is needed
+         */
+        public List<RawTransaction> transactions();
+    }
+    /**
+     * Fetches the block together with all its decoded transactions in one query
+     * @param blockHash
+     * @return
+     * @throws BitcoinException 
+     */
+    public FullBlock getFullBlock(String blockHash) throws BitcoinException;
+
+    /**
+     * @param blockHash
+     * @return serialized block
+     * @throws BitcoinException 
+     */
+    public byte[] getRawBlock(String blockHash) throws BitcoinException;
     
     public int getBlockCount() throws BitcoinException;
     
     public String getBlockHash(int blockId) throws BitcoinException;
+
+    /**
+     * Maps a height range to block hashes in one batched pass
+     * @param fromHeight first height, inclusive
+     * @param toHeight last height, inclusive
+     * @return hashes in height order
+     * @throws BitcoinException 
+     */
+    public List<String> getBlockHashes(int fromHeight, int toHeight) throws BitcoinException;
     
+    public static interface BlockFilter {
+        public String blockHash();
+        /**
+         * @return serialized BIP158 basic filter, hex encoded
+         */
+        public String filter();
+        public String header();
+    }
+    /**
+     * Requires the node to run with -blockfilterindex
+     * @param blockHash
+     * @return basic filter of the block
+     * @throws BitcoinException 
+     */
+    public BlockFilter getBlockFilter(String blockHash) throws BitcoinException;
+    /**
+     * Fetches basic filters of several blocks in one batched pass
+     * @param blockHashes
+     * @return filters in the order of blockHashes
+     * @throws BitcoinException 
+     */
+    public List<BlockFilter> getBlockFilters(List<String> blockHashes) throws BitcoinException;
+
+    public static interface BlockTip {
+        public String hash();
+        public int height();
+    }
+
+    /**
+     * Waits for the chain tip to change
+     * @param timeout milliseconds to wait, 0 to wait indefinitely
+     * @return the current tip, which is unchanged if the timeout expired
+     * @throws BitcoinException 
+     */
+    public BlockTip waitForNewBlock(int timeout) throws BitcoinException;
+
+    /**
+     * Waits for the chain to reach the height, returns immediately if it already did
+     * @param height
+     * @param timeout milliseconds to wait, 0 to wait indefinitely
+     * @return the current tip, which is below height if the timeout expired
+     * @throws BitcoinException 
+     */
+    public BlockTip waitForBlockHeight(int height, int timeout) throws BitcoinException;
+
     //getblocknumber - deprecated
     
     public int getConnectionCount() throws BitcoinException;
@@ -225,6 +335,44 @@ public interface Bitcoin {
     public PeerInfo getPeerInfo() throws BitcoinException;
     
     public List<String> getRawMempool() throws BitcoinException;
+
+    public static interface MempoolSnapshot {
+        public List<String> txIds();
+        /**
+         * @return mempool sequence number the snapshot was taken at, matching the zmqpubsequence notifications
+         */
+        public long mempoolSequence();
+    }
+    /**
+     * getrawmempool with mempool_sequence, requires bitcoind 0.21 or newer
+     * @return
+     * @throws BitcoinException 
+     */
+    public MempoolSnapshot getRawMempoolWithSequence() throws BitcoinException;
+
+    public static interface MempoolEntry {
+        public int vsize();
+        /**
+         * @return base fee in BTC
+         */
+        public double fee();
+        public Date time();
+        public int height();
+        public int descendantCount();
+        public int descendantSize();
+        public int ancestorCount();
+        public int ancestorSize();
+        public List<String> depends();
+    }
+    public MempoolEntry getMempoolEntry(String txId) throws BitcoinException;
+
+    /**
+     * Fetches mempool entries in one batched pass
+     * @param txIds
+     * @return entries by txid, transactions no longer in the mempool are absent
+     * @throws BitcoinException 
+     */
+    public Map<String, MempoolEntry> getMempoolEntries(Collection<String> txIds) throws BitcoinException;
     
     public String getRawTransactionHex(String txId) throws BitcoinException;
     
@@ -280,6 +428,23 @@ public interface Bitcoin {
     }
     
     public RawTransaction getRawTransaction(String txId) throws BitcoinException;
+
+    /**
+     * Fetches several transactions in a single batched pass
+     * @param txIds
+     * @return transactions by txid, transactions that could not be fetched are absent
+     * @throws BitcoinException 
+     */
+    public Map<String, RawTransaction> getRawTransactions(Collection<String> txIds) throws BitcoinException;
+
+    /**
+     * Fetches wallet transactions with gettransaction in a single batched pass. Unlike getrawtransaction this
+     * works for mined transactions without -txindex.
+     * @param txIds
+     * @return decoded transactions by txid, transactions that are not in the wallet are absent
+     * @throws BitcoinException 
+     */
+    public Map<String, RawTransaction> getWalletTransactions(Collection<String> txIds) throws BitcoinException;
     
     public double getReceivedByAccount(String account) throws BitcoinException;
     /**
@@ -309,6 +474,31 @@ public interface Bitcoin {
     
     public RawTransaction getTransaction(String txId) throws BitcoinException;
     
+    public static interface TxOut {
+        public String bestBlock();
+        public int confirmations();
+        public double value();
+        /**
+         * @return hex encoded script
+         */
+        public String scriptPubKey();
+        public boolean coinbase();
+    }
+    /**
+     * @param txId
+     * @param vout
+     * @return unspent output, null if it is spent or doesn't exist
+     * @throws BitcoinException 
+     */
+    public TxOut getTxOut(String txId, int vout) throws BitcoinException;
+    /**
+     * Looks up several outputs in one batched pass
+     * @param outputs
+     * @return outputs in the same order, null for spent or missing ones
+     * @throws BitcoinException 
+     */
+    public List<TxOut> getTxOuts(List<? extends TxInput> outputs) throws BitcoinException;
+
     public static interface TxOutSetInfo {
         public int height();
         public String bestBlock();
@@ -376,6 +566,10 @@ public interface Bitcoin {
         public int blockIndex();
         public Date blockTime();
         public String txId();
+        /**
+         * @return output index, -1 if the entry doesn't refer to a single output
+         */
+        public int vout();
         public Date time();
         public Date timeReceived();
         public String comment();
@@ -393,12 +587,29 @@ public interface Bitcoin {
     public TransactionsSinceBlock listSinceBlock() throws BitcoinException;
     public TransactionsSinceBlock listSinceBlock(String blockHash) throws BitcoinException;
     public TransactionsSinceBlock listSinceBlock(String blockHash, int targetConfirmations) throws BitcoinException;
+    /**
+     * @param blockHash block to list transactions since, null to list all
+     * @param targetConfirmations
+     * @param prefetchRaw load {@link Transaction#raw()} of all returned transactions in one batched pass
+     * @return
+     * @throws BitcoinException 
+     */
+    public TransactionsSinceBlock listSinceBlock(String blockHash, int targetConfirmations, boolean prefetchRaw) throws BitcoinException;
     
     //listtransactions
     public List<Transaction> listTransactions() throws BitcoinException;
     public List<Transaction> listTransactions(String account) throws BitcoinException;
     public List<Transaction> listTransactions(String account, int count) throws BitcoinException;
     public List<Transaction> listTransactions(String account, int count, int from) throws BitcoinException;
+    public List<Transaction> listTransactions(String account, int count, int from, boolean prefetchRaw) throws BitcoinException;
+
+    /**
+     * Loads {@link Transaction#raw()} of the given transactions in one batched pass instead of one query per
+     * transaction. Transactions whose raw data could not be fetched are left to load lazily.
+     * @param transactions transactions returned by listsinceblock or listtransactions
+     * @throws BitcoinException 
+     */
+    public void prefetchRaw(List<Transaction> transactions) throws BitcoinException;
     
     public interface Unspent extends TxInput, TxOutput {
         public String txid();
@@ -416,8 +627,16 @@ public interface Bitcoin {
     public List<Unspent> listUnspent(int minConf, int maxConf, String... addresses) throws BitcoinException;
     
     //listlockunspent
+    public List<TxInput> listLockUnspent() throws BitcoinException;
     
     //lockunspent
+    /**
+     * @param unlock true to unlock the outputs, false to lock them
+     * @param outputs
+     * @return true on success
+     * @throws BitcoinException 
+     */
+    public boolean lockUnspent(boolean unlock, List<? extends TxInput> outputs) throws BitcoinException;
     
     //move
     
@@ -18,9 +18,15 @@
 
 package com.azazar.bitcoin.jsonrpcclient;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,12 +55,12 @@ public class BitcoinAcceptor implements Runnable {
 
     public BitcoinAcceptor(Bitcoin bitcoin, String lastBlock, int monitorDepth, BitcoinPaymentListener listener) {
         this(bitcoin, lastBlock, monitorDepth);
-        listeners.add(listener);
+        addListener(listener);
     }
 
     public BitcoinAcceptor(Bitcoin bitcoin, BitcoinPaymentListener listener) {
         this(bitcoin, null, 12);
-        listeners.add(listener);
+        addListener(listener);
     }
 
     public String getAccountAddress(String account) throws BitcoinException {
@@ -80,42 +86,314 @@ public class BitcoinAcceptor implements Runnable {
     }
 
     public synchronized void addListener(BitcoinPaymentListener listener) {
-        listeners.add(listener);
+        if (listeners.add(listener) && listener instanceof AsyncPaymentListener)
+            ((AsyncPaymentListener) listener).addDeliveryCallback(checkpointer);
     }
 
     public synchronized void removeListener(BitcoinPaymentListener listener) {
-        listeners.remove(listener);
+        if (listeners.remove(listener) && listener instanceof AsyncPaymentListener)
+            ((AsyncPaymentListener) listener).removeDeliveryCallback(checkpointer);
+    }
+
+    /**
+     * Adds a listener that is called on the executor instead of the acceptor thread
+     *
+     * @param listener
+     * @param executor
+     * @param capacity number of events queued for the listener before the overflow policy applies
+     * @param overflowPolicy
+     * @return the registered listener, to be passed to {@link #removeListener(BitcoinPaymentListener)}
+     */
+    public AsyncPaymentListener addAsyncListener(BitcoinPaymentListener listener, Executor executor, int capacity, AsyncPaymentListener.OverflowPolicy overflowPolicy) {
+        AsyncPaymentListener l = new AsyncPaymentListener(listener, executor, capacity, overflowPolicy);
+        addListener(l);
+        return l;
     }
 
     private HashSet<String> seen = new HashSet<String>();
 
+    private AcceptorCheckpointStore checkpointStore = null;
+
+    public synchronized AcceptorCheckpointStore getCheckpointStore() {
+        return checkpointStore;
+    }
+
+    /**
+     * Sets the store the acceptor position is saved to after every change. If no last block is set yet, the
+     * acceptor resumes from the stored checkpoint. A checkpoint is saved only after the listeners were called, and
+     * after {@link AsyncPaymentListener}s delivered everything queued before it, so payments delivered right before
+     * a crash may be delivered again but none are skipped. Events discarded by the
+     * {@link AsyncPaymentListener.OverflowPolicy#DROP_OLDEST} and {@link AsyncPaymentListener.OverflowPolicy#SPILL}
+     * policies are not delivered again.
+     *
+     * @param checkpointStore new value of checkpointStore
+     * @throws BitcoinException if the checkpoint could not be loaded
+     */
+    public synchronized void setCheckpointStore(AcceptorCheckpointStore checkpointStore) throws BitcoinException {
+        this.checkpointStore = checkpointStore;
+        if (checkpointStore == null || lastBlock != null)
+            return;
+        AcceptorCheckpointStore.Checkpoint checkpoint;
+        try {
+            checkpoint = checkpointStore.load();
+        } catch (IOException ex) {
+            throw new BitcoinException("Unable to load acceptor checkpoint", ex);
+        }
+        if (checkpoint == null)
+            return;
+        lastBlock = checkpoint.lastBlock;
+        seen.addAll(checkpoint.seen);
+        updateMonitorBlock();
+    }
+
+    private static final int MAX_PENDING_CHECKPOINTS = 64;
+
+    private static class PendingCheckpoint {
+        final AcceptorCheckpointStore store;
+        final AcceptorCheckpointStore.Checkpoint checkpoint;
+        final List<AsyncPaymentListener> listeners;
+        final long[] accepted;
+
+        PendingCheckpoint(AcceptorCheckpointStore store, AcceptorCheckpointStore.Checkpoint checkpoint, List<AsyncPaymentListener> listeners) {
+            this.store = store;
+            this.checkpoint = checkpoint;
+            this.listeners = listeners;
+            this.accepted = new long[listeners.size()];
+            for (int i = 0; i < accepted.length; i++)
+                accepted[i] = listeners.get(i).getAccepted();
+        }
+
+        boolean isDelivered() {
+            for (int i = 0; i < accepted.length; i++)
+                if (listeners.get(i).getSettled() < accepted[i])
+                    return false;
+            return true;
+        }
+    }
+
+    // checkpoints waiting for async listeners, oldest first. Guarded by checkpointLock rather than the acceptor,
+    // which may be waiting for the same listeners to make room.
+    private final LinkedList<PendingCheckpoint> pendingCheckpoints = new LinkedList<PendingCheckpoint>();
+    private final Object checkpointLock = new Object();
+
+    private final Runnable checkpointer = new Runnable() {
+
+        public void run() {
+            savePendingCheckpoint();
+        }
+    };
+
+    private void saveCheckpoint() {
+        List<AsyncPaymentListener> async = new ArrayList<AsyncPaymentListener>();
+        for (BitcoinPaymentListener listener : listeners)
+            if (listener instanceof AsyncPaymentListener)
+                async.add((AsyncPaymentListener) listener);
+        PendingCheckpoint checkpoint = new PendingCheckpoint(checkpointStore, new AcceptorCheckpointStore.Checkpoint(lastBlock, new ArrayList<String>(seen)), async);
+        synchronized (checkpointLock) {
+            // a later checkpoint covers everything before it, only intermediate ones are skipped
+            if (pendingCheckpoints.size() >= MAX_PENDING_CHECKPOINTS)
+                pendingCheckpoints.removeLast();
+            pendingCheckpoints.add(checkpoint);
+        }
+        savePendingCheckpoint();
+    }
+
+    /**
+     * Saves the latest checkpoint whose events were delivered by all async listeners
+     */
+    private void savePendingCheckpoint() {
+        synchronized (checkpointLock) {
+            PendingCheckpoint ready = null;
+            while (!pendingCheckpoints.isEmpty() && pendingCheckpoints.getFirst().isDelivered())
+                ready = pendingCheckpoints.removeFirst();
+            if (ready == null)
+                return;
+            try {
+                ready.store.save(ready.checkpoint);
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Unable to save acceptor checkpoint", ex);
+            }
+        }
+    }
+
     private void updateMonitorBlock() throws BitcoinException {
         monitorBlock = lastBlock;
+        if (monitorBlock == null || monitorDepth <= 0)
+            return;
+        if (sharedHeaderTracker) {
+            String ancestor = headerTracker.getAncestor(monitorBlock, monitorDepth);
+            if (ancestor != null) {
+                monitorBlock = ancestor;
+                return;
+            }
+        }
+        Bitcoin.BlockHeader h = bitcoin.getBlockHeader(monitorBlock);
+        if (h.confirmations() >= 0) {
+            // main chain block, its ancestor can be looked up by height
+            monitorBlock = h.height() < monitorDepth ? null : bitcoin.getBlockHash(h.height() - monitorDepth);
+            return;
+        }
         for(int i = 0; i < monitorDepth && monitorBlock != null; i++) {
-            Bitcoin.Block b = bitcoin.getBlock(monitorBlock);
-            monitorBlock = b == null ? null : b.previousHash();
+            monitorBlock = h.previousHash();
+            if (monitorBlock != null && i + 1 < monitorDepth)
+                h = bitcoin.getBlockHeader(monitorBlock);
         }
     }
 
+    private boolean prefetchRaw = false;
+
+    /**
+     * Get the value of prefetchRaw
+     *
+     * @return the value of prefetchRaw
+     */
+    public boolean isPrefetchRaw() {
+        return prefetchRaw;
+    }
+
+    /**
+     * Set the value of prefetchRaw. When set, raw transactions of new payments are loaded in one batched pass before
+     * they are passed to listeners.
+     *
+     * @param prefetchRaw new value of prefetchRaw
+     */
+    public void setPrefetchRaw(boolean prefetchRaw) {
+        this.prefetchRaw = prefetchRaw;
+    }
+
+    private AddressWatchList watchList = null;
+
+    /**
+     * Get the value of watchList
+     *
+     * @return the value of watchList
+     */
+    public AddressWatchList getWatchList() {
+        return watchList;
+    }
+
+    /**
+     * Set the value of watchList. When set, only payments to watched addresses are passed to listeners, which lets
+     * several services share one wallet.
+     *
+     * @param watchList new value of watchList
+     */
+    public void setWatchList(AddressWatchList watchList) {
+        this.watchList = watchList;
+    }
+
+    private int reorgDepth = 100;
+
+    /**
+     * Get the value of reorgDepth
+     *
+     * @return the number of recent blocks checked for chain reorganizations
+     */
+    public synchronized int getReorgDepth() {
+        return reorgDepth;
+    }
+
+    /**
+     * Set the value of reorgDepth
+     *
+     * @param reorgDepth the number of recent blocks checked for chain reorganizations
+     */
+    public synchronized void setReorgDepth(int reorgDepth) {
+        this.reorgDepth = reorgDepth;
+        if (!sharedHeaderTracker)
+            headerTracker = null;
+    }
+
+    private RecentHeaderTracker headerTracker = null;
+    private boolean sharedHeaderTracker = false;
+
+    /**
+     * Uses a header tracker shared with other acceptors of the same node instead of an own one, so new blocks
+     * are fetched once for all of them. Its depth replaces reorgDepth for reorganization detection.
+     *
+     * @param headerTracker shared tracker, null to go back to an own one
+     */
+    public synchronized void setHeaderTracker(RecentHeaderTracker headerTracker) {
+        this.headerTracker = headerTracker;
+        this.sharedHeaderTracker = headerTracker != null;
+    }
+
+    // payments delivered from recent blocks by txid, reported as unconfirmed when their block is disconnected
+    private final LinkedHashMap<String, Map<String, Bitcoin.Transaction>> deliveredByBlock = new LinkedHashMap<String, Map<String, Bitcoin.Transaction>>() {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, Bitcoin.Transaction>> eldest) {
+            return size() > reorgDepth;
+        }
+    };
+
     public synchronized void checkPayments() throws BitcoinException {
-        Bitcoin.TransactionsSinceBlock t = monitorBlock == null ? bitcoin.listSinceBlock() : bitcoin.listSinceBlock(monitorBlock);
+        String rescanFrom = checkPayments(monitorBlock);
+        if (rescanFrom != null)
+            checkPayments(rescanFrom.isEmpty() ? null : rescanFrom);
+    }
+
+    /**
+     * @return block to rescan from after a chain reorganization, empty string to rescan everything, null if no
+     * rescan is needed
+     */
+    private String checkPayments(String since) throws BitcoinException {
+        Bitcoin.TransactionsSinceBlock t = since == null ? bitcoin.listSinceBlock() : bitcoin.listSinceBlock(since);
+        List<Bitcoin.Transaction> received = new ArrayList<Bitcoin.Transaction>();
         for (Bitcoin.Transaction transaction : t.transactions()) {
             if ("receive".equals(transaction.category())) {
+                if (watchList != null && !watchList.containsAddress(transaction.address()))
+                    continue;
                 if (!seen.add(transaction.txId()))
                     continue;
-                for (BitcoinPaymentListener listener : listeners) {
-                    try {
-                        listener.transaction(transaction);
-                    } catch (Exception ex) {
-                        logger.log(Level.SEVERE, null, ex);
-                    }
+                received.add(transaction);
+            }
+        }
+        if (prefetchRaw && !received.isEmpty())
+            try {
+                bitcoin.prefetchRaw(received);
+            } catch (BitcoinException ex) {
+                logger.log(Level.WARNING, "Raw transaction prefetch failed", ex);
+            }
+        for (Bitcoin.Transaction transaction : received) {
+            String blockHash = transaction.blockHash();
+            if (blockHash != null) {
+                // payments in the monitored window are delivered again after every new block
+                Map<String, Bitcoin.Transaction> l = deliveredByBlock.get(blockHash);
+                if (l == null)
+                    deliveredByBlock.put(blockHash, l = new LinkedHashMap<String, Bitcoin.Transaction>());
+                l.put(transaction.txId(), transaction);
+            }
+            for (BitcoinPaymentListener listener : listeners) {
+                try {
+                    listener.transaction(transaction);
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, null, ex);
                 }
             }
         }
-        if (!t.lastBlock().equals(lastBlock)) {
+        boolean newBlock = !t.lastBlock().equals(lastBlock);
+        RecentHeaderTracker.Reorg reorg = null;
+        if (newBlock && sharedHeaderTracker) {
+            headerTracker.advance(t.lastBlock());
+            if (lastBlock != null)
+                reorg = headerTracker.since(lastBlock);
+        } else if (newBlock) {
+            if (headerTracker == null) {
+                headerTracker = new RecentHeaderTracker(bitcoin, reorgDepth);
+                if (lastBlock != null)
+                    headerTracker.update(lastBlock);
+            }
+            reorg = headerTracker.update(t.lastBlock());
+        }
+        if (newBlock) {
             seen.clear();
             lastBlock = t.lastBlock();
             updateMonitorBlock();
+        }
+        if (reorg != null)
+            fireReorg(reorg);
+        if (newBlock) {
             for (BitcoinPaymentListener listener : listeners) {
                 try {
                     listener.block(lastBlock);
@@ -124,6 +402,37 @@ public class BitcoinAcceptor implements Runnable {
                 }
             }
         }
+        // only after the callbacks, a crash before them must replay this pass
+        if (checkpointStore != null && (newBlock || !received.isEmpty()))
+            saveCheckpoint();
+        if (reorg == null)
+            return null;
+        if (reorg.forkPoint != null)
+            return reorg.forkPoint;
+        return reorg.forkHeight < 0 ? "" : bitcoin.getBlockHash(reorg.forkHeight);
+    }
+
+    private void fireReorg(RecentHeaderTracker.Reorg reorg) {
+        for (String blockHash : reorg.disconnected) {
+            Map<String, Bitcoin.Transaction> unconfirmed = deliveredByBlock.remove(blockHash);
+            for (BitcoinPaymentListener listener : listeners) {
+                if (!(listener instanceof BitcoinReorgListener))
+                    continue;
+                BitcoinReorgListener l = (BitcoinReorgListener) listener;
+                try {
+                    l.blockDisconnected(blockHash);
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+                if (unconfirmed != null)
+                    for (Bitcoin.Transaction transaction : unconfirmed.values())
+                        try {
+                            l.transactionUnconfirmed(transaction);
+                        } catch (Exception ex) {
+                            logger.log(Level.SEVERE, null, ex);
+                        }
+            }
+        }
     }
 
     private boolean stop = false;
@@ -152,9 +461,49 @@ public class BitcoinAcceptor implements Runnable {
         this.checkInterval = checkInterval;
     }
 
+    private BlockNotificationSource blockNotificationSource = null;
+
+    public BlockNotificationSource getBlockNotificationSource() {
+        return blockNotificationSource;
+    }
+
+    /**
+     * When set, payments are checked as soon as the source reports a block, and otherwise every
+     * mempoolCheckInterval instead of every checkInterval
+     *
+     * @param blockNotificationSource new value of blockNotificationSource, null to poll at checkInterval
+     */
+    public void setBlockNotificationSource(BlockNotificationSource blockNotificationSource) {
+        this.blockNotificationSource = blockNotificationSource;
+    }
+
+    private long mempoolCheckInterval = 5000;
+
+    /**
+     * Get the value of mempoolCheckInterval
+     *
+     * @return the value of mempoolCheckInterval
+     */
+    public long getMempoolCheckInterval() {
+        return mempoolCheckInterval;
+    }
+
+    /**
+     * Set the interval of checks for unconfirmed payments, used along with a block notification source
+     *
+     * @param mempoolCheckInterval new value of mempoolCheckInterval
+     */
+    public void setMempoolCheckInterval(long mempoolCheckInterval) {
+        this.mempoolCheckInterval = mempoolCheckInterval;
+    }
+
     @Override
     public void run() {
         stop = false;
+        if (blockNotificationSource != null) {
+            runNotified(blockNotificationSource);
+            return;
+        }
         long nextCheck = 0;
         while(!(Thread.interrupted() || stop)) {
             if (nextCheck <= System.currentTimeMillis())
@@ -173,6 +522,27 @@ public class BitcoinAcceptor implements Runnable {
         }
     }
 
+    private void runNotified(BlockNotificationSource source) {
+        while(!(Thread.interrupted() || stop)) {
+            try {
+                checkPayments();
+            } catch (BitcoinException ex) {
+                logger.log(Level.SEVERE, null, ex);
+            }
+            try {
+                try {
+                    source.waitForBlock(mempoolCheckInterval);
+                } catch (BitcoinException ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                    Thread.sleep(mempoolCheckInterval);
+                }
+            } catch (InterruptedException ex) {
+                logger.log(Level.WARNING, null, ex);
+                break;
+            }
+        }
+    }
+
 //    public static void main(String[] args) {
 //        //System.out.println(System.getProperties().toString().replace(", ", ",\n"));
 //        final Bitcoin bitcoin = new BitcoinJSONRPCClient(true);
@@ -23,14 +23,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -117,6 +121,28 @@ public class BitcoinJSONRPCClient extends AbstractBitcoinClient {
         }
     }
 
+    /**
+     * Creates a client for one wallet of a multi-wallet node, using the /wallet/&lt;name&gt; endpoint
+     *
+     * @param walletName
+     * @return client with the same settings as this one
+     */
+    public BitcoinJSONRPCClient forWallet(String walletName) {
+        BitcoinJSONRPCClient c;
+        try {
+            c = new BitcoinJSONRPCClient(new URL(rpcURL, "/wallet/" + URLEncoder.encode(walletName, "UTF-8").replace("+", "%20")));
+        } catch (MalformedURLException ex) {
+            throw new IllegalArgumentException(walletName, ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+        c.hostnameVerifier = hostnameVerifier;
+        c.sslSocketFactory = sslSocketFactory;
+        c.connectTimeout = connectTimeout;
+        c.batchSize = batchSize;
+        return c;
+    }
+
     public BitcoinJSONRPCClient(boolean testNet) {
         this(testNet ? DEFAULT_JSONRPC_TESTNET_URL : DEFAULT_JSONRPC_URL);
     }
@@ -185,6 +211,25 @@ public class BitcoinJSONRPCClient extends AbstractBitcoinClient {
         return o.toByteArray();
     }
 
+    private static BitcoinException error(Object error) {
+        BitcoinRPCErrorException ex = BitcoinRPCErrorException.fromJSON(error);
+        return ex != null ? ex : new BitcoinException(JSON.stringify(error));
+    }
+
+    private static BitcoinRPCException httpError(String message, int responseCode, HttpURLConnection conn) throws IOException {
+        InputStream in = conn.getErrorStream();
+        String r = in == null ? "" : new String(loadStream(in, true));
+        // the node reports call errors with HTTP 500 and the error object in the body
+        BitcoinRPCErrorException error = null;
+        try {
+            Object response = JSON.parse(r);
+            if (response instanceof Map)
+                error = BitcoinRPCErrorException.fromJSON(((Map) response).get("error"));
+        } catch (RuntimeException ex) {
+        }
+        return new BitcoinRPCException(message + ", response: " + r, responseCode, error);
+    }
+
     public Object loadResponse(InputStream in, Object expectedID, boolean close) throws IOException, BitcoinException {
         try {
             String r = new String(loadStream(in, close), QUERY_CHARSET);
@@ -196,7 +241,7 @@ public class BitcoinJSONRPCClient extends AbstractBitcoinClient {
                     throw new BitcoinRPCException("Wrong response ID (expected: "+String.valueOf(expectedID) + ", response: "+response.get("id")+")");
 
                 if (response.get("error") != null)
-                    throw new BitcoinException(JSON.stringify(response.get("error")));
+                    throw error(response.get("error"));
 
                 return response.get("result");
             } catch (ClassCastException ex) {
@@ -208,38 +253,140 @@ public class BitcoinJSONRPCClient extends AbstractBitcoinClient {
         }
     }
 
-    public Object query(String method, Object... o) throws BitcoinException {
-        HttpURLConnection conn;
-        try {
-            conn = (HttpURLConnection) noAuthURL.openConnection();
+    private int batchSize = 1000;
 
-            if (connectTimeout != 0)
-                conn.setConnectTimeout(connectTimeout);
+    /**
+     * Get the maximum number of calls sent in one JSON-RPC batch request
+     *
+     * @return the value of batchSize
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of calls sent in one JSON-RPC batch request
+     *
+     * @param batchSize new value of batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be positive");
+        this.batchSize = batchSize;
+    }
 
-            conn.setDoOutput(true);
-            conn.setDoInput(true);
+    public byte[] prepareBatchRequest(final String method, List<Object[]> params) {
+        List<Map> requests = new ArrayList<Map>(params.size());
+        for (int i = 0; i < params.size(); i++) {
+            final Object[] p = params.get(i);
+            final String id = String.valueOf(i);
+            requests.add(new LinkedHashMap() {
+                {
+                    put("method", method);
+                    put("params", p);
+                    put("id", id);
+                }
+            });
+        }
+        return JSON.stringify(requests).getBytes(QUERY_CHARSET);
+    }
 
-            if (conn instanceof HttpsURLConnection) {
-                if (hostnameVerifier != null)
-                    ((HttpsURLConnection)conn).setHostnameVerifier(hostnameVerifier);
-                if (sslSocketFactory != null)
-                    ((HttpsURLConnection)conn).setSSLSocketFactory(sslSocketFactory);
+    public List<Object> loadBatchResponse(InputStream in, int count, boolean close) throws IOException, BitcoinException {
+        try {
+            String r = new String(loadStream(in, close), QUERY_CHARSET);
+            logger.log(Level.FINE, "Bitcoin JSON-RPC batch response:\n{0}", r);
+            try {
+                Object[] results = new Object[count];
+                boolean[] received = new boolean[count];
+                for (Object o : (List) JSON.parse(r)) {
+                    Map response = (Map) o;
+                    int id;
+                    try {
+                        id = Integer.parseInt(String.valueOf(response.get("id")));
+                    } catch (NumberFormatException ex) {
+                        throw new BitcoinRPCException("Wrong response ID (response: " + response.get("id") + ")");
+                    }
+                    if (id < 0 || id >= count || received[id])
+                        throw new BitcoinRPCException("Wrong response ID (response: " + id + ")");
+                    received[id] = true;
+                    if (response.get("error") != null)
+                        results[id] = error(response.get("error"));
+                    else
+                        results[id] = response.get("result");
+                }
+                for (int i = 0; i < count; i++)
+                    if (!received[i])
+                        throw new BitcoinRPCException("Missing response (id: " + i + ")");
+                return Arrays.asList(results);
+            } catch (ClassCastException ex) {
+                throw new BitcoinRPCException("Invalid server response format (data: \"" + r + "\")");
             }
+        } finally {
+            if (close)
+                in.close();
+        }
+    }
+
+    private HttpURLConnection openConnection() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) noAuthURL.openConnection();
 
-//            conn.connect();
+        if (connectTimeout != 0)
+            conn.setConnectTimeout(connectTimeout);
+
+        conn.setDoOutput(true);
+        conn.setDoInput(true);
+
+        if (conn instanceof HttpsURLConnection) {
+            if (hostnameVerifier != null)
+                ((HttpsURLConnection)conn).setHostnameVerifier(hostnameVerifier);
+            if (sslSocketFactory != null)
+                ((HttpsURLConnection)conn).setSSLSocketFactory(sslSocketFactory);
+        }
+
+        conn.setRequestProperty("Authorization", "Basic " + authStr);
+        return conn;
+    }
+
+    public Object query(String method, Object... o) throws BitcoinException {
+        HttpURLConnection conn;
+        try {
+            conn = openConnection();
 
-            ((HttpURLConnection)conn).setRequestProperty("Authorization", "Basic " + authStr);
             byte[] r = prepareRequest(method, o);
             logger.log(Level.FINE, "Bitcoin JSON-RPC request:\n{0}", new String(r, QUERY_CHARSET));
             conn.getOutputStream().write(r);
             conn.getOutputStream().close();
             int responseCode = conn.getResponseCode();
             if (responseCode != 200)
-                throw new BitcoinRPCException("RPC Query Failed (method: "+ method +", params: " + Arrays.deepToString(o) + ", response header: "+ responseCode + " " + conn.getResponseMessage() + ", response: " + new String(loadStream(conn.getErrorStream(), true)));
+                throw httpError("RPC Query Failed (method: "+ method +", params: " + Arrays.deepToString(o) + ", response header: "+ responseCode + " " + conn.getResponseMessage(), responseCode, conn);
             return loadResponse(conn.getInputStream(), "1", true);
         } catch (IOException ex) {
             throw new BitcoinRPCException("RPC Query Failed (method: "+ method +", params: " + Arrays.deepToString(o) + ")", ex);
         }
     }
 
+    @Override
+    public List<Object> batchQuery(String method, List<Object[]> params) throws BitcoinException {
+        List<Object> results = new ArrayList<Object>(params.size());
+        for (int from = 0; from < params.size(); from += batchSize) {
+            List<Object[]> chunk = params.subList(from, Math.min(params.size(), from + batchSize));
+            HttpURLConnection conn;
+            try {
+                conn = openConnection();
+
+                byte[] r = prepareBatchRequest(method, chunk);
+                logger.log(Level.FINE, "Bitcoin JSON-RPC batch request:\n{0}", new String(r, QUERY_CHARSET));
+                conn.getOutputStream().write(r);
+                conn.getOutputStream().close();
+                int responseCode = conn.getResponseCode();
+                if (responseCode != 200)
+                    throw httpError("RPC Batch Query Failed (method: "+ method +", calls: " + chunk.size() + ", response header: "+ responseCode + " " + conn.getResponseMessage(), responseCode, conn);
+                results.addAll(loadBatchResponse(conn.getInputStream(), chunk.size(), true));
+            } catch (IOException ex) {
+                throw new BitcoinRPCException("RPC Batch Query Failed (method: "+ method +", calls: " + chunk.size() + ")", ex);
+            }
+        }
+        return results;
+    }
+
 }
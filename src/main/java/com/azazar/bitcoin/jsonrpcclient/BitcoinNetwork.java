@@ -0,0 +1,58 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+/**
+ * Address encoding parameters of a chain
+ */
+public enum BitcoinNetwork {
+
+    MAIN("main", 0, 5, "bc"),
+    TEST("test", 111, 196, "tb"),
+    TESTNET4("testnet4", 111, 196, "tb"),
+    SIGNET("signet", 111, 196, "tb"),
+    REGTEST("regtest", 111, 196, "bcrt");
+
+    /**
+     * name reported by getblockchaininfo
+     */
+    public final String chain;
+    public final byte pubKeyHashVersion;
+    public final byte scriptHashVersion;
+    public final String bech32Hrp;
+
+    private BitcoinNetwork(String chain, int pubKeyHashVersion, int scriptHashVersion, String bech32Hrp) {
+        this.chain = chain;
+        this.pubKeyHashVersion = (byte) pubKeyHashVersion;
+        this.scriptHashVersion = (byte) scriptHashVersion;
+        this.bech32Hrp = bech32Hrp;
+    }
+
+    /**
+     * @param chain chain name as reported by getblockchaininfo
+     * @return null for an unknown chain
+     */
+    public static BitcoinNetwork forChain(String chain) {
+        for (BitcoinNetwork n : values())
+            if (n.chain.equals(chain))
+                return n;
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.Map;
+
+import com.azazar.krotjson.JSON;
+
+/**
+ * Error object the node answered a call with
+ */
+public class BitcoinRPCErrorException extends BitcoinException {
+
+    public static final int RPC_MISC_ERROR = -1;
+    public static final int RPC_TYPE_ERROR = -3;
+    public static final int RPC_INVALID_PARAMETER = -8;
+    public static final int RPC_IN_WARMUP = -28;
+
+    private final int code;
+    private final String errorMessage;
+
+    public BitcoinRPCErrorException(String msg, int code, String errorMessage) {
+        super(msg);
+        this.code = code;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * @param error error member of a JSON-RPC response
+     * @return the error, null if it is not an error object
+     */
+    public static BitcoinRPCErrorException fromJSON(Object error) {
+        if (!(error instanceof Map))
+            return null;
+        Object code = ((Map) error).get("code");
+        Object message = ((Map) error).get("message");
+        if (!(code instanceof Number))
+            return null;
+        return new BitcoinRPCErrorException(JSON.stringify(error), ((Number) code).intValue(), message == null ? null : String.valueOf(message));
+    }
+
+    /**
+     * @param ex failure of a call
+     * @return the error object the node answered with, null if the failure is not one
+     */
+    public static BitcoinRPCErrorException find(BitcoinException ex) {
+        if (ex instanceof BitcoinRPCErrorException)
+            return (BitcoinRPCErrorException) ex;
+        if (ex instanceof BitcoinRPCException)
+            return ((BitcoinRPCException) ex).getRPCError();
+        return null;
+    }
+
+    /**
+     * Get the value of code
+     *
+     * @return the RPC error code, e.g. {@link #RPC_INVALID_PARAMETER}
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Get the value of errorMessage
+     *
+     * @return the message of the error object
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+}
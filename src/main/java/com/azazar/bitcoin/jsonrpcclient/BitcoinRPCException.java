@@ -18,6 +18,8 @@
 
 package com.azazar.bitcoin.jsonrpcclient;
 
+import java.io.IOException;
+
 /**
  *
  * @author Mikhail Yevchenko <m.ṥῥẚɱ.ѓѐḿởύḙ@azazar.com>
@@ -49,4 +51,48 @@ public class BitcoinRPCException extends BitcoinException {
         super(message, cause);
     }
 
+    /**
+     * @param message the detail message
+     * @param responseCode HTTP status of the response
+     * @param error error object of the response body, null if there is none
+     */
+    public BitcoinRPCException(String message, int responseCode, BitcoinRPCErrorException error) {
+        super(message, error);
+        this.responseCode = responseCode;
+    }
+
+    private int responseCode = 0;
+
+    /**
+     * Get the value of responseCode
+     *
+     * @return HTTP status of the failed response, 0 if the failure was not an HTTP error status
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return the error object the node answered with, null if there is none
+     */
+    public BitcoinRPCErrorException getRPCError() {
+        return getCause() instanceof BitcoinRPCErrorException ? (BitcoinRPCErrorException) getCause() : null;
+    }
+
+    /**
+     * @return true if the connection failed or timed out, so the outcome of the call is unknown, false if the node
+     * answered with an error
+     */
+    public boolean isTransportFailure() {
+        return getCause() instanceof IOException;
+    }
+
+    /**
+     * @return true if the node may have executed the call: the connection failed, a gateway timed out, or the
+     * response could not be read or matched to the request
+     */
+    public boolean isOutcomeUnknown() {
+        return isTransportFailure() || responseCode == 0 || responseCode == 502 || responseCode == 504;
+    }
+
 }
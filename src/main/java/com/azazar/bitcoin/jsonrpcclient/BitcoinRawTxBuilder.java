@@ -5,9 +5,9 @@
 package com.azazar.bitcoin.jsonrpcclient;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -25,12 +25,26 @@ public class BitcoinRawTxBuilder {
 
     private class Input extends Bitcoin.BasicTxInput {
 
+        // NaN when unknown
+        public final double value;
+        // hex, null when unknown
+        public final String scriptPubKey;
+
         public Input(String txid, int vout) {
             super(txid, vout);
+            this.value = Double.NaN;
+            this.scriptPubKey = null;
         }
 
         public Input(Bitcoin.TxInput copy) {
-            this(copy.txid(), copy.vout());
+            super(copy.txid(), copy.vout());
+            if (copy instanceof Bitcoin.Unspent) {
+                this.value = ((Bitcoin.Unspent) copy).amount();
+                this.scriptPubKey = ((Bitcoin.Unspent) copy).scriptPubKey();
+            } else {
+                this.value = Double.NaN;
+                this.scriptPubKey = null;
+            }
         }
 
         @Override
@@ -50,7 +64,7 @@ public class BitcoinRawTxBuilder {
 
     }
     public BitcoinRawTxBuilder in(Bitcoin.TxInput in) {
-        inputs.add(new Input(in.txid(), in.vout()));
+        inputs.add(new Input(in));
         return this;
     }
 
@@ -70,31 +84,197 @@ public class BitcoinRawTxBuilder {
         return in(value, 6);
     }
 
+    private UtxoIndex utxoIndex = null;
+    private int utxoIndexMinConf = -1;
+
+    /**
+     * Get the value of utxoIndex
+     *
+     * @return the index coins are selected from, null until the first {@link #in(double, int)} call
+     */
+    public UtxoIndex getUtxoIndex() {
+        return utxoIndex;
+    }
+
+    /**
+     * Set the value of utxoIndex, e.g. {@link LocalUtxoSet#getIndex()}. Coins of an index set here are filtered by
+     * their confirmations, otherwise an index is loaded with listUnspent and kept for further calls with the same
+     * minConf.
+     *
+     * @param utxoIndex new value of utxoIndex
+     */
+    public void setUtxoIndex(UtxoIndex utxoIndex) {
+        this.utxoIndex = utxoIndex;
+        this.utxoIndexMinConf = -1;
+    }
+
+    private CoinSelector.Strategy selectionStrategy = CoinSelector.Strategy.AUTO;
+
+    /**
+     * Get the value of selectionStrategy
+     *
+     * @return the value of selectionStrategy
+     */
+    public CoinSelector.Strategy getSelectionStrategy() {
+        return selectionStrategy;
+    }
+
+    /**
+     * Set the value of selectionStrategy
+     *
+     * @param selectionStrategy new value of selectionStrategy
+     */
+    public void setSelectionStrategy(CoinSelector.Strategy selectionStrategy) {
+        this.selectionStrategy = selectionStrategy;
+    }
+
+    private double costOfChange = 0.00001d;
+
+    /**
+     * Get the value of costOfChange
+     *
+     * @return the excess over the requested value accepted to avoid a change output
+     */
+    public double getCostOfChange() {
+        return costOfChange;
+    }
+
+    /**
+     * Set the value of costOfChange
+     *
+     * @param costOfChange the excess over the requested value accepted to avoid a change output
+     */
+    public void setCostOfChange(double costOfChange) {
+        this.costOfChange = costOfChange;
+    }
+
+    private UtxoReservations reservations = null;
+
+    /**
+     * Get the value of reservations
+     *
+     * @return the value of reservations
+     */
+    public UtxoReservations getReservations() {
+        return reservations;
+    }
+
+    /**
+     * Set the value of reservations. When set, coins reserved by other builders are skipped and selected coins are
+     * claimed by this builder until {@link #release()} or lease expiry.
+     *
+     * @param reservations new value of reservations
+     */
+    public void setReservations(UtxoReservations reservations) {
+        this.reservations = reservations;
+    }
+
+    /**
+     * Releases coins claimed by this builder, e.g. when the transaction is abandoned
+     */
+    public void release() {
+        if (reservations != null)
+            reservations.releaseAll(this);
+    }
+
     public BitcoinRawTxBuilder in(double value, int minConf) throws BitcoinException {
-        List<Bitcoin.Unspent> unspent = bitcoin.listUnspent(minConf);
-        double v = value;
-        for (Bitcoin.Unspent o : unspent) {
-            if (!inputs.contains(new Input(o))) {
-                in(o);
-                v = BitcoinUtil.normalizeAmount(v - o.amount());
+        if (utxoIndex == null || (utxoIndexMinConf != -1 && utxoIndexMinConf != minConf)) {
+            utxoIndex = new UtxoIndex(bitcoin.listUnspent(minConf));
+            utxoIndexMinConf = minConf;
+        }
+        // a shared index may hold coins of any depth
+        final int filterMinConf = utxoIndexMinConf == -1 ? minConf : Integer.MIN_VALUE;
+        final UtxoReservations r = reservations;
+        CoinSelector.CoinFilter unused = inputs.isEmpty() && filterMinConf == Integer.MIN_VALUE && r == null ? null : new CoinSelector.CoinFilter() {
+
+            public boolean accept(Bitcoin.Unspent coin) {
+                return coin.confirmations() >= filterMinConf && !inputs.contains(new Input(coin)) && (r == null || !r.isReserved(coin));
             }
-            if (v < 0)
+        };
+        CoinSelector selector = new CoinSelector(utxoIndex);
+        CoinSelector.Selection selection;
+        // another builder may claim one of the coins between selection and claim, select again then
+        for (int attempt = 0;; attempt++) {
+            selection = selector.select(UtxoIndex.toSatoshis(value), UtxoIndex.toSatoshis(costOfChange), selectionStrategy, unused);
+            if (selection == null || r == null || r.claimAll(selection.coins, this))
                 break;
+            if (attempt == 10)
+                throw new BitcoinException("Failed to claim coins for " + value);
         }
-        if (v > 0)
-            throw new BitcoinException("Not enough bitcoins ("+v+"/"+value+")");
+        if (selection == null)
+            throw new BitcoinException("No changeless input set for " + value);
+        for (Bitcoin.Unspent o : selection.coins)
+            in(o);
         return this;
     }
 
-    private HashMap<String, Bitcoin.RawTransaction> txCache = new HashMap<String, Bitcoin.RawTransaction>();
+    private TxOutValueCache valueCache = TxOutValueCache.getShared();
+
+    /**
+     * Get the value of valueCache
+     *
+     * @return the cache of input values
+     */
+    public TxOutValueCache getValueCache() {
+        return valueCache;
+    }
 
-    private Bitcoin.RawTransaction tx(String txId) throws BitcoinException {
-        Bitcoin.RawTransaction tx = txCache.get(txId);
-        if (tx != null)
-            return tx;
-        tx = bitcoin.getRawTransaction(txId);
-        txCache.put(txId, tx);
-        return tx;
+    /**
+     * Set the value of valueCache
+     *
+     * @param valueCache the cache of input values, {@link TxOutValueCache#getShared()} by default
+     */
+    public void setValueCache(TxOutValueCache valueCache) {
+        this.valueCache = valueCache;
+    }
+
+    /**
+     * Values of coins selected from listunspent are known already. Others come from the cache, then from one
+     * batched gettxout pass, and for outputs that are already spent from one batched getrawtransaction pass.
+     */
+    private long inputTotal() throws BitcoinException {
+        long total = 0;
+        List<Bitcoin.TxInput> unknown = new ArrayList<Bitcoin.TxInput>();
+        for (Bitcoin.TxInput i : inputs) {
+            double v = i instanceof Input ? ((Input) i).value : Double.NaN;
+            if (Double.isNaN(v)) {
+                Double cached = valueCache.get(i);
+                if (cached == null) {
+                    unknown.add(i);
+                    continue;
+                }
+                v = cached;
+            }
+            total += UtxoIndex.toSatoshis(v);
+        }
+        if (unknown.isEmpty())
+            return total;
+        List<Bitcoin.TxOut> outs = bitcoin.getTxOuts(unknown);
+        List<Bitcoin.TxInput> spent = new ArrayList<Bitcoin.TxInput>();
+        for (int i = 0; i < unknown.size(); i++) {
+            Bitcoin.TxOut out = outs.get(i);
+            if (out == null) {
+                spent.add(unknown.get(i));
+                continue;
+            }
+            valueCache.put(unknown.get(i), out.value());
+            total += UtxoIndex.toSatoshis(out.value());
+        }
+        if (spent.isEmpty())
+            return total;
+        List<String> txIds = new ArrayList<String>(spent.size());
+        for (Bitcoin.TxInput i : spent)
+            txIds.add(i.txid());
+        Map<String, Bitcoin.RawTransaction> txs = bitcoin.getRawTransactions(txIds);
+        for (Bitcoin.TxInput i : spent) {
+            Bitcoin.RawTransaction tx = txs.get(i.txid());
+            if (tx == null || i.vout() >= tx.vOut().size())
+                throw new BitcoinException("Unknown input " + i.txid() + ":" + i.vout());
+            double v = tx.vOut().get(i.vout()).value();
+            valueCache.put(i, v);
+            total += UtxoIndex.toSatoshis(v);
+        }
+        return total;
     }
 
     public BitcoinRawTxBuilder outChange(String address) throws BitcoinException {
@@ -102,9 +282,7 @@ public class BitcoinRawTxBuilder {
     }
 
     public BitcoinRawTxBuilder outChange(String address, double fee) throws BitcoinException {
-        double is = 0d;
-        for (Bitcoin.TxInput i : inputs)
-            is = BitcoinUtil.normalizeAmount(is + tx(i.txid()).vOut().get(i.vout()).value());
+        double is = UtxoIndex.toAmount(inputTotal());
         double os = fee;
         for (Bitcoin.TxOutput o : outputs)
             os = BitcoinUtil.normalizeAmount(os + o.amount());
@@ -113,11 +291,94 @@ public class BitcoinRawTxBuilder {
         return this;
     }
 
+    /**
+     * @return the unsigned transaction, built locally
+     * @throws BitcoinException 
+     */
+    public BinaryRawTransaction build() throws BitcoinException {
+        return BinaryRawTransaction.create(new ArrayList<Bitcoin.TxInput>(inputs), outputs, bitcoin, bitcoin.getNetwork());
+    }
+
     public String create() throws BitcoinException {
-        return bitcoin.createRawTransaction(new ArrayList<Bitcoin.TxInput>(inputs), outputs);
+        return build().hex();
     }
     
+    /**
+     * Outputs spent by the inputs, known for coins selected from listunspent, looked up like in
+     * {@link #inputTotal()} otherwise
+     */
+    private List<TransactionSigner.Prevout> prevouts() throws BitcoinException {
+        List<TransactionSigner.Prevout> r = new ArrayList<TransactionSigner.Prevout>(inputs.size());
+        List<Bitcoin.TxInput> unknown = new ArrayList<Bitcoin.TxInput>();
+        List<Integer> unknownIdx = new ArrayList<Integer>();
+        for (Bitcoin.TxInput i : inputs) {
+            Input in = i instanceof Input ? (Input) i : null;
+            if (in != null && !Double.isNaN(in.value) && in.scriptPubKey != null)
+                r.add(new TransactionSigner.Prevout(UtxoIndex.toSatoshis(in.value), BitcoinUtil.hexToBytes(in.scriptPubKey)));
+            else {
+                unknownIdx.add(r.size());
+                unknown.add(i);
+                r.add(null);
+            }
+        }
+        if (unknown.isEmpty())
+            return r;
+        List<Bitcoin.TxOut> outs = bitcoin.getTxOuts(unknown);
+        List<String> spentTxIds = new ArrayList<String>();
+        for (int i = 0; i < unknown.size(); i++) {
+            Bitcoin.TxOut out = outs.get(i);
+            if (out == null)
+                spentTxIds.add(unknown.get(i).txid());
+            else
+                r.set(unknownIdx.get(i), new TransactionSigner.Prevout(out));
+        }
+        if (spentTxIds.isEmpty())
+            return r;
+        Map<String, Bitcoin.RawTransaction> txs = bitcoin.getRawTransactions(spentTxIds);
+        for (int i = 0; i < unknown.size(); i++) {
+            if (outs.get(i) != null)
+                continue;
+            Bitcoin.TxInput in = unknown.get(i);
+            Bitcoin.RawTransaction tx = txs.get(in.txid());
+            if (tx == null || in.vout() >= tx.vOut().size())
+                throw new BitcoinException("Unknown input " + in.txid() + ":" + in.vout());
+            Bitcoin.RawTransaction.Out out = tx.vOut().get(in.vout());
+            r.set(unknownIdx.get(i), new TransactionSigner.Prevout(UtxoIndex.toSatoshis(out.value()), BitcoinUtil.hexToBytes(out.scriptPubKey().hex())));
+        }
+        return r;
+    }
+
+    private TransactionSigner signer = null;
+
+    /**
+     * Get the value of signer
+     *
+     * @return the value of signer
+     */
+    public TransactionSigner getSigner() {
+        return signer;
+    }
+
+    /**
+     * Set the value of signer. When set, {@link #sign()} signs locally instead of with signrawtransaction.
+     *
+     * @param signer new value of signer
+     */
+    public void setSigner(TransactionSigner signer) {
+        this.signer = signer;
+    }
+
+    /**
+     * @return the transaction signed with local keys
+     * @throws BitcoinException if an input can't be signed by signer
+     */
+    public BinaryRawTransaction sign(TransactionSigner signer) throws BitcoinException {
+        return signer.sign(build(), prevouts());
+    }
+
     public String sign() throws BitcoinException {
+        if (signer != null)
+            return sign(signer).hex();
         return bitcoin.signRawTransaction(create());
     }
 
@@ -0,0 +1,317 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.ByteArrayOutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import wang.lcs.bitcoin.account.Base58;
+import wang.lcs.bitcoin.account.BitcoinAccount;
+import wang.lcs.bitcoin.account.Bech32;
+
+/**
+ * Output script helpers: address conversion, standard type detection and disassembly in the format used by
+ * bitcoind
+ */
+public class BitcoinScript {
+
+    public static final int OP_0 = 0x00;
+    public static final int OP_PUSHDATA1 = 0x4c;
+    public static final int OP_PUSHDATA2 = 0x4d;
+    public static final int OP_PUSHDATA4 = 0x4e;
+    public static final int OP_1NEGATE = 0x4f;
+    public static final int OP_1 = 0x51;
+    public static final int OP_16 = 0x60;
+    public static final int OP_RETURN = 0x6a;
+    public static final int OP_DUP = 0x76;
+    public static final int OP_EQUAL = 0x87;
+    public static final int OP_EQUALVERIFY = 0x88;
+    public static final int OP_HASH160 = 0xa9;
+    public static final int OP_CHECKSIG = 0xac;
+    public static final int OP_CHECKMULTISIG = 0xae;
+
+    private static final String[] OPCODES = new String[256];
+
+    static {
+        String[][] names = {
+            { "61", "OP_NOP" }, { "62", "OP_VER" }, { "63", "OP_IF" }, { "64", "OP_NOTIF" }, { "65", "OP_VERIF" },
+            { "66", "OP_VERNOTIF" }, { "67", "OP_ELSE" }, { "68", "OP_ENDIF" }, { "69", "OP_VERIFY" },
+            { "6a", "OP_RETURN" }, { "6b", "OP_TOALTSTACK" }, { "6c", "OP_FROMALTSTACK" }, { "6d", "OP_2DROP" },
+            { "6e", "OP_2DUP" }, { "6f", "OP_3DUP" }, { "70", "OP_2OVER" }, { "71", "OP_2ROT" }, { "72", "OP_2SWAP" },
+            { "73", "OP_IFDUP" }, { "74", "OP_DEPTH" }, { "75", "OP_DROP" }, { "76", "OP_DUP" }, { "77", "OP_NIP" },
+            { "78", "OP_OVER" }, { "79", "OP_PICK" }, { "7a", "OP_ROLL" }, { "7b", "OP_ROT" }, { "7c", "OP_SWAP" },
+            { "7d", "OP_TUCK" }, { "7e", "OP_CAT" }, { "7f", "OP_SUBSTR" }, { "80", "OP_LEFT" }, { "81", "OP_RIGHT" },
+            { "82", "OP_SIZE" }, { "83", "OP_INVERT" }, { "84", "OP_AND" }, { "85", "OP_OR" }, { "86", "OP_XOR" },
+            { "87", "OP_EQUAL" }, { "88", "OP_EQUALVERIFY" }, { "89", "OP_RESERVED1" }, { "8a", "OP_RESERVED2" },
+            { "8b", "OP_1ADD" }, { "8c", "OP_1SUB" }, { "8d", "OP_2MUL" }, { "8e", "OP_2DIV" }, { "8f", "OP_NEGATE" },
+            { "90", "OP_ABS" }, { "91", "OP_NOT" }, { "92", "OP_0NOTEQUAL" }, { "93", "OP_ADD" }, { "94", "OP_SUB" },
+            { "95", "OP_MUL" }, { "96", "OP_DIV" }, { "97", "OP_MOD" }, { "98", "OP_LSHIFT" }, { "99", "OP_RSHIFT" },
+            { "9a", "OP_BOOLAND" }, { "9b", "OP_BOOLOR" }, { "9c", "OP_NUMEQUAL" }, { "9d", "OP_NUMEQUALVERIFY" },
+            { "9e", "OP_NUMNOTEQUAL" }, { "9f", "OP_LESSTHAN" }, { "a0", "OP_GREATERTHAN" },
+            { "a1", "OP_LESSTHANOREQUAL" }, { "a2", "OP_GREATERTHANOREQUAL" }, { "a3", "OP_MIN" }, { "a4", "OP_MAX" },
+            { "a5", "OP_WITHIN" }, { "a6", "OP_RIPEMD160" }, { "a7", "OP_SHA1" }, { "a8", "OP_SHA256" },
+            { "a9", "OP_HASH160" }, { "aa", "OP_HASH256" }, { "ab", "OP_CODESEPARATOR" }, { "ac", "OP_CHECKSIG" },
+            { "ad", "OP_CHECKSIGVERIFY" }, { "ae", "OP_CHECKMULTISIG" }, { "af", "OP_CHECKMULTISIGVERIFY" },
+            { "b0", "OP_NOP1" }, { "b1", "OP_CHECKLOCKTIMEVERIFY" }, { "b2", "OP_CHECKSEQUENCEVERIFY" },
+            { "b3", "OP_NOP4" }, { "b4", "OP_NOP5" }, { "b5", "OP_NOP6" }, { "b6", "OP_NOP7" }, { "b7", "OP_NOP8" },
+            { "b8", "OP_NOP9" }, { "b9", "OP_NOP10" }, { "ba", "OP_CHECKSIGADD" }, { "50", "OP_RESERVED" }
+        };
+        for (String[] n : names)
+            OPCODES[Integer.parseInt(n[0], 16)] = n[1];
+    }
+
+    private BitcoinScript() {
+    }
+
+    private static boolean isSmallInt(int op) {
+        return op == OP_0 || (op >= OP_1 && op <= OP_16);
+    }
+
+    private static int smallInt(int op) {
+        return op == OP_0 ? 0 : op - OP_1 + 1;
+    }
+
+    private static boolean isPubKeyHash(byte[] s) {
+        return s.length == 25 && (s[0] & 0xff) == OP_DUP && (s[1] & 0xff) == OP_HASH160 && s[2] == 20 && (s[23] & 0xff) == OP_EQUALVERIFY && (s[24] & 0xff) == OP_CHECKSIG;
+    }
+
+    private static boolean isScriptHash(byte[] s) {
+        return s.length == 23 && (s[0] & 0xff) == OP_HASH160 && s[1] == 20 && (s[22] & 0xff) == OP_EQUAL;
+    }
+
+    /**
+     * @return witness version, -1 if the script is not a witness program
+     */
+    public static int witnessVersion(byte[] s) {
+        if (s.length < 4 || s.length > 42 || !isSmallInt(s[0] & 0xff) || (s[1] & 0xff) + 2 != s.length)
+            return -1;
+        return smallInt(s[0] & 0xff);
+    }
+
+    private static byte[] copy(byte[] s, int offset, int length) {
+        byte[] r = new byte[length];
+        System.arraycopy(s, offset, r, 0, length);
+        return r;
+    }
+
+    /**
+     * @return bitcoind script type name: pubkey, pubkeyhash, scripthash, multisig, nulldata, witness_v0_keyhash,
+     * witness_v0_scripthash, witness_v1_taproot, witness_unknown or nonstandard
+     */
+    public static String type(byte[] s) {
+        if (isPubKeyHash(s))
+            return "pubkeyhash";
+        if (isScriptHash(s))
+            return "scripthash";
+        int wv = witnessVersion(s);
+        if (wv == 0 && s.length == 22)
+            return "witness_v0_keyhash";
+        if (wv == 0 && s.length == 34)
+            return "witness_v0_scripthash";
+        if (wv == 1 && s.length == 34)
+            return "witness_v1_taproot";
+        if (wv > 0)
+            return "witness_unknown";
+        if (s.length > 0 && (s[0] & 0xff) == OP_RETURN)
+            return "nulldata";
+        if ((s.length == 35 || s.length == 67) && s[0] == s.length - 2 && (s[s.length - 1] & 0xff) == OP_CHECKSIG)
+            return "pubkey";
+        if (multisigRequired(s) > 0)
+            return "multisig";
+        return "nonstandard";
+    }
+
+    private static int multisigRequired(byte[] s) {
+        if (s.length < 3 || (s[s.length - 1] & 0xff) != OP_CHECKMULTISIG)
+            return -1;
+        int m = s[0] & 0xff, n = s[s.length - 2] & 0xff;
+        if (m < OP_1 || m > OP_16 || n < m || n > OP_16)
+            return -1;
+        int keys = 0;
+        for (int p = 1; p < s.length - 2; keys++) {
+            int len = s[p] & 0xff;
+            if (len != 33 && len != 65)
+                return -1;
+            p += 1 + len;
+            if (p > s.length - 2)
+                return -1;
+        }
+        return keys == smallInt(n) ? smallInt(m) : -1;
+    }
+
+    public static int reqSigs(byte[] s) {
+        String type = type(s);
+        if (type.equals("multisig"))
+            return multisigRequired(s);
+        if (type.equals("nonstandard") || type.equals("nulldata") || type.equals("witness_unknown"))
+            return 0;
+        return 1;
+    }
+
+    /**
+     * @return address paid by the script, null if it has none
+     */
+    public static String toAddress(byte[] s, BitcoinNetwork network) {
+        if (isPubKeyHash(s))
+            return BitcoinAccount.toBase58(network.pubKeyHashVersion, copy(s, 3, 20));
+        if (isScriptHash(s))
+            return BitcoinAccount.toBase58(network.scriptHashVersion, copy(s, 2, 20));
+        int wv = witnessVersion(s);
+        if (wv >= 0)
+            return Bech32.encodeSegwitAddress(network.bech32Hrp, wv, copy(s, 2, s.length - 2));
+        return null;
+    }
+
+    public static List<String> addresses(byte[] s, BitcoinNetwork network) {
+        String address = toAddress(s, network);
+        return address == null ? Collections.<String>emptyList() : Collections.singletonList(address);
+    }
+
+    /**
+     * Builds the output script paying to a base58 or bech32 address of any network
+     * @throws IllegalArgumentException for an invalid address
+     * @see #fromAddress(String, BitcoinNetwork)
+     */
+    public static byte[] fromAddress(String address) throws IllegalArgumentException {
+        return fromAddress(address, null);
+    }
+
+    /**
+     * Builds the output script paying to a base58 or bech32 address
+     * @param network network the address must belong to, null to accept any
+     * @throws IllegalArgumentException for an invalid address or an address of another network
+     */
+    public static byte[] fromAddress(String address, BitcoinNetwork network) throws IllegalArgumentException {
+        int sep = address.lastIndexOf('1');
+        if (sep > 0 && address.length() - sep >= 7) {
+            String hrp = address.substring(0, sep).toLowerCase();
+            for (BitcoinNetwork n : BitcoinNetwork.values())
+                if (n.bech32Hrp.equals(hrp)) {
+                    if (network != null && !network.bech32Hrp.equals(hrp))
+                        throw new IllegalArgumentException("Address is not for " + network.chain + ": " + address);
+                    byte[] program = Bech32.decodeSegwitAddress(hrp, address);
+                    byte[] r = new byte[program.length + 1];
+                    r[0] = (byte) (program[0] == 0 ? OP_0 : OP_1 + program[0] - 1);
+                    r[1] = (byte) (program.length - 1);
+                    System.arraycopy(program, 1, r, 2, program.length - 1);
+                    return r;
+                }
+        }
+        byte[] decoded;
+        try {
+            decoded = Base58.decodeChecked(address);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (decoded.length != 21)
+            throw new IllegalArgumentException("Invalid address: " + address);
+        for (BitcoinNetwork n : network == null ? BitcoinNetwork.values() : new BitcoinNetwork[] { network }) {
+            if (decoded[0] == n.pubKeyHashVersion)
+                return payToPubKeyHash(copy(decoded, 1, 20));
+            if (decoded[0] == n.scriptHashVersion) {
+                byte[] r = new byte[23];
+                r[0] = (byte) OP_HASH160;
+                r[1] = 20;
+                System.arraycopy(decoded, 1, r, 2, 20);
+                r[22] = (byte) OP_EQUAL;
+                return r;
+            }
+        }
+        if (network != null)
+            throw new IllegalArgumentException("Address is not for " + network.chain + ": " + address);
+        throw new IllegalArgumentException("Unknown address version: " + address);
+    }
+
+    /**
+     * @return P2PKH output script of a 20 byte public key hash
+     */
+    public static byte[] payToPubKeyHash(byte[] hash160) {
+        byte[] r = new byte[25];
+        r[0] = (byte) OP_DUP;
+        r[1] = (byte) OP_HASH160;
+        r[2] = 20;
+        System.arraycopy(hash160, 0, r, 3, 20);
+        r[23] = (byte) OP_EQUALVERIFY;
+        r[24] = (byte) OP_CHECKSIG;
+        return r;
+    }
+
+    /**
+     * Appends a minimal push of data
+     */
+    public static void writePush(ByteArrayOutputStream out, byte[] data) {
+        int len = data.length;
+        if (len < OP_PUSHDATA1)
+            out.write(len);
+        else if (len <= 0xff) {
+            out.write(OP_PUSHDATA1);
+            out.write(len);
+        } else if (len <= 0xffff) {
+            out.write(OP_PUSHDATA2);
+            out.write(len);
+            out.write(len >>> 8);
+        } else {
+            out.write(OP_PUSHDATA4);
+            out.write(len);
+            out.write(len >>> 8);
+            out.write(len >>> 16);
+            out.write(len >>> 24);
+        }
+        out.write(data, 0, len);
+    }
+
+    /**
+     * @return disassembly in bitcoind's asm format
+     */
+    public static String asm(byte[] s) {
+        StringBuilder b = new StringBuilder();
+        int p = 0;
+        while (p < s.length) {
+            if (b.length() > 0)
+                b.append(' ');
+            int op = s[p++] & 0xff;
+            if (op > OP_0 && op <= OP_PUSHDATA4) {
+                int len;
+                if (op < OP_PUSHDATA1)
+                    len = op;
+                else {
+                    int size = op == OP_PUSHDATA1 ? 1 : op == OP_PUSHDATA2 ? 2 : 4;
+                    if (p + size > s.length)
+                        return b.append("[error]").toString();
+                    len = 0;
+                    for (int i = size - 1; i >= 0; i--)
+                        len = (len << 8) | (s[p + i] & 0xff);
+                    p += size;
+                }
+                if (len < 0 || p + len > s.length)
+                    return b.append("[error]").toString();
+                b.append(BitcoinUtil.bytesToHex(copy(s, p, len)));
+                p += len;
+            } else if (isSmallInt(op))
+                b.append(smallInt(op));
+            else if (op == OP_1NEGATE)
+                b.append("-1");
+            else
+                b.append(OPCODES[op] == null ? "OP_UNKNOWN" : OPCODES[op]);
+        }
+        return b.toString();
+    }
+}
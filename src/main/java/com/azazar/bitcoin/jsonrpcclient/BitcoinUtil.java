@@ -28,6 +28,31 @@ public class BitcoinUtil {
         return (long)(0.5d + (amount / 0.00000001)) * 0.00000001;
     }
 
+    public static byte[] hexToBytes(String hex) {
+        if ((hex.length() & 1) != 0)
+            throw new IllegalArgumentException("Odd hex string length");
+        byte[] r = new byte[hex.length() / 2];
+        for (int i = 0; i < r.length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0)
+                throw new IllegalArgumentException("Invalid hex string");
+            r[i] = (byte) ((hi << 4) | lo);
+        }
+        return r;
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    public static String bytesToHex(byte[] bytes) {
+        char[] r = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            r[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            r[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(r);
+    }
+
 //    public static void main(String[] args) {
 //        NumberFormat f = new DecimalFormat("#.#########");
 //        System.out.println(f.format(normalizeAmount(1d)) + ":\n1");
@@ -0,0 +1,157 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rescans a height range for watched scripts using BIP158 basic block filters, so only blocks whose filter
+ * matches are fetched in full. Filters are fetched in batches and matched in parallel, the node has to run with
+ * -blockfilterindex.
+ */
+public class BlockFilterScanner {
+
+    public final Bitcoin bitcoin;
+    private final int threads;
+    private final ExecutorService executor;
+
+    /**
+     * @param bitcoin
+     * @param threads number of concurrent filter matches and block fetches, a pool is created for every scan
+     */
+    public BlockFilterScanner(Bitcoin bitcoin, int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be positive");
+        this.bitcoin = bitcoin;
+        this.threads = threads;
+        this.executor = null;
+    }
+
+    /**
+     * @param bitcoin
+     * @param executor executor to run filter matches and block fetches on, it is not shut down by the scanner
+     */
+    public BlockFilterScanner(Bitcoin bitcoin, ExecutorService executor) {
+        this.bitcoin = bitcoin;
+        this.threads = 0;
+        this.executor = executor;
+    }
+
+    private int batchSize = 1000;
+
+    /**
+     * Get the value of batchSize
+     *
+     * @return the number of block hashes and filters requested per batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the value of batchSize
+     *
+     * @param batchSize the number of block hashes and filters requested per batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    private static <T> T get(Future<T> f) throws BitcoinException {
+        try {
+            return f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BitcoinException("Block filter scan interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof BitcoinException)
+                throw (BitcoinException) ex.getCause();
+            throw new BitcoinException(ex.getCause());
+        }
+    }
+
+    /**
+     * Delivers blocks fromHeight..toHeight (inclusive) whose filter matches any of scripts to the consumer on the
+     * calling thread, in height order. Filter false positives are delivered too, so the consumer still has to
+     * check the outputs.
+     * 
+     * @param fromHeight
+     * @param toHeight
+     * @param scripts watched scriptPubKeys
+     * @param consumer receives {@link Bitcoin.FullBlock} instances
+     * @return number of blocks delivered
+     * @throws BitcoinException if a query or the consumer fails
+     */
+    public int scan(int fromHeight, int toHeight, final Collection<byte[]> scripts, BlockScanner.BlockConsumer consumer) throws BitcoinException {
+        if (scripts.isEmpty())
+            return 0;
+        ExecutorService pool = executor == null ? Executors.newFixedThreadPool(threads) : executor;
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        int delivered = 0;
+        try {
+            for (int height = fromHeight; height <= toHeight; height += batchSize) {
+                List<String> hashes = bitcoin.getBlockHashes(height, Math.min(toHeight, height + batchSize - 1));
+                List<Future<Boolean>> matches = new ArrayList<Future<Boolean>>(hashes.size());
+                for (final Bitcoin.BlockFilter filter : bitcoin.getBlockFilters(hashes))
+                    matches.add(pool.submit(new Callable<Boolean>() {
+
+                        public Boolean call() throws Exception {
+                            return GolombCodedSet.basic(filter).matchAny(scripts);
+                        }
+                    }));
+                pending.addAll(matches);
+                List<Future<Bitcoin.FullBlock>> blocks = new ArrayList<Future<Bitcoin.FullBlock>>();
+                for (int i = 0; i < hashes.size(); i++) {
+                    if (!get(matches.get(i)))
+                        continue;
+                    final String blockHash = hashes.get(i);
+                    blocks.add(pool.submit(new Callable<Bitcoin.FullBlock>() {
+
+                        public Bitcoin.FullBlock call() throws Exception {
+                            return bitcoin.getFullBlock(blockHash);
+                        }
+                    }));
+                }
+                pending.addAll(blocks);
+                for (Future<Bitcoin.FullBlock> f : blocks) {
+                    consumer.block(get(f));
+                    delivered++;
+                }
+                pending.clear();
+            }
+        } finally {
+            for (Future<?> f : pending)
+                f.cancel(true);
+            if (executor == null)
+                pool.shutdownNow();
+        }
+        return delivered;
+    }
+
+}
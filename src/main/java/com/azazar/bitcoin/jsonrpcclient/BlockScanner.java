@@ -0,0 +1,185 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams the blocks of a height range to a consumer in height order while fetching them in parallel.
+ * Heights are mapped to hashes with batched getblockhash calls, blocks are fetched by a bounded pool and at most
+ * {@link #getWindow()} fetched blocks wait for the consumer at a time.
+ */
+public class BlockScanner {
+
+    public static interface BlockConsumer {
+        public void block(Bitcoin.Block block) throws BitcoinException;
+    }
+
+    public final Bitcoin bitcoin;
+    private final int threads;
+    private final ExecutorService executor;
+
+    /**
+     * @param bitcoin
+     * @param threads number of concurrent block fetches, a pool is created for every scan
+     */
+    public BlockScanner(Bitcoin bitcoin, int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be positive");
+        this.bitcoin = bitcoin;
+        this.threads = threads;
+        this.executor = null;
+    }
+
+    /**
+     * @param bitcoin
+     * @param executor executor to run block fetches on, it is not shut down by the scanner
+     */
+    public BlockScanner(Bitcoin bitcoin, ExecutorService executor) {
+        this.bitcoin = bitcoin;
+        this.threads = 0;
+        this.executor = executor;
+    }
+
+    private int window = 64;
+
+    /**
+     * Get the value of window
+     *
+     * @return the maximum number of blocks fetched ahead of the consumer
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Set the value of window
+     *
+     * @param window the maximum number of blocks fetched ahead of the consumer
+     */
+    public void setWindow(int window) {
+        if (window <= 0)
+            throw new IllegalArgumentException("window must be positive");
+        this.window = window;
+    }
+
+    private int hashBatchSize = 1000;
+
+    /**
+     * Get the value of hashBatchSize
+     *
+     * @return the number of block hashes requested per batch
+     */
+    public int getHashBatchSize() {
+        return hashBatchSize;
+    }
+
+    /**
+     * Set the value of hashBatchSize
+     *
+     * @param hashBatchSize the number of block hashes requested per batch
+     */
+    public void setHashBatchSize(int hashBatchSize) {
+        if (hashBatchSize <= 0)
+            throw new IllegalArgumentException("hashBatchSize must be positive");
+        this.hashBatchSize = hashBatchSize;
+    }
+
+    private boolean fullBlocks = false;
+
+    /**
+     * Get the value of fullBlocks
+     *
+     * @return whether blocks are fetched with their transactions
+     */
+    public boolean isFullBlocks() {
+        return fullBlocks;
+    }
+
+    /**
+     * Set the value of fullBlocks
+     *
+     * @param fullBlocks when set, {@link Bitcoin.FullBlock} instances are delivered
+     */
+    public void setFullBlocks(boolean fullBlocks) {
+        this.fullBlocks = fullBlocks;
+    }
+
+    private Future<Bitcoin.Block> fetch(ExecutorService pool, final String blockHash) {
+        return pool.submit(new Callable<Bitcoin.Block>() {
+
+            public Bitcoin.Block call() throws Exception {
+                return fullBlocks ? bitcoin.getFullBlock(blockHash) : bitcoin.getBlock(blockHash);
+            }
+        });
+    }
+
+    /**
+     * Delivers blocks fromHeight..toHeight (inclusive) to the consumer on the calling thread, in height order
+     * 
+     * @param fromHeight
+     * @param toHeight
+     * @param consumer
+     * @throws BitcoinException if a fetch or the consumer fails, remaining fetches are cancelled
+     */
+    public void scan(int fromHeight, int toHeight, BlockConsumer consumer) throws BitcoinException {
+        ExecutorService pool = executor == null ? Executors.newFixedThreadPool(threads) : executor;
+        ArrayDeque<Future<Bitcoin.Block>> pending = new ArrayDeque<Future<Bitcoin.Block>>();
+        try {
+            int nextHeight = fromHeight;
+            List<String> hashes = null;
+            int hashIndex = 0;
+            while (nextHeight <= toHeight || !pending.isEmpty()) {
+                while (nextHeight <= toHeight && pending.size() < window) {
+                    if (hashes == null || hashIndex == hashes.size()) {
+                        hashes = bitcoin.getBlockHashes(nextHeight, Math.min(toHeight, nextHeight + hashBatchSize - 1));
+                        hashIndex = 0;
+                    }
+                    pending.add(fetch(pool, hashes.get(hashIndex++)));
+                    nextHeight++;
+                }
+                Bitcoin.Block block;
+                try {
+                    block = pending.poll().get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new BitcoinException("Block scan interrupted", ex);
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof BitcoinException)
+                        throw (BitcoinException) ex.getCause();
+                    throw new BitcoinException(ex.getCause());
+                }
+                consumer.block(block);
+            }
+        } finally {
+            for (Future<Bitcoin.Block> f : pending)
+                f.cancel(true);
+            if (executor == null)
+                pool.shutdownNow();
+        }
+    }
+
+}
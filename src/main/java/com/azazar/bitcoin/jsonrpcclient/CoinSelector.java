@@ -0,0 +1,328 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Coin selection over a {@link UtxoIndex}. All amounts are in satoshis. Coins are never copied out of the index
+ * for a selection, candidates are found by binary search on the sorted amounts and only the chosen coins are
+ * materialized.
+ */
+public class CoinSelector {
+
+    public static enum Strategy {
+        /**
+         * Depth first search for an input set within costOfChange above the target, so no change output is needed
+         */
+        BRANCH_AND_BOUND,
+        /**
+         * Smallest single coin covering the target plus change, or the largest smaller coins trimmed to the
+         * smallest excess
+         */
+        KNAPSACK,
+        /**
+         * Random coins until the target plus change is covered
+         */
+        SINGLE_RANDOM_DRAW,
+        /**
+         * Largest coins first, fewest inputs
+         */
+        LARGEST_FIRST,
+        /**
+         * Branch and bound, falling back to the better of knapsack and single random draw
+         */
+        AUTO
+    }
+
+    public static interface CoinFilter {
+        public boolean accept(Bitcoin.Unspent coin);
+    }
+
+    public static class Selection {
+        public final List<Bitcoin.Unspent> coins;
+        public final long total;
+        public final boolean changeless;
+
+        public Selection(List<Bitcoin.Unspent> coins, long total, boolean changeless) {
+            this.coins = coins;
+            this.total = total;
+            this.changeless = changeless;
+        }
+
+        @Override
+        public String toString() {
+            return "Selection{" + "coins=" + coins.size() + ", total=" + total + ", changeless=" + changeless + '}';
+        }
+    }
+
+    public final UtxoIndex index;
+    private final Random random = new Random();
+
+    public CoinSelector(UtxoIndex index) {
+        this.index = index;
+    }
+
+    private int maxTries = 20000;
+
+    /**
+     * Get the value of maxTries
+     *
+     * @return the maximum number of branch and bound steps per selection
+     */
+    public int getMaxTries() {
+        return maxTries;
+    }
+
+    /**
+     * Set the value of maxTries
+     *
+     * @param maxTries the maximum number of branch and bound steps per selection
+     */
+    public void setMaxTries(int maxTries) {
+        this.maxTries = maxTries;
+    }
+
+    private boolean eligible(CoinFilter filter, int i) {
+        return filter == null || filter.accept(index.coins[i]);
+    }
+
+    private Selection selection(int[] picked, int count, long total, boolean changeless) {
+        List<Bitcoin.Unspent> coins = new ArrayList<Bitcoin.Unspent>(count);
+        for (int i = 0; i < count; i++)
+            coins.add(index.coins[picked[i]]);
+        return new Selection(coins, total, changeless);
+    }
+
+    /**
+     * @param target amount to cover
+     * @param costOfChange excess accepted instead of a change output, also the smallest change worth creating
+     * @param strategy
+     * @param filter coins to consider, null for all
+     * @return selected coins, null if BRANCH_AND_BOUND finds no changeless solution, whatever the reason
+     * @throws BitcoinException if eligible coins don't cover the target
+     */
+    public Selection select(long target, long costOfChange, Strategy strategy, CoinFilter filter) throws BitcoinException {
+        synchronized (index) {
+            Selection s;
+            switch (strategy) {
+                case BRANCH_AND_BOUND:
+                    s = branchAndBound(target, costOfChange, filter);
+                    break;
+                case KNAPSACK:
+                    s = knapsack(target, costOfChange, filter);
+                    break;
+                case SINGLE_RANDOM_DRAW:
+                    s = singleRandomDraw(target, costOfChange, filter);
+                    break;
+                case LARGEST_FIRST:
+                    s = largestFirst(target, filter);
+                    break;
+                default:
+                    s = branchAndBound(target, costOfChange, filter);
+                    if (s != null)
+                        break;
+                    Selection k = knapsack(target, costOfChange, filter);
+                    if (k == null)
+                        break;
+                    Selection r = singleRandomDraw(target, costOfChange, filter);
+                    if (r.coins.size() != k.coins.size())
+                        s = r.coins.size() < k.coins.size() ? r : k;
+                    else
+                        s = r.total < k.total ? r : k;
+            }
+            if (s == null && strategy != Strategy.BRANCH_AND_BOUND) {
+                // only a failed selection pays for a pass over every coin
+                long available = 0;
+                for (int i = 0; i < index.size; i++)
+                    if (eligible(filter, i))
+                        available += index.amounts[i];
+                if (available < target)
+                    throw new BitcoinException("Not enough bitcoins (" + UtxoIndex.toAmount(target - available) + "/" + UtxoIndex.toAmount(target) + ")");
+            }
+            return s;
+        }
+    }
+
+    private long candidate(int[] pool, int top, int p) {
+        return index.amounts[pool == null ? top - 1 - p : pool[p]];
+    }
+
+    private Selection branchAndBound(long target, long costOfChange, CoinFilter filter) {
+        long upper = target + costOfChange;
+        // a single coin inside the window is the best possible answer
+        for (int i = index.lowerBound(target); i < index.size && index.amounts[i] <= upper; i++)
+            if (eligible(filter, i))
+                return selection(new int[] { i }, 1, index.amounts[i], true);
+        int top = index.lowerBound(upper + 1);
+        // candidates in descending amount order, without a filter that is just the index read backwards. The
+        // search can't step further than maxTries candidates, and counting coins beyond that in remaining only
+        // weakens pruning, so a filter is applied to that many candidates at most.
+        long remaining = 0;
+        for (int i = 0; i < top; i++)
+            remaining += index.amounts[i];
+        int[] pool = null;
+        int n = top;
+        if (filter != null) {
+            pool = new int[Math.min(top, maxTries + 1)];
+            n = 0;
+            for (int i = top - 1; i >= 0 && n < pool.length; i--)
+                if (eligible(filter, i))
+                    pool[n++] = i;
+                else
+                    remaining -= index.amounts[i];
+        }
+        if (remaining < target)
+            return null;
+        int[] selected = new int[Math.min(n, maxTries + 1)];
+        int depth = 0;
+        int[] best = null;
+        int bestCount = 0;
+        long bestTotal = Long.MAX_VALUE;
+        long current = 0;
+        int p = 0;
+        for (int tries = 0; tries < maxTries; tries++, p++) {
+            boolean backtrack = false;
+            if (current > upper)
+                backtrack = true;
+            else if (current >= target) {
+                if (current < bestTotal) {
+                    bestTotal = current;
+                    best = Arrays.copyOf(selected, depth);
+                    bestCount = depth;
+                    if (current == target)
+                        break;
+                }
+                backtrack = true;
+            } else if (p >= n || current + remaining < target)
+                backtrack = true;
+            if (backtrack) {
+                if (depth == 0)
+                    break;
+                // restore omitted coins after the last selected one, then omit the last selected one
+                for (p--; p > selected[depth - 1]; p--)
+                    remaining += candidate(pool, top, p);
+                current -= candidate(pool, top, p);
+                depth--;
+            } else {
+                long a = candidate(pool, top, p);
+                remaining -= a;
+                // omitting a coin equal to an omitted predecessor leads to the same subsets
+                if (depth > 0 && p > 0 && a == candidate(pool, top, p - 1) && selected[depth - 1] != p - 1)
+                    continue;
+                selected[depth++] = p;
+                current += a;
+            }
+        }
+        if (best == null)
+            return null;
+        for (int i = 0; i < bestCount; i++)
+            best[i] = pool == null ? top - 1 - best[i] : pool[best[i]];
+        return selection(best, bestCount, bestTotal, true);
+    }
+
+    private Selection knapsack(long target, long minChange, CoinFilter filter) {
+        long goal = target + minChange;
+        // exact match needs no change at all
+        for (int i = index.lowerBound(target); i < index.size && index.amounts[i] == target; i++)
+            if (eligible(filter, i))
+                return selection(new int[] { i }, 1, target, true);
+        int lowestLarger = -1;
+        for (int i = index.lowerBound(goal); i < index.size; i++)
+            if (eligible(filter, i)) {
+                lowestLarger = i;
+                break;
+            }
+        int top = index.lowerBound(goal);
+        int[] picked = new int[top];
+        int count = 0;
+        long total = 0;
+        for (int i = top - 1; i >= 0 && total < goal; i--)
+            if (eligible(filter, i)) {
+                picked[count++] = i;
+                total += index.amounts[i];
+            }
+        if (total < target && lowestLarger < 0)
+            return null;
+        if (total < target || (lowestLarger >= 0 && (total < goal || index.amounts[lowestLarger] <= total)))
+            return selection(new int[] { lowestLarger }, 1, index.amounts[lowestLarger], false);
+        if (total >= goal && count > 0) {
+            // replace the smallest picked coin with the smallest remaining coin that still reaches the goal
+            int last = picked[count - 1];
+            long need = goal - (total - index.amounts[last]);
+            for (int i = index.lowerBound(need); i < last; i++)
+                if (eligible(filter, i)) {
+                    total += index.amounts[i] - index.amounts[last];
+                    picked[count - 1] = i;
+                    break;
+                }
+        }
+        return selection(picked, count, total, total < goal);
+    }
+
+    private Selection singleRandomDraw(long target, long minChange, CoinFilter filter) {
+        long goal = target + minChange;
+        int size = index.size;
+        long[] taken = new long[(size + 63) >>> 6];
+        int[] picked = new int[16];
+        int count = 0;
+        long total = 0;
+        int misses = 0;
+        while (total < goal && misses < size) {
+            int i = random.nextInt(size);
+            if ((taken[i >>> 6] & (1L << i)) != 0 || !eligible(filter, i)) {
+                misses++;
+                continue;
+            }
+            taken[i >>> 6] |= 1L << i;
+            if (count == picked.length)
+                picked = Arrays.copyOf(picked, count * 2);
+            picked[count++] = i;
+            total += index.amounts[i];
+        }
+        // too many misses means most coins are needed, take the rest in order
+        for (int i = 0; i < size && total < goal; i++)
+            if ((taken[i >>> 6] & (1L << i)) == 0 && eligible(filter, i)) {
+                if (count == picked.length)
+                    picked = Arrays.copyOf(picked, count * 2);
+                picked[count++] = i;
+                total += index.amounts[i];
+            }
+        // coins short of target plus change still do when they cover the target
+        return total < target ? null : selection(picked, count, total, false);
+    }
+
+    private Selection largestFirst(long target, CoinFilter filter) {
+        int[] picked = new int[16];
+        int count = 0;
+        long total = 0;
+        for (int i = index.size - 1; i >= 0 && total < target; i--)
+            if (eligible(filter, i)) {
+                if (count == picked.length)
+                    picked = Arrays.copyOf(picked, count * 2);
+                picked[count++] = i;
+                total += index.amounts[i];
+            }
+        return total < target ? null : selection(picked, count, total, false);
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import com.azazar.bitcoin.jsonrpcclient.Bitcoin.RawTransaction;
+import com.azazar.bitcoin.jsonrpcclient.Bitcoin.Transaction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Tracks pending transactions until they reach minConf confirmations. Every pending transaction is keyed by the
+ * height of its block, so a new tip only touches the transactions that just crossed the threshold, however many
+ * blocks it moved by.
+ * <p>
+ * Unconfirmed transactions are expired after expireBlocks blocks, and processed txids are remembered for
+ * expireBlocks blocks, both keyed by compact binary txids.
+ */
+public class ConfirmationTracker {
+
+    /**
+     * 256 bit txid key, considerably smaller than its hex String
+     */
+    static final class TxKey {
+        private final long a, b, c, d;
+
+        TxKey(String txId) {
+            long[] h = TxIdWords.parse(txId);
+            a = h[0];
+            b = h[1];
+            c = h[2];
+            d = h[3];
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (d ^ (d >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TxKey))
+                return false;
+            TxKey o = (TxKey) obj;
+            return a == o.a && b == o.b && c == o.c && d == o.d;
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final TxKey key;
+        final Transaction transaction;
+        long addedAt;
+        final long blockHeight;
+
+        Entry(TxKey key, Transaction transaction, long addedAt, long blockHeight) {
+            this.key = key;
+            this.transaction = transaction;
+            this.addedAt = addedAt;
+            this.blockHeight = blockHeight;
+        }
+
+        public int compareTo(Entry o) {
+            return blockHeight < o.blockHeight ? -1 : blockHeight > o.blockHeight ? 1 : 0;
+        }
+    }
+
+    private volatile int minConf;
+    private final int expireBlocks;
+    // tip height, -1 until the first block
+    private long height = -1;
+
+    private final HashMap<TxKey, Entry> pending = new HashMap<TxKey, Entry>();
+    private final PriorityQueue<Entry> byHeight = new PriorityQueue<Entry>();
+    private final ArrayDeque<Entry> unconfirmed = new ArrayDeque<Entry>();
+    private final HashMap<TxKey, Long> processed = new HashMap<TxKey, Long>();
+    private final ArrayDeque<Object[]> processedOrder = new ArrayDeque<Object[]>();
+
+    /**
+     * @param minConf
+     * @param expireBlocks number of blocks unconfirmed and processed transactions are remembered for
+     */
+    public ConfirmationTracker(int minConf, int expireBlocks) {
+        this.minConf = minConf;
+        this.expireBlocks = expireBlocks;
+    }
+
+    public ConfirmationTracker(int minConf) {
+        this(minConf, 1008);
+    }
+
+    /**
+     * Get the value of minConf
+     *
+     * @return the value of minConf
+     */
+    public int getMinConf() {
+        return minConf;
+    }
+
+    /**
+     * Set the value of minConf, applies to pending transactions too
+     *
+     * @param minConf new value of minConf
+     */
+    public void setMinConf(int minConf) {
+        this.minConf = minConf;
+    }
+
+    /**
+     * @return tip height passed to {@link #block(int)}, -1 before the first block
+     */
+    public synchronized long getHeight() {
+        return height;
+    }
+
+    private boolean reached(long blockHeight) {
+        return height >= 0 && height - blockHeight + 1 >= minConf;
+    }
+
+    /**
+     * Registers or updates a transaction
+     *
+     * @param transaction
+     * @param blockHeight height of the block containing the transaction, -1 if it is unconfirmed
+     * @return true if the transaction has reached minConf at the current tip and was not processed yet
+     */
+    public synchronized boolean transaction(Transaction transaction, int blockHeight) {
+        TxKey key = new TxKey(transaction.txId());
+        if (processed.containsKey(key))
+            return false;
+        Entry old = pending.get(key);
+        if (blockHeight < 0) {
+            if (old == null) {
+                Entry e = new Entry(key, transaction, height, Long.MAX_VALUE);
+                pending.put(key, e);
+                unconfirmed.add(e);
+            }
+            return false;
+        }
+        if (reached(blockHeight)) {
+            pending.remove(key);
+            return true;
+        }
+        if (old == null || old.blockHeight != blockHeight) {
+            Entry e = new Entry(key, new TrackedTransaction(transaction, blockHeight), old == null ? height : old.addedAt, blockHeight);
+            pending.put(key, e);
+            byHeight.add(e);
+        }
+        return false;
+    }
+
+    /**
+     * Moves the tracker to a new tip
+     *
+     * @param tipHeight height of the new tip
+     * @return transactions that reached minConf at this tip
+     */
+    public synchronized List<Transaction> block(int tipHeight) {
+        if (height < 0) {
+            // entries registered before the first block expire counting from it
+            for (Entry e : unconfirmed)
+                e.addedAt = tipHeight;
+            for (Object[] p : processedOrder) {
+                p[1] = Long.valueOf(tipHeight);
+                processed.put((TxKey) p[0], (Long) p[1]);
+            }
+        }
+        height = tipHeight;
+        List<Transaction> r = new ArrayList<Transaction>();
+        while (!byHeight.isEmpty() && reached(byHeight.peek().blockHeight)) {
+            Entry e = byHeight.poll();
+            if (pending.get(e.key) == e) {
+                pending.remove(e.key);
+                r.add(e.transaction);
+            }
+        }
+        while (!unconfirmed.isEmpty() && unconfirmed.peek().addedAt + expireBlocks <= height) {
+            Entry e = unconfirmed.poll();
+            if (pending.get(e.key) == e)
+                pending.remove(e.key);
+        }
+        while (!processedOrder.isEmpty() && (Long) processedOrder.peek()[1] + expireBlocks <= height) {
+            Object[] p = processedOrder.poll();
+            if (p[1].equals(processed.get((TxKey) p[0])))
+                processed.remove((TxKey) p[0]);
+        }
+        return r;
+    }
+
+    /**
+     * Moves the tip below a block disconnected by a chain reorganization, so pending transactions are not reported
+     * early
+     *
+     * @param blockHeight height of the disconnected block
+     */
+    public synchronized void blockDisconnected(int blockHeight) {
+        if (height >= blockHeight)
+            height = blockHeight - 1;
+    }
+
+    /**
+     * Moves a pending transaction back to the unconfirmed state after its block was disconnected
+     *
+     * @param transaction
+     */
+    public synchronized void transactionUnconfirmed(Transaction transaction) {
+        TxKey key = new TxKey(transaction.txId());
+        Entry old = pending.get(key);
+        if (old == null || old.blockHeight == Long.MAX_VALUE)
+            return;
+        Entry e = new Entry(key, transaction, height, Long.MAX_VALUE);
+        pending.put(key, e);
+        unconfirmed.add(e);
+    }
+
+    /**
+     * @param txId
+     * @return false if the transaction was already processed
+     */
+    public synchronized boolean markProcessed(String txId) {
+        TxKey key = new TxKey(txId);
+        if (processed.containsKey(key))
+            return false;
+        Long at = Long.valueOf(height);
+        processed.put(key, at);
+        processedOrder.add(new Object[] { key, at });
+        pending.remove(key);
+        return true;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Transaction with confirmations counted from the tip height seen by the tracker
+     */
+    private class TrackedTransaction implements Transaction {
+
+        private final Transaction transaction;
+        private final long blockHeight;
+
+        public TrackedTransaction(Transaction transaction, long blockHeight) {
+            this.transaction = transaction instanceof TrackedTransaction ? ((TrackedTransaction) transaction).transaction : transaction;
+            this.blockHeight = blockHeight;
+        }
+
+        public int confirmations() {
+            synchronized (ConfirmationTracker.this) {
+                return height < 0 ? transaction.confirmations() : (int) Math.max(0, height - blockHeight + 1);
+            }
+        }
+
+        public String account() {
+            return transaction.account();
+        }
+
+        public String address() {
+            return transaction.address();
+        }
+
+        public String category() {
+            return transaction.category();
+        }
+
+        public double amount() {
+            return transaction.amount();
+        }
+
+        public double fee() {
+            return transaction.fee();
+        }
+
+        public String blockHash() {
+            return transaction.blockHash();
+        }
+
+        public int blockIndex() {
+            return transaction.blockIndex();
+        }
+
+        public Date blockTime() {
+            return transaction.blockTime();
+        }
+
+        public String txId() {
+            return transaction.txId();
+        }
+
+        public int vout() {
+            return transaction.vout();
+        }
+
+        public Date time() {
+            return transaction.time();
+        }
+
+        public Date timeReceived() {
+            return transaction.timeReceived();
+        }
+
+        public String comment() {
+            return transaction.comment();
+        }
+
+        public String commentTo() {
+            return transaction.commentTo();
+        }
+
+        public RawTransaction raw() {
+            return transaction.raw();
+        }
+
+        @Override
+        public String toString() {
+            return transaction.toString();
+        }
+
+    }
+
+}
@@ -6,39 +6,149 @@ package com.azazar.bitcoin.jsonrpcclient;
 import com.azazar.bitcoin.jsonrpcclient.Bitcoin.Transaction;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
  * @author Mikhail Yevchenko <m.ṥῥẚɱ.ѓѐḿởύḙ@azazar.com>
  */
-public abstract class ConfirmedPaymentListener extends SimpleBitcoinPaymentListener {
+public abstract class ConfirmedPaymentListener extends SimpleBitcoinPaymentListener implements BitcoinReorgListener {
+
+    private static final Logger logger = Logger.getLogger(ConfirmedPaymentListener.class.getCanonicalName());
 
     public int minConf;
 
-    public ConfirmedPaymentListener(int minConf) {
+    /**
+     * Processed txids of a listener created without a client. With a client they are remembered by {@link #tracker}
+     * for a limited number of blocks instead, and this set stays empty.
+     */
+    protected Set<String> processed = Collections.synchronizedSet(new HashSet<String>());
+
+    protected final ConfirmationTracker tracker;
+
+    private final Bitcoin bitcoin;
+
+    private final LinkedHashMap<String, Integer> heights = new LinkedHashMap<String, Integer>() {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > 100;
+        }
+    };
+
+    /**
+     * @param bitcoin client block heights are looked up with
+     * @param minConf
+     */
+    public ConfirmedPaymentListener(Bitcoin bitcoin, int minConf) {
+        this.bitcoin = bitcoin;
         this.minConf = minConf;
+        this.tracker = new ConfirmationTracker(minConf);
+    }
+
+    public ConfirmedPaymentListener(Bitcoin bitcoin) {
+        this(bitcoin, 6);
+    }
+
+    /**
+     * @deprecated without a client, confirmations are only taken from transactions as they are delivered, reorgs are
+     * not followed and processed txids are kept in {@link #processed} for the lifetime of the listener, use
+     * {@link #ConfirmedPaymentListener(Bitcoin, int)}
+     */
+    @Deprecated
+    public ConfirmedPaymentListener(int minConf) {
+        this(null, minConf);
     }
 
+    /**
+     * @deprecated use {@link #ConfirmedPaymentListener(Bitcoin)}
+     */
+    @Deprecated
     public ConfirmedPaymentListener() {
         this(6);
     }
 
-    protected Set<String> processed = Collections.synchronizedSet(new HashSet<String>());
+    private int height(String blockHash) throws BitcoinException {
+        synchronized (heights) {
+            Integer h = heights.get(blockHash);
+            if (h != null)
+                return h;
+        }
+        int h = bitcoin.getBlockHeader(blockHash).height();
+        synchronized (heights) {
+            heights.put(blockHash, h);
+        }
+        return h;
+    }
 
     protected boolean markProcess(String txId) {
-        return processed.add(txId);
+        if (bitcoin == null)
+            return processed.add(txId);
+        return tracker.markProcessed(txId);
     }
 
     @Override
     public void transaction(Transaction transaction) {
-        if (transaction.confirmations() < minConf)
+        tracker.setMinConf(minConf);
+        boolean reached;
+        if (bitcoin == null)
+            reached = transaction.confirmations() >= minConf;
+        else
+            try {
+                String blockHash = transaction.blockHash();
+                reached = tracker.transaction(transaction, transaction.confirmations() > 0 && blockHash != null ? height(blockHash) : -1);
+            } catch (BitcoinException ex) {
+                logger.log(Level.SEVERE, null, ex);
+                return;
+            }
+        if (!reached)
             return;
         if (!markProcess(transaction.txId()))
             return;
         confirmed(transaction);
     }
 
+    @Override
+    public void block(String blockHash) {
+        if (bitcoin == null)
+            return;
+        tracker.setMinConf(minConf);
+        List<Transaction> reached;
+        try {
+            reached = tracker.block(height(blockHash));
+        } catch (BitcoinException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            return;
+        }
+        for (Transaction transaction : reached)
+            if (markProcess(transaction.txId()))
+                confirmed(transaction);
+    }
+
+    public void blockDisconnected(String blockHash) {
+        if (bitcoin == null)
+            return;
+        try {
+            tracker.blockDisconnected(height(blockHash));
+        } catch (BitcoinException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Pending transactions wait for their new block, already confirmed ones are not taken back
+     */
+    public void transactionUnconfirmed(Transaction transaction) {
+        if (bitcoin == null)
+            return;
+        tracker.transactionUnconfirmed(transaction);
+    }
+
     public abstract void confirmed(Transaction transaction);
 
 }
@@ -0,0 +1,123 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the checkpoint in a local file. The file is replaced by renaming a fully written temporary file, where
+ * that can't replace the old file directly the old one is kept as a backup until the new one is in place, so a
+ * crash leaves either the old or the new checkpoint. txids are stored as 32 raw bytes.
+ */
+public class FileAcceptorCheckpointStore implements AcceptorCheckpointStore {
+
+    private static final int MAGIC = 0x41434b50;
+    private static final int FORMAT_VERSION = 1;
+
+    public final File file;
+
+    public FileAcceptorCheckpointStore(File file) {
+        this.file = file;
+    }
+
+    static File backupOf(File file) {
+        return new File(file.getPath() + ".bak");
+    }
+
+    /**
+     * @return file, or its backup if a crash interrupted {@link #replace(File, File)}, null if there is neither
+     */
+    static File current(File file) {
+        if (file.exists())
+            return file;
+        File backup = backupOf(file);
+        return backup.exists() ? backup : null;
+    }
+
+    /**
+     * Moves tmp over file
+     */
+    static void replace(File tmp, File file) throws IOException {
+        if (tmp.renameTo(file))
+            return;
+        // renameTo does not replace existing files on every platform
+        File backup = backupOf(file);
+        backup.delete();
+        if (!file.renameTo(backup) || !tmp.renameTo(file))
+            throw new IOException("Unable to replace " + file);
+        backup.delete();
+    }
+
+    public Checkpoint load() throws IOException {
+        File current = current(file);
+        if (current == null)
+            return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(current)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                throw new IOException("Not an acceptor checkpoint: " + current);
+            String lastBlock = in.readBoolean() ? BitcoinUtil.bytesToHex(readHash(in)) : null;
+            int count = in.readInt();
+            List<String> seen = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++)
+                seen.add(BitcoinUtil.bytesToHex(readHash(in)));
+            return new Checkpoint(lastBlock, seen);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readHash(DataInputStream in) throws IOException {
+        byte[] hash = new byte[32];
+        in.readFully(hash);
+        return hash;
+    }
+
+    public void save(Checkpoint checkpoint) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(checkpoint.lastBlock != null);
+            if (checkpoint.lastBlock != null)
+                out.write(BitcoinUtil.hexToBytes(checkpoint.lastBlock));
+            out.writeInt(checkpoint.seen.size());
+            for (String txId : checkpoint.seen)
+                out.write(BitcoinUtil.hexToBytes(txId));
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        replace(tmp, file);
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps queued payouts in a local file, replaced by renaming a fully written temporary file like
+ * {@link FileAcceptorCheckpointStore}. Amounts are stored as satoshis.
+ */
+public class FilePayoutStore implements PayoutStore {
+
+    private static final int MAGIC = 0x5041594f;
+    private static final int FORMAT_VERSION = 1;
+
+    public final File file;
+
+    public FilePayoutStore(File file) {
+        this.file = file;
+    }
+
+    public List<Entry> load() throws IOException {
+        List<Entry> r = new ArrayList<Entry>();
+        File current = FileAcceptorCheckpointStore.current(file);
+        if (current == null)
+            return r;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(current)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                throw new IOException("Not a payout queue: " + current);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                boolean sending = in.readBoolean();
+                String address = in.readUTF();
+                r.add(new Entry(id, address, UtxoIndex.toAmount(in.readLong()), sending));
+            }
+            return r;
+        } finally {
+            in.close();
+        }
+    }
+
+    public void save(List<Entry> entries) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeLong(e.id);
+                out.writeBoolean(e.sending);
+                out.writeUTF(e.address);
+                out.writeLong(UtxoIndex.toSatoshis(e.amount));
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        FileAcceptorCheckpointStore.replace(tmp, file);
+    }
+
+}
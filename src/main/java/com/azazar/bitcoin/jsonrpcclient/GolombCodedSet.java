@@ -0,0 +1,197 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * BIP158 basic block filter. Items are hashed with SipHash-2-4 keyed by the block hash, mapped to [0, N*M) and
+ * stored as Golomb-Rice coded deltas, so matching a set of scripts is one sort and one pass over the filter.
+ */
+public class GolombCodedSet {
+
+    public static final int BASIC_P = 19;
+    public static final long BASIC_M = 784931L;
+
+    private final byte[] data;
+    private final int offset;
+    private final int n;
+    private final long k0, k1;
+    private final int p;
+    private final long range;
+
+    /**
+     * @param key first 16 bytes of the block hash in internal (little-endian) byte order
+     * @param filter serialized filter, element count followed by the coded deltas
+     * @param p Golomb-Rice parameter
+     * @param m inverse false positive rate
+     */
+    public GolombCodedSet(byte[] key, byte[] filter, int p, long m) {
+        this.k0 = le64(key, 0);
+        this.k1 = le64(key, 8);
+        this.data = filter;
+        this.p = p;
+        long count;
+        int first = filter[0] & 0xff;
+        if (first < 0xfd) {
+            count = first;
+            offset = 1;
+        } else if (first == 0xfd) {
+            count = (filter[1] & 0xff) | ((filter[2] & 0xff) << 8);
+            offset = 3;
+        } else if (first == 0xfe) {
+            count = (filter[1] & 0xffL) | ((filter[2] & 0xffL) << 8) | ((filter[3] & 0xffL) << 16) | ((filter[4] & 0xffL) << 24);
+            offset = 5;
+        } else
+            throw new IllegalArgumentException("Filter is too large");
+        if (count > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Filter is too large");
+        this.n = (int) count;
+        this.range = n * m;
+    }
+
+    /**
+     * @param blockHash block hash as returned by RPC
+     * @param filterHex filter as returned by getblockfilter
+     * @return basic filter of the block
+     */
+    public static GolombCodedSet basic(String blockHash, String filterHex) {
+        byte[] hash = BitcoinUtil.hexToBytes(blockHash);
+        byte[] key = new byte[16];
+        for (int i = 0; i < 16; i++)
+            key[i] = hash[hash.length - 1 - i];
+        return new GolombCodedSet(key, BitcoinUtil.hexToBytes(filterHex), BASIC_P, BASIC_M);
+    }
+
+    public static GolombCodedSet basic(Bitcoin.BlockFilter filter) {
+        return basic(filter.blockHash(), filter.filter());
+    }
+
+    public int size() {
+        return n;
+    }
+
+    private static long le64(byte[] b, int o) {
+        long r = 0;
+        for (int i = 7; i >= 0; i--)
+            r = (r << 8) | (b[o + i] & 0xff);
+        return r;
+    }
+
+    long sipHash(byte[] m) {
+        long v0 = 0x736f6d6570736575L ^ k0;
+        long v1 = 0x646f72616e646f6dL ^ k1;
+        long v2 = 0x6c7967656e657261L ^ k0;
+        long v3 = 0x7465646279746573L ^ k1;
+        int blocks = m.length & ~7;
+        for (int i = 0; i < blocks; i += 8) {
+            long w = le64(m, i);
+            v3 ^= w;
+            for (int r = 0; r < 2; r++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= w;
+        }
+        long w = ((long) m.length) << 56;
+        for (int i = m.length - 1; i >= blocks; i--)
+            w |= (m[i] & 0xffL) << ((i - blocks) * 8);
+        v3 ^= w;
+        for (int r = 0; r < 2; r++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= w;
+        v2 ^= 0xff;
+        for (int r = 0; r < 4; r++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    // high 64 bits of the unsigned 128 bit product
+    private static long multiplyHigh(long a, long b) {
+        long aLo = a & 0xffffffffL, aHi = a >>> 32;
+        long bLo = b & 0xffffffffL, bHi = b >>> 32;
+        long lo = aLo * bLo;
+        long mid1 = aHi * bLo + (lo >>> 32);
+        long mid2 = aLo * bHi + (mid1 & 0xffffffffL);
+        return aHi * bHi + (mid1 >>> 32) + (mid2 >>> 32);
+    }
+
+    long hashToRange(byte[] item) {
+        return multiplyHigh(sipHash(item), range);
+    }
+
+    public boolean match(byte[] item) {
+        return matchAny(Arrays.asList(item));
+    }
+
+    /**
+     * @param items scriptPubKeys or other filter elements
+     * @return true if any of items may be in the set, false positives happen with probability 1/M per item
+     */
+    public boolean matchAny(Collection<byte[]> items) {
+        if (n == 0 || items.isEmpty())
+            return false;
+        long[] hashes = new long[items.size()];
+        int i = 0;
+        for (byte[] item : items)
+            hashes[i++] = hashToRange(item);
+        // values are below 2^63 as long as N*M fits in a signed long, so signed sort order is fine
+        Arrays.sort(hashes);
+        int bitPos = offset * 8;
+        int limit = data.length * 8;
+        long value = 0;
+        int h = 0;
+        for (int e = 0; e < n; e++) {
+            long q = 0;
+            while (true) {
+                if (bitPos >= limit)
+                    throw new IllegalArgumentException("Truncated filter");
+                int bit = (data[bitPos >>> 3] >>> (7 - (bitPos & 7))) & 1;
+                bitPos++;
+                if (bit == 0)
+                    break;
+                q++;
+            }
+            if (bitPos + p > limit)
+                throw new IllegalArgumentException("Truncated filter");
+            long r = 0;
+            for (int b = 0; b < p; b++, bitPos++)
+                r = (r << 1) | ((data[bitPos >>> 3] >>> (7 - (bitPos & 7))) & 1);
+            value += (q << p) | r;
+            while (hashes[h] < value)
+                if (++h == hashes.length)
+                    return false;
+            if (hashes[h] == value)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Local copy of the main chain headers, kept in a memory-mapped file indexed by height. Once synced,
+ * block hash, height and confirmation lookups are answered without querying the node.
+ * <p>
+ * Every height takes a fixed size record of the block hash, time and bits. {@link #sync()} appends new
+ * blocks and rewinds the store to the fork point when the node switched to another chain.
+ */
+public class HeaderChainStore implements Closeable {
+
+    private static final int MAGIC = 0x42484452;
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 40;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final int REWIND_BATCH = 64;
+
+    public final Bitcoin bitcoin;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    // written under the lock, and only by the thread holding syncLock
+    private volatile int count;
+    private final Object syncLock = new Object();
+
+    // open addressing table of height + 1 by hash, 0 marks an empty slot
+    private int[] index;
+    private int indexUsed;
+
+    public HeaderChainStore(Bitcoin bitcoin, File file) throws IOException {
+        this.bitcoin = bitcoin;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        boolean created = this.file.length() == 0;
+        map(created ? INITIAL_CAPACITY : Math.max(INITIAL_CAPACITY, (int) ((this.file.length() - FILE_HEADER_SIZE) / RECORD_SIZE)));
+        if (created) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            buffer.putInt(8, 0);
+        } else {
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                close();
+                throw new IOException("Not a header chain store: " + file);
+            }
+            count = buffer.getInt(8);
+        }
+        rebuildIndex(count);
+    }
+
+    private void map(int capacity) throws IOException {
+        this.capacity = capacity;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER_SIZE + (long) capacity * RECORD_SIZE);
+    }
+
+    private int batchSize = 2000;
+
+    /**
+     * Get the value of batchSize
+     *
+     * @return the number of headers requested per batch while syncing
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the value of batchSize
+     *
+     * @param batchSize the number of headers requested per batch while syncing
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    private static int offset(int height) {
+        return FILE_HEADER_SIZE + height * RECORD_SIZE;
+    }
+
+    private boolean hashEquals(int height, byte[] hash) {
+        int o = offset(height);
+        for (int i = 0; i < 32; i++)
+            if (buffer.get(o + i) != hash[i])
+                return false;
+        return true;
+    }
+
+    private byte[] hashAt(int height) {
+        byte[] r = new byte[32];
+        int o = offset(height);
+        for (int i = 0; i < 32; i++)
+            r[i] = buffer.get(o + i);
+        return r;
+    }
+
+    private static int slot(byte[] hash, int mask) {
+        // hashes are stored in display order, their trailing bytes are the well distributed ones
+        int h = ((hash[28] & 0xff) << 24) | ((hash[29] & 0xff) << 16) | ((hash[30] & 0xff) << 8) | (hash[31] & 0xff);
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rebuildIndex(int size) {
+        int tableSize = 1024;
+        while (tableSize < size * 2)
+            tableSize <<= 1;
+        index = new int[tableSize];
+        indexUsed = 0;
+        for (int height = 0; height < size; height++)
+            indexPut(hashAt(height), height);
+    }
+
+    private void indexPut(byte[] hash, int height) {
+        if ((indexUsed + 1) * 4 > index.length * 3) {
+            rebuildIndex(Math.max(count, height));
+        }
+        int mask = index.length - 1;
+        int i = slot(hash, mask);
+        while (index[i] != 0) {
+            if (index[i] == height + 1)
+                return;
+            i = (i + 1) & mask;
+        }
+        index[i] = height + 1;
+        indexUsed++;
+    }
+
+    private int indexGet(byte[] hash) {
+        int mask = index.length - 1;
+        for (int i = slot(hash, mask); index[i] != 0; i = (i + 1) & mask) {
+            int height = index[i] - 1;
+            // entries of rewound heights stay in the table and are skipped here
+            if (height < count && hashEquals(height, hash))
+                return height;
+        }
+        return -1;
+    }
+
+    private void put(int height, Bitcoin.BlockHeader header) throws IOException {
+        if (height >= capacity)
+            map(capacity * 2);
+        byte[] hash = BitcoinUtil.hexToBytes(header.hash());
+        int o = offset(height);
+        for (int i = 0; i < 32; i++)
+            buffer.put(o + i, hash[i]);
+        buffer.putInt(o + 32, (int) (header.time().getTime() / 1000));
+        buffer.putInt(o + 36, (int) Long.parseLong(header.bits(), 16));
+        indexPut(hash, height);
+    }
+
+    private void setCount(int count) {
+        this.count = count;
+        buffer.putInt(8, count);
+    }
+
+    /**
+     * Rewinds the store to the last height whose hash matches the node. Only called by {@link #sync()}, so count
+     * can be read without the lock, node queries run outside of it.
+     *
+     * @return the number of removed blocks
+     */
+    private int rewind(int nodeTip) throws BitcoinException {
+        int removed = 0;
+        if (count - 1 > nodeTip) {
+            removed += count - 1 - nodeTip;
+            synchronized (this) {
+                setCount(nodeTip + 1);
+            }
+        }
+        while (count > 0) {
+            int from = Math.max(0, count - REWIND_BATCH);
+            List<String> hashes = bitcoin.getBlockHashes(from, count - 1);
+            synchronized (this) {
+                int height = count - 1;
+                while (height >= from && !hashEquals(height, BitcoinUtil.hexToBytes(hashes.get(height - from))))
+                    height--;
+                removed += count - 1 - height;
+                setCount(height + 1);
+                if (height >= from)
+                    break;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Brings the store to the node's tip. Headers are fetched without holding the lookup lock, so lookups aren't
+     * blocked by node queries while a sync is running.
+     *
+     * @return the number of blocks disconnected by a chain reorganization, 0 if the chain was only extended
+     * @throws BitcoinException
+     */
+    public int sync() throws BitcoinException {
+        synchronized (syncLock) {
+            int nodeTip = bitcoin.getBlockCount();
+            int disconnected = rewind(nodeTip);
+            try {
+                while (count <= nodeTip) {
+                    List<Bitcoin.BlockHeader> headers = bitcoin.getBlockHeaders(count, Math.min(nodeTip, count + batchSize - 1));
+                    boolean switched = false;
+                    synchronized (this) {
+                        for (Bitcoin.BlockHeader header : headers) {
+                            if (count > 0 && !hashEquals(count - 1, BitcoinUtil.hexToBytes(header.previousHash()))) {
+                                switched = true;
+                                break;
+                            }
+                            put(count, header);
+                            setCount(count + 1);
+                        }
+                    }
+                    if (switched) {
+                        // the node switched chains while we were syncing
+                        nodeTip = bitcoin.getBlockCount();
+                        disconnected += rewind(nodeTip);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new BitcoinException("Unable to grow header store", ex);
+            }
+            return disconnected;
+        }
+    }
+
+    /**
+     * @return height of the local tip, -1 if the store is empty
+     */
+    public synchronized int getBlockCount() {
+        return count - 1;
+    }
+
+    /**
+     * @param height
+     * @return hash of the main chain block at the height, null if the height is above the local tip
+     */
+    public synchronized String getBlockHash(int height) {
+        if (height < 0 || height >= count)
+            return null;
+        return BitcoinUtil.bytesToHex(hashAt(height));
+    }
+
+    /**
+     * @param blockHash
+     * @return height of the block, -1 if it is not part of the local main chain
+     */
+    public synchronized int getHeight(String blockHash) {
+        return indexGet(BitcoinUtil.hexToBytes(blockHash));
+    }
+
+    /**
+     * @param blockHash
+     * @return confirmations of the block relative to the local tip, 0 if it is not part of the local main chain
+     */
+    public synchronized int getConfirmations(String blockHash) {
+        int height = getHeight(blockHash);
+        return height < 0 ? 0 : count - height;
+    }
+
+    public synchronized Date getTime(int height) {
+        if (height < 0 || height >= count)
+            return null;
+        return new Date((buffer.getInt(offset(height) + 32) & 0xffffffffL) * 1000);
+    }
+
+    public synchronized String getBits(int height) {
+        if (height < 0 || height >= count)
+            return null;
+        String bits = Integer.toHexString(buffer.getInt(offset(height) + 36));
+        while (bits.length() < 8)
+            bits = "0" + bits;
+        return bits;
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+        file.close();
+    }
+
+}
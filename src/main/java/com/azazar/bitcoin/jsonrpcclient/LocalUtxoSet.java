@@ -0,0 +1,429 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client side copy of the wallet's unspent outputs. It is seeded once with listunspent and then kept current
+ * from listsinceblock deltas, our own sends and mempool events, with a full reconciliation against the node
+ * every {@link #getReconcileInterval()} milliseconds. Coins are keyed by {@link OutPoint} and kept in an
+ * amount-sorted {@link UtxoIndex} that can be passed to {@link BitcoinRawTxBuilder#setUtxoIndex(UtxoIndex)}.
+ */
+public class LocalUtxoSet {
+
+    private static final Logger logger = Logger.getLogger(LocalUtxoSet.class.getCanonicalName());
+
+    private class Coin implements Bitcoin.Unspent, OutPoint.Holder {
+
+        private final OutPoint outPoint;
+        private final String address, account, scriptPubKey;
+        private final double amount;
+        // 0 while unconfirmed
+        private volatile int height;
+
+        public Coin(OutPoint outPoint, String address, String account, String scriptPubKey, double amount, int height) {
+            this.outPoint = outPoint;
+            this.address = address;
+            this.account = account;
+            this.scriptPubKey = scriptPubKey;
+            this.amount = amount;
+            this.height = height;
+        }
+
+        public OutPoint outPoint() {
+            return outPoint;
+        }
+
+        public String txid() {
+            return outPoint.txid();
+        }
+
+        public int vout() {
+            return outPoint.vout();
+        }
+
+        public String address() {
+            return address;
+        }
+
+        public String account() {
+            return account;
+        }
+
+        public String scriptPubKey() {
+            return scriptPubKey;
+        }
+
+        public double amount() {
+            return amount;
+        }
+
+        public int confirmations() {
+            int h = height;
+            return h == 0 ? 0 : Math.max(0, blockCount - h + 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Coin{" + outPoint + ", amount=" + amount + ", height=" + height + '}';
+        }
+    }
+
+    public final Bitcoin bitcoin;
+    private final HashMap<OutPoint, Coin> coins = new HashMap<OutPoint, Coin>();
+    private final HashMap<String, List<Coin>> byAddress = new HashMap<String, List<Coin>>();
+    // coins with height 0 by txid, so a mempool removal doesn't scan the whole set
+    private final HashMap<String, List<Coin>> unconfirmed = new HashMap<String, List<Coin>>();
+    private final UtxoIndex index = new UtxoIndex();
+    // outpoints spent since the last reconciliation, so a re-listed receive doesn't bring them back
+    private final HashSet<OutPoint> spent = new HashSet<OutPoint>();
+    // transactions whose inputs were already removed
+    private final HashSet<String> applied = new HashSet<String>();
+    private volatile int blockCount = 0;
+    private String lastBlock = null;
+    private long lastReconcile = 0;
+    private boolean reconcileNeeded = false;
+
+    public LocalUtxoSet(Bitcoin bitcoin) {
+        this.bitcoin = bitcoin;
+    }
+
+    private long reconcileInterval = 600000;
+
+    /**
+     * Get the value of reconcileInterval
+     *
+     * @return milliseconds between full reconciliations with listunspent
+     */
+    public long getReconcileInterval() {
+        return reconcileInterval;
+    }
+
+    /**
+     * Set the value of reconcileInterval
+     *
+     * @param reconcileInterval milliseconds between full reconciliations with listunspent
+     */
+    public void setReconcileInterval(long reconcileInterval) {
+        this.reconcileInterval = reconcileInterval;
+    }
+
+    private int heightOf(int confirmations) {
+        return confirmations <= 0 ? 0 : blockCount - confirmations + 1;
+    }
+
+    private static void add(HashMap<String, List<Coin>> map, String key, Coin c) {
+        List<Coin> l = map.get(key);
+        if (l == null)
+            map.put(key, l = new ArrayList<Coin>(1));
+        l.add(c);
+    }
+
+    private static void remove(HashMap<String, List<Coin>> map, String key, Coin c) {
+        List<Coin> l = map.get(key);
+        if (l != null) {
+            l.remove(c);
+            if (l.isEmpty())
+                map.remove(key);
+        }
+    }
+
+    private void put(Coin c) {
+        Coin old = coins.put(c.outPoint, c);
+        if (old != null) {
+            removeFromIndexes(old);
+        }
+        index.add(c);
+        if (c.address != null)
+            add(byAddress, c.address, c);
+        if (c.height == 0)
+            add(unconfirmed, c.txid(), c);
+    }
+
+    private void removeFromIndexes(Coin c) {
+        index.remove(c.outPoint, c.amount);
+        if (c.address != null)
+            remove(byAddress, c.address, c);
+        if (c.height == 0)
+            remove(unconfirmed, c.txid(), c);
+    }
+
+    private void setHeight(Coin c, int height) {
+        if (c.height == height)
+            return;
+        if (c.height == 0)
+            remove(unconfirmed, c.txid(), c);
+        else if (height == 0)
+            add(unconfirmed, c.txid(), c);
+        c.height = height;
+    }
+
+    private Coin remove(OutPoint o) {
+        Coin c = coins.remove(o);
+        if (c != null)
+            removeFromIndexes(c);
+        return c;
+    }
+
+    private void clear() {
+        coins.clear();
+        byAddress.clear();
+        unconfirmed.clear();
+        index.clear();
+        spent.clear();
+        applied.clear();
+    }
+
+    /**
+     * Replaces the content with listunspent output
+     * @return number of coins that were added or removed compared to the local state
+     * @throws BitcoinException 
+     */
+    public synchronized int reconcile() throws BitcoinException {
+        int count = bitcoin.getBlockCount();
+        String tip = bitcoin.getBlockHash(count);
+        List<Bitcoin.Unspent> unspent = bitcoin.listUnspent(0);
+        blockCount = count;
+        HashMap<OutPoint, Coin> old = new HashMap<OutPoint, Coin>(coins);
+        clear();
+        int diff = 0;
+        for (Bitcoin.Unspent u : unspent) {
+            OutPoint o = new OutPoint(u.txid(), u.vout());
+            put(new Coin(o, u.address(), u.account(), u.scriptPubKey(), u.amount(), heightOf(u.confirmations())));
+            if (old.remove(o) == null)
+                diff++;
+        }
+        diff += old.size();
+        if (diff > 0 && lastBlock != null)
+            logger.log(Level.WARNING, "Local UTXO set was {0} coins off, reconciled", diff);
+        // listsinceblock from the block seen before listunspent replays anything that happened in between
+        lastBlock = tip;
+        lastReconcile = System.currentTimeMillis();
+        reconcileNeeded = false;
+        return diff;
+    }
+
+    /**
+     * Applies wallet transactions since the last sync, reconciling first if it is due
+     * @throws BitcoinException 
+     */
+    public synchronized void sync() throws BitcoinException {
+        if (lastBlock == null || reconcileNeeded || System.currentTimeMillis() - lastReconcile >= reconcileInterval) {
+            reconcile();
+            return;
+        }
+        blockCount = bitcoin.getBlockCount();
+        Bitcoin.TransactionsSinceBlock t = bitcoin.listSinceBlock(lastBlock);
+        LinkedHashSet<String> txIds = new LinkedHashSet<String>();
+        for (Bitcoin.Transaction tx : t.transactions()) {
+            String category = tx.category();
+            // only our sends spend wallet coins, deposits have nothing to apply but their outputs
+            if ("send".equals(category) && !applied.contains(tx.txId()))
+                txIds.add(tx.txId());
+            if (tx.vout() < 0 || !("receive".equals(category) || "generate".equals(category) || "immature".equals(category)))
+                continue;
+            OutPoint o = new OutPoint(tx.txId(), tx.vout());
+            if (spent.contains(o))
+                continue;
+            Coin c = coins.get(o);
+            if (c == null)
+                put(new Coin(o, tx.address(), tx.account(), null, tx.amount(), heightOf(tx.confirmations())));
+            else
+                setHeight(c, heightOf(tx.confirmations()));
+        }
+        if (!txIds.isEmpty()) {
+            Map<String, Bitcoin.RawTransaction> raw = bitcoin.getWalletTransactions(txIds);
+            for (String txId : txIds) {
+                Bitcoin.RawTransaction tx = raw.get(txId);
+                if (tx == null) {
+                    // e.g. abandoned in the meantime, let listunspent sort it out
+                    reconcileNeeded = true;
+                    continue;
+                }
+                spend(tx);
+            }
+        }
+        lastBlock = t.lastBlock();
+    }
+
+    private void spend(Bitcoin.RawTransaction tx) {
+        for (Bitcoin.RawTransaction.In in : tx.vIn()) {
+            if (in.txid() == null)
+                continue; // coinbase
+            OutPoint o = new OutPoint(in.txid(), in.vout());
+            remove(o);
+            spent.add(o);
+        }
+        applied.add(tx.txId());
+    }
+
+    /**
+     * Applies a transaction we just sent, so its inputs can't be selected again before the next sync
+     * @param tx
+     * @param changeAddresses outputs to these addresses are added as unconfirmed coins
+     */
+    public synchronized void sent(Bitcoin.RawTransaction tx, String... changeAddresses) {
+        spend(tx);
+        if (changeAddresses.length == 0)
+            return;
+        HashSet<String> change = new HashSet<String>();
+        Collections.addAll(change, changeAddresses);
+        for (Bitcoin.RawTransaction.Out out : tx.vOut()) {
+            Bitcoin.RawTransaction.Out.ScriptPubKey spk = out.scriptPubKey();
+            List<String> addresses = spk == null ? null : spk.addresses();
+            if (addresses == null || addresses.size() != 1 || !change.contains(addresses.get(0)))
+                continue;
+            put(new Coin(new OutPoint(tx.txId(), out.n()), addresses.get(0), null, spk.hex(), out.value(), 0));
+        }
+    }
+
+    /**
+     * Mempool notification of a new transaction, removes the coins it spends
+     */
+    public synchronized void transactionAdded(Bitcoin.RawTransaction tx) {
+        boolean ours = false;
+        for (Bitcoin.RawTransaction.In in : tx.vIn())
+            if (in.txid() != null && coins.containsKey(new OutPoint(in.txid(), in.vout()))) {
+                ours = true;
+                break;
+            }
+        if (ours)
+            spend(tx);
+    }
+
+    /**
+     * Mempool notification of a transaction that left the mempool. When it is one of ours the node is asked whether it
+     * was mined: by gettxout for one of its unconfirmed outputs, otherwise by getrawtransaction, which without txindex
+     * can't find mined transactions, so those are treated as evicted. Callers that know the transactions of the new
+     * block should use {@link #transactionRemoved(String, int)} instead.
+     */
+    public synchronized void transactionRemoved(String txId) {
+        List<Coin> l = unconfirmed.get(txId);
+        if (l == null && !applied.contains(txId))
+            return;
+        int confirmations = 0;
+        try {
+            if (l != null) {
+                Bitcoin.TxOut out = bitcoin.getTxOut(txId, l.get(0).vout());
+                if (out != null)
+                    confirmations = out.confirmations();
+            } else
+                confirmations = bitcoin.getRawTransaction(txId).confirmations();
+        } catch (BitcoinException ex) {
+            logger.log(Level.FINE, null, ex);
+        }
+        transactionRemoved(txId, confirmations);
+    }
+
+    /**
+     * Mempool notification of a transaction that left the mempool. Outputs of a mined transaction are kept and marked
+     * confirmed. Unconfirmed outputs of an evicted or replaced transaction are dropped, the coins it spent are
+     * restored by the next reconciliation.
+     * @param txId
+     * @param confirmations confirmations of the transaction, 0 or less if it was evicted or replaced
+     */
+    public synchronized void transactionRemoved(String txId, int confirmations) {
+        List<Coin> l = unconfirmed.get(txId);
+        if (confirmations > 0) {
+            if (l != null) {
+                int height = Math.max(1, heightOf(confirmations));
+                for (Coin c : new ArrayList<Coin>(l))
+                    setHeight(c, height);
+            }
+            return;
+        }
+        boolean found = applied.remove(txId);
+        if (l != null) {
+            for (Coin c : new ArrayList<Coin>(l))
+                remove(c.outPoint);
+            found = true;
+        }
+        if (found)
+            reconcileNeeded = true;
+    }
+
+    /**
+     * @return amount-sorted index of all coins, including unconfirmed ones
+     */
+    public UtxoIndex getIndex() {
+        return index;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public synchronized int size() {
+        return coins.size();
+    }
+
+    public synchronized Bitcoin.Unspent get(Bitcoin.TxInput in) {
+        return coins.get(OutPoint.of(in));
+    }
+
+    public synchronized List<Bitcoin.Unspent> listUnspent(int minConf) {
+        return listUnspent(minConf, Integer.MAX_VALUE);
+    }
+
+    public synchronized List<Bitcoin.Unspent> listUnspent(int minConf, int maxConf) {
+        List<Bitcoin.Unspent> r = new ArrayList<Bitcoin.Unspent>();
+        for (Bitcoin.Unspent u : index.toList()) {
+            int conf = u.confirmations();
+            if (conf >= minConf && conf <= maxConf)
+                r.add(u);
+        }
+        return r;
+    }
+
+    public synchronized List<Bitcoin.Unspent> listUnspent(String address) {
+        List<Coin> l = byAddress.get(address);
+        return l == null ? new ArrayList<Bitcoin.Unspent>() : new ArrayList<Bitcoin.Unspent>(l);
+    }
+
+    /**
+     * @return coins with minAmount &lt;= amount &lt;= maxAmount, in ascending amount order
+     */
+    public List<Bitcoin.Unspent> listUnspentByAmount(double minAmount, double maxAmount) {
+        long min = UtxoIndex.toSatoshis(minAmount), max = UtxoIndex.toSatoshis(maxAmount);
+        List<Bitcoin.Unspent> r = new ArrayList<Bitcoin.Unspent>();
+        synchronized (index) {
+            for (int i = index.lowerBound(min); i < index.size && index.amounts[i] <= max; i++)
+                r.add(index.coins[i]);
+        }
+        return r;
+    }
+
+    public synchronized double getBalance(int minConf) {
+        long total = 0;
+        for (Coin c : coins.values())
+            if (c.confirmations() >= minConf)
+                total += UtxoIndex.toSatoshis(c.amount);
+        return UtxoIndex.toAmount(total);
+    }
+}
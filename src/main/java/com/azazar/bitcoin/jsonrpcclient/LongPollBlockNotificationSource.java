@@ -0,0 +1,47 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+/**
+ * Waits for new blocks with waitforblockheight long polling, so a block is noticed as soon as the node connects it.
+ * A tip replaced by another block of the same height is reported with the next block.
+ */
+public class LongPollBlockNotificationSource implements BlockNotificationSource {
+
+    public final Bitcoin bitcoin;
+    private int height = -1;
+
+    public LongPollBlockNotificationSource(Bitcoin bitcoin) {
+        this.bitcoin = bitcoin;
+    }
+
+    public synchronized String waitForBlock(long timeout) throws BitcoinException, InterruptedException {
+        if (height < 0)
+            height = bitcoin.getBlockCount();
+        Bitcoin.BlockTip tip = bitcoin.waitForBlockHeight(height + 1, (int) Math.max(1, Math.min(timeout, Integer.MAX_VALUE)));
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (tip.height() <= height)
+            return null;
+        height = tip.height();
+        return tip.hash();
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the set of mempool txids and reports what was added and removed since the previous poll.
+ * Verbose entries (fee, vsize, ancestors) are fetched in one batch for new transactions only.
+ * <p>
+ * When subscribed to zmqpubsequence notifications, mempool additions and removals are applied as they arrive and
+ * {@link #poll()} only falls back to a full getrawmempool after a gap in the mempool sequence or a block change.
+ */
+public class MempoolTracker implements ZMQSubscriber.Listener {
+
+    public static class Delta {
+        public final List<String> added;
+        public final List<String> removed;
+        /**
+         * Entries of added transactions, if fetched, that are still in the mempool
+         */
+        public final Map<String, Bitcoin.MempoolEntry> entries;
+        /**
+         * Mempool sequence the delta brings the tracker to, -1 if not supported by the node
+         */
+        public final long sequence;
+
+        public Delta(List<String> added, List<String> removed, Map<String, Bitcoin.MempoolEntry> entries, long sequence) {
+            this.added = added;
+            this.removed = removed;
+            this.entries = entries;
+            this.sequence = sequence;
+        }
+    }
+
+    public final Bitcoin bitcoin;
+
+    private TxIdSet mempool = new TxIdSet();
+    private long sequence = -1;
+    private boolean sequenceSupported = true;
+
+    // changes received from notifications since the last poll, valid while synced
+    private boolean synced = false;
+    private List<String> pendingAdded = new ArrayList<String>();
+    private List<String> pendingRemoved = new ArrayList<String>();
+
+    public MempoolTracker(Bitcoin bitcoin) {
+        this.bitcoin = bitcoin;
+    }
+
+    private boolean fetchEntries = true;
+
+    public synchronized boolean isFetchEntries() {
+        return fetchEntries;
+    }
+
+    /**
+     * @param fetchEntries whether to fetch mempool entries of added transactions
+     */
+    public synchronized void setFetchEntries(boolean fetchEntries) {
+        this.fetchEntries = fetchEntries;
+    }
+
+    public synchronized int size() {
+        return mempool.size();
+    }
+
+    public synchronized boolean contains(String txId) {
+        return mempool.contains(txId);
+    }
+
+    /**
+     * Brings the tracked set up to date
+     *
+     * @return changes since the previous poll, everything is reported as added on the first poll
+     * @throws BitcoinException 
+     */
+    private static boolean rejectsSequence(BitcoinRPCErrorException error) {
+        if (error == null || error.getErrorMessage() == null)
+            return false;
+        switch (error.getCode()) {
+            case BitcoinRPCErrorException.RPC_MISC_ERROR:
+            case BitcoinRPCErrorException.RPC_TYPE_ERROR:
+            case BitcoinRPCErrorException.RPC_INVALID_PARAMETER:
+                String message = error.getErrorMessage();
+                // nodes before 0.21 answer the extra parameter with the usage text of getrawmempool
+                return message.contains("mempool_sequence") || message.contains("Expected type bool") || message.startsWith("getrawmempool");
+            default:
+                return false;
+        }
+    }
+
+    public Delta poll() throws BitcoinException {
+        List<String> added, removed;
+        long seq;
+        synchronized (this) {
+            if (synced) {
+                added = pendingAdded;
+                removed = pendingRemoved;
+                pendingAdded = new ArrayList<String>();
+                pendingRemoved = new ArrayList<String>();
+                seq = sequence;
+            } else {
+                added = null;
+                removed = null;
+                seq = -1;
+            }
+        }
+        if (added == null) {
+            List<String> txIds = null;
+            if (sequenceSupported)
+                try {
+                    Bitcoin.MempoolSnapshot snapshot = bitcoin.getRawMempoolWithSequence();
+                    txIds = snapshot.txIds();
+                    seq = snapshot.mempoolSequence();
+                } catch (BitcoinException ex) {
+                    // anything but a rejected parameter is retried with the sequence on the next poll
+                    if (!rejectsSequence(BitcoinRPCErrorException.find(ex)))
+                        throw ex;
+                    sequenceSupported = false;
+                }
+            if (txIds == null)
+                txIds = bitcoin.getRawMempool();
+            TxIdSet next = new TxIdSet(txIds.size());
+            added = new ArrayList<String>();
+            synchronized (this) {
+                for (String txId : txIds)
+                    if (next.add(txId) && !mempool.contains(txId))
+                        added.add(txId);
+                removed = mempool.difference(next);
+                mempool = next;
+                sequence = seq;
+                // notifications at or below seq are part of the snapshot
+                synced = seq >= 0;
+                pendingAdded.clear();
+                pendingRemoved.clear();
+            }
+        }
+        Map<String, Bitcoin.MempoolEntry> entries = fetchEntries && !added.isEmpty() ? bitcoin.getMempoolEntries(added) : Collections.<String, Bitcoin.MempoolEntry>emptyMap();
+        return new Delta(added, removed, entries, seq);
+    }
+
+    public synchronized void notification(String topic, byte[] body, long zmqSequence) {
+        if (!"sequence".equals(topic) || body.length < 33)
+            return;
+        char label = (char) body[32];
+        if (label == 'C' || label == 'D') {
+            // block (dis)connections change the mempool without A/R notifications
+            synced = false;
+            return;
+        }
+        if (body.length < 41 || (label != 'A' && label != 'R'))
+            return;
+        long seq = 0;
+        for (int i = 40; i >= 33; i--)
+            seq = (seq << 8) | (body[i] & 0xff);
+        if (!synced || seq <= sequence)
+            return;
+        if (seq != sequence + 1) {
+            synced = false;
+            return;
+        }
+        sequence = seq;
+        byte[] hash = new byte[32];
+        System.arraycopy(body, 0, hash, 0, 32);
+        String txId = BitcoinUtil.bytesToHex(hash);
+        if (label == 'A') {
+            if (mempool.add(txId))
+                pendingAdded.add(txId);
+        } else if (mempool.remove(txId)) {
+            if (!pendingAdded.remove(txId))
+                pendingRemoved.add(txId);
+        }
+    }
+
+    public synchronized void missed(String topic, long expected, long received) {
+        if ("sequence".equals(topic))
+            synced = false;
+    }
+
+}
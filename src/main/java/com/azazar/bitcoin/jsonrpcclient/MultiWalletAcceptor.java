@@ -0,0 +1,257 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts payments for many wallets of one node. Every wallet gets its own {@link BitcoinAcceptor}, but no thread:
+ * checks run on one shared scheduler whose pool size caps the number of concurrent listsinceblock calls.
+ * The acceptors share one {@link RecentHeaderTracker}, so block headers are fetched once, not once per wallet.
+ * <p>
+ * A wallet is checked when a new block arrives, when it is reported changed through {@link #walletChanged(String)}
+ * (e.g. from a -walletnotify hook, which passes the wallet name), and otherwise every pollInterval.
+ * Requests for a wallet that is being checked are coalesced into one follow-up check.
+ */
+public class MultiWalletAcceptor {
+
+    private static final Logger logger = Logger.getLogger(MultiWalletAcceptor.class.getCanonicalName());
+
+    private class Wallet implements Runnable {
+
+        final BitcoinAcceptor acceptor;
+        private boolean queued = false, running = false, again = false;
+        private long lastCheck = 0;
+
+        Wallet(BitcoinAcceptor acceptor) {
+            this.acceptor = acceptor;
+        }
+
+        synchronized void schedule() {
+            if (running) {
+                again = true;
+                return;
+            }
+            if (queued)
+                return;
+            queued = true;
+            try {
+                scheduler.execute(this);
+            } catch (RejectedExecutionException ex) {
+                // not queued after all, the next request tries again
+                queued = false;
+                logger.log(Level.WARNING, "Wallet check rejected", ex);
+            }
+        }
+
+        synchronized boolean due(long now) {
+            return now - lastCheck >= pollInterval;
+        }
+
+        public void run() {
+            synchronized (this) {
+                queued = false;
+                running = true;
+            }
+            for (;;) {
+                try {
+                    acceptor.checkPayments();
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+                synchronized (this) {
+                    lastCheck = System.currentTimeMillis();
+                    if (!again) {
+                        running = false;
+                        return;
+                    }
+                    again = false;
+                }
+            }
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final LinkedHashMap<String, Wallet> wallets = new LinkedHashMap<String, Wallet>();
+    private RecentHeaderTracker headerTracker = null;
+
+    /**
+     * @param scheduler scheduler to run wallet checks on, its pool size limits concurrent checks
+     */
+    public MultiWalletAcceptor(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.ownScheduler = false;
+    }
+
+    /**
+     * @param maxConcurrentChecks maximum number of wallets checked at the same time
+     */
+    public MultiWalletAcceptor(int maxConcurrentChecks) {
+        this.scheduler = Executors.newScheduledThreadPool(maxConcurrentChecks);
+        this.ownScheduler = true;
+    }
+
+    private long pollInterval = 60000;
+
+    /**
+     * Get the value of pollInterval
+     *
+     * @return the longest time a wallet goes without a check
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Set the value of pollInterval
+     *
+     * @param pollInterval the longest time a wallet goes without a check
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Adds a wallet. The returned acceptor is configured as usual (listeners, checkpoint store) but must not
+     * be run on its own.
+     *
+     * @param name wallet name
+     * @param bitcoin client of the wallet endpoint, see {@link BitcoinJSONRPCClient#forWallet(String)}
+     * @return the acceptor of the wallet
+     */
+    public synchronized BitcoinAcceptor addWallet(String name, Bitcoin bitcoin) {
+        BitcoinAcceptor acceptor = new BitcoinAcceptor(bitcoin);
+        if (headerTracker == null)
+            headerTracker = new RecentHeaderTracker(bitcoin, acceptor.getReorgDepth());
+        acceptor.setHeaderTracker(headerTracker);
+        wallets.put(name, new Wallet(acceptor));
+        return acceptor;
+    }
+
+    public synchronized void removeWallet(String name) {
+        wallets.remove(name);
+    }
+
+    public synchronized BitcoinAcceptor getAcceptor(String name) {
+        Wallet w = wallets.get(name);
+        return w == null ? null : w.acceptor;
+    }
+
+    private synchronized List<Wallet> getWallets() {
+        return new ArrayList<Wallet>(wallets.values());
+    }
+
+    /**
+     * Schedules a check of the wallet
+     *
+     * @param name wallet name
+     */
+    public void walletChanged(String name) {
+        Wallet w;
+        synchronized (this) {
+            w = wallets.get(name);
+        }
+        if (w != null)
+            w.schedule();
+    }
+
+    /**
+     * Schedules a check of every wallet
+     */
+    public void blockChanged() {
+        for (Wallet w : getWallets())
+            w.schedule();
+    }
+
+    private ScheduledFuture<?> poller = null;
+    private Thread tipWatcher = null;
+    private volatile boolean stop = false;
+
+    /**
+     * Starts checking wallets
+     *
+     * @param tipSource source of new block notifications shared by all wallets, null to rely on polling only
+     */
+    public synchronized void start(final BlockNotificationSource tipSource) {
+        if (poller != null)
+            throw new IllegalStateException("Already started");
+        stop = false;
+        long tick = Math.max(100, Math.min(pollInterval / 10, 1000));
+        poller = scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                long now = System.currentTimeMillis();
+                for (Wallet w : getWallets())
+                    if (w.due(now))
+                        w.schedule();
+            }
+        }, 0, tick, TimeUnit.MILLISECONDS);
+        if (tipSource != null) {
+            tipWatcher = new Thread("MultiWalletAcceptor tip watcher") {
+
+                @Override
+                public void run() {
+                    while (!(Thread.interrupted() || stop)) {
+                        try {
+                            if (tipSource.waitForBlock(pollInterval) != null)
+                                blockChanged();
+                        } catch (BitcoinException ex) {
+                            logger.log(Level.SEVERE, null, ex);
+                            try {
+                                Thread.sleep(Math.min(pollInterval, 5000));
+                            } catch (InterruptedException ie) {
+                                break;
+                            }
+                        } catch (InterruptedException ex) {
+                            break;
+                        }
+                    }
+                }
+            };
+            tipWatcher.setDaemon(true);
+            tipWatcher.start();
+        }
+    }
+
+    public synchronized void stop() {
+        stop = true;
+        if (poller != null) {
+            poller.cancel(false);
+            poller = null;
+        }
+        if (tipWatcher != null) {
+            tipWatcher.interrupt();
+            tipWatcher = null;
+        }
+        if (ownScheduler)
+            scheduler.shutdown();
+    }
+
+}
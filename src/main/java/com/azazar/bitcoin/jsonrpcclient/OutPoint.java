@@ -0,0 +1,85 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+/**
+ * Transaction output reference with the txid kept as four longs, usable as a hash key at a fraction of the size
+ * of a "txid:vout" String
+ */
+public final class OutPoint implements Bitcoin.TxInput {
+
+    /**
+     * Implemented by objects that already hold their outpoint, so lookups don't parse the txid again
+     */
+    public static interface Holder {
+        public OutPoint outPoint();
+    }
+
+    private final long h0, h1, h2, h3;
+    private final int vout;
+
+    public OutPoint(String txid, int vout) {
+        long[] h = TxIdWords.parse(txid);
+        this.h0 = h[0];
+        this.h1 = h[1];
+        this.h2 = h[2];
+        this.h3 = h[3];
+        this.vout = vout;
+    }
+
+    public static OutPoint of(Bitcoin.TxInput in) {
+        if (in instanceof OutPoint)
+            return (OutPoint) in;
+        if (in instanceof Holder)
+            return ((Holder) in).outPoint();
+        return new OutPoint(in.txid(), in.vout());
+    }
+
+    public String txid() {
+        return TxIdWords.format(new long[] { h0, h1, h2, h3 }, 0);
+    }
+
+    public int vout() {
+        return vout;
+    }
+
+    public boolean sameTxId(OutPoint o) {
+        return h3 == o.h3 && h2 == o.h2 && h1 == o.h1 && h0 == o.h0;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = (h3 + vout) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof OutPoint))
+            return false;
+        OutPoint o = (OutPoint) obj;
+        return vout == o.vout && h3 == o.h3 && h2 == o.h2 && h1 == o.h1 && h0 == o.h0;
+    }
+
+    @Override
+    public String toString() {
+        return txid() + ":" + vout;
+    }
+}
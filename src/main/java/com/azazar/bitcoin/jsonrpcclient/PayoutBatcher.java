@@ -0,0 +1,530 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects withdrawals and pays them in batches, one sendmany (or one raw transaction when a change address is
+ * set) per batch. A batch is sent when it reaches {@link #getMaxOutputs()} distinct addresses or when its oldest
+ * payout has waited {@link #getMaxDelay()} milliseconds. Payouts to the same address are merged into one output.
+ * <p>
+ * With a {@link PayoutStore} the queue survives restarts. Payouts of a batch that was being sent when the
+ * process died are not sent again automatically, see {@link #restore()}.
+ */
+public class PayoutBatcher {
+
+    private static final Logger logger = Logger.getLogger(PayoutBatcher.class.getCanonicalName());
+
+    /**
+     * A queued payout, completed with the txid of the batch that paid it
+     */
+    public class Payout implements Future<String> {
+
+        public final long id;
+        public final String address;
+        public final double amount;
+        private final long queued;
+        // guarded by the batcher
+        private boolean sending = false;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile String txId = null;
+        private volatile Throwable failure = null;
+        private volatile boolean cancelled = false;
+
+        private Payout(long id, String address, double amount) {
+            this.id = id;
+            this.address = address;
+            this.amount = amount;
+            this.queued = System.currentTimeMillis();
+        }
+
+        private void complete(String txId, Throwable failure) {
+            this.txId = txId;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        /**
+         * A payout can only be cancelled while it is still waiting for its batch
+         */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (PayoutBatcher.this) {
+                if (sending || isDone() || !pending.remove(this))
+                    return false;
+                cancelled = true;
+                try {
+                    persist();
+                } catch (BitcoinException ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+            }
+            done.countDown();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        private String report() throws ExecutionException {
+            if (cancelled)
+                throw new CancellationException();
+            if (failure != null)
+                throw new ExecutionException(failure);
+            return txId;
+        }
+
+        public String get() throws InterruptedException, ExecutionException {
+            done.await();
+            return report();
+        }
+
+        public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException();
+            return report();
+        }
+
+        @Override
+        public String toString() {
+            return "Payout{" + "id=" + id + ", address=" + address + ", amount=" + amount + '}';
+        }
+    }
+
+    public final Bitcoin bitcoin;
+    private final ScheduledExecutorService scheduler;
+    private final ArrayList<Payout> pending = new ArrayList<Payout>();
+    private final ArrayList<Payout> sending = new ArrayList<Payout>();
+    private final ArrayList<Payout> uncertain = new ArrayList<Payout>();
+    private final Object flushLock = new Object();
+    private long nextId = 1;
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    /**
+     * @param bitcoin
+     * @param scheduler runs batch flushes, it is not shut down by the batcher
+     */
+    public PayoutBatcher(Bitcoin bitcoin, ScheduledExecutorService scheduler) {
+        this.bitcoin = bitcoin;
+        this.scheduler = scheduler;
+    }
+
+    private int maxOutputs = 500;
+
+    /**
+     * Get the value of maxOutputs
+     *
+     * @return the number of distinct addresses that triggers an immediate flush
+     */
+    public synchronized int getMaxOutputs() {
+        return maxOutputs;
+    }
+
+    /**
+     * Set the value of maxOutputs
+     *
+     * @param maxOutputs the number of distinct addresses that triggers an immediate flush
+     */
+    public synchronized void setMaxOutputs(int maxOutputs) {
+        if (maxOutputs <= 0)
+            throw new IllegalArgumentException("maxOutputs must be positive");
+        this.maxOutputs = maxOutputs;
+    }
+
+    private long maxDelay = 60000;
+
+    /**
+     * Get the value of maxDelay
+     *
+     * @return milliseconds a payout waits for its batch at most
+     */
+    public synchronized long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Set the value of maxDelay
+     *
+     * @param maxDelay milliseconds a payout waits for its batch at most
+     */
+    public synchronized void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    private String fromAccount = "";
+
+    /**
+     * Get the value of fromAccount
+     *
+     * @return the account passed to sendmany
+     */
+    public String getFromAccount() {
+        return fromAccount;
+    }
+
+    /**
+     * Set the value of fromAccount
+     *
+     * @param fromAccount the account passed to sendmany
+     */
+    public void setFromAccount(String fromAccount) {
+        this.fromAccount = fromAccount;
+    }
+
+    private int minConf = 1;
+
+    /**
+     * Get the value of minConf
+     *
+     * @return the value of minConf
+     */
+    public int getMinConf() {
+        return minConf;
+    }
+
+    /**
+     * Set the value of minConf
+     *
+     * @param minConf new value of minConf
+     */
+    public void setMinConf(int minConf) {
+        this.minConf = minConf;
+    }
+
+    private String changeAddress = null;
+
+    /**
+     * Get the value of changeAddress
+     *
+     * @return the value of changeAddress
+     */
+    public String getChangeAddress() {
+        return changeAddress;
+    }
+
+    /**
+     * Set the value of changeAddress. When set, batches are sent as raw transactions built by
+     * {@link #newBuilder()} instead of sendmany.
+     *
+     * @param changeAddress new value of changeAddress
+     */
+    public void setChangeAddress(String changeAddress) {
+        this.changeAddress = changeAddress;
+    }
+
+    private double fee = 0.0001d;
+
+    /**
+     * Get the value of fee
+     *
+     * @return the fee of a raw transaction batch
+     */
+    public double getFee() {
+        return fee;
+    }
+
+    /**
+     * Set the value of fee
+     *
+     * @param fee the fee of a raw transaction batch
+     */
+    public void setFee(double fee) {
+        this.fee = fee;
+    }
+
+    private PayoutStore store = null;
+
+    /**
+     * Get the value of store
+     *
+     * @return the value of store
+     */
+    public synchronized PayoutStore getStore() {
+        return store;
+    }
+
+    /**
+     * Set the value of store
+     *
+     * @param store new value of store
+     */
+    public synchronized void setStore(PayoutStore store) {
+        this.store = store;
+    }
+
+    private void persist() throws BitcoinException {
+        if (store == null)
+            return;
+        List<PayoutStore.Entry> entries = new ArrayList<PayoutStore.Entry>(uncertain.size() + sending.size() + pending.size());
+        for (Payout p : uncertain)
+            entries.add(new PayoutStore.Entry(p.id, p.address, p.amount, true));
+        for (Payout p : sending)
+            entries.add(new PayoutStore.Entry(p.id, p.address, p.amount, true));
+        for (Payout p : pending)
+            entries.add(new PayoutStore.Entry(p.id, p.address, p.amount, false));
+        try {
+            store.save(entries);
+        } catch (IOException ex) {
+            throw new BitcoinException("Unable to save payout queue", ex);
+        }
+    }
+
+    /**
+     * Loads the saved queue. Payouts that were waiting are queued again, payouts whose batch was being sent are
+     * returned instead, as they may or may not have been paid. They stay saved until passed to
+     * {@link #resolve(Payout, boolean)}.
+     * @see #getUncertain()
+     * 
+     * @return payouts with unknown outcome
+     * @throws BitcoinException 
+     */
+    public synchronized List<Payout> restore() throws BitcoinException {
+        if (store == null)
+            return new ArrayList<Payout>();
+        List<PayoutStore.Entry> entries;
+        try {
+            entries = store.load();
+        } catch (IOException ex) {
+            throw new BitcoinException("Unable to load payout queue", ex);
+        }
+        for (PayoutStore.Entry e : entries) {
+            Payout p = new Payout(e.id, e.address, e.amount);
+            nextId = Math.max(nextId, e.id + 1);
+            if (e.sending) {
+                uncertain.add(p);
+                logger.log(Level.WARNING, "Outcome of {0} is unknown", p);
+            } else
+                pending.add(p);
+        }
+        schedule();
+        return new ArrayList<Payout>(uncertain);
+    }
+
+    /**
+     * @param payout a payout returned by {@link #restore()}
+     * @param resend true to queue it again, false if it turned out to be paid
+     * @return the queued payout when resent, null otherwise
+     * @throws BitcoinException 
+     */
+    public synchronized Payout resolve(Payout payout, boolean resend) throws BitcoinException {
+        if (!uncertain.remove(payout))
+            throw new IllegalArgumentException("Not an unresolved payout: " + payout);
+        Payout p = null;
+        if (resend) {
+            p = new Payout(payout.id, payout.address, payout.amount);
+            pending.add(p);
+        }
+        persist();
+        schedule();
+        return p;
+    }
+
+    /**
+     * Queues a payout
+     * @return future completed with the txid of the batch, or failed with the {@link BitcoinException} that
+     * failed the batch
+     * @throws IllegalArgumentException for an invalid amount or an address that is not valid for the node's network,
+     * which would fail every batch it is part of
+     * @throws BitcoinException if the queue couldn't be saved, the payout is not queued then
+     */
+    public Payout submit(String address, double amount) throws BitcoinException {
+        if (amount <= 0d)
+            throw new IllegalArgumentException("Invalid amount: " + amount);
+        BitcoinScript.fromAddress(address, bitcoin.getNetwork());
+        synchronized (this) {
+            Payout p = new Payout(nextId++, address, amount);
+            pending.add(p);
+            try {
+                persist();
+            } catch (BitcoinException ex) {
+                pending.remove(p);
+                throw ex;
+            }
+            schedule();
+            return p;
+        }
+    }
+
+    /**
+     * @return payouts with unknown outcome, after a restart or a failure that may have happened after the batch was sent
+     */
+    public synchronized List<Payout> getUncertain() {
+        return new ArrayList<Payout>(uncertain);
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private int distinctAddresses(int limit) {
+        HashSet<String> addresses = new HashSet<String>();
+        for (Payout p : pending)
+            if (addresses.add(p.address) && addresses.size() >= limit)
+                break;
+        return addresses.size();
+    }
+
+    private void schedule() {
+        if (pending.isEmpty())
+            return;
+        long delay = distinctAddresses(maxOutputs) >= maxOutputs ? 0 : Math.max(0, pending.get(0).queued + maxDelay - System.currentTimeMillis());
+        if (scheduledFlush != null && !scheduledFlush.isDone()) {
+            if (scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= delay)
+                return;
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = scheduler.schedule(new Runnable() {
+
+            public void run() {
+                try {
+                    flush();
+                } catch (BitcoinException ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Override to configure the builder of raw transaction batches, e.g. with a shared UTXO index or reservations
+     */
+    protected BitcoinRawTxBuilder newBuilder() {
+        return new BitcoinRawTxBuilder(bitcoin);
+    }
+
+    private String send(List<Bitcoin.TxOutput> outputs, long total) throws BitcoinException {
+        String change = changeAddress;
+        if (change == null)
+            return bitcoin.sendMany(fromAccount, outputs, minConf);
+        BitcoinRawTxBuilder builder = newBuilder();
+        try {
+            builder.outputs.addAll(outputs);
+            builder.in(BitcoinUtil.normalizeAmount(UtxoIndex.toAmount(total) + fee), minConf);
+            builder.outChange(change, fee);
+            return builder.send();
+        } catch (BitcoinException ex) {
+            builder.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends the oldest pending payouts now, up to {@link #getMaxOutputs()} distinct addresses
+     * @return txid, null if nothing was pending
+     * @throws BitcoinException if the batch failed, its payouts are failed with the same exception. When the node may
+     * have sent the batch anyway ({@link BitcoinRPCException#isOutcomeUnknown()}, or an unchecked exception) they
+     * are also kept as payouts with unknown outcome, see {@link #getUncertain()}. An error returned by the node means
+     * the batch was not sent.
+     */
+    public String flush() throws BitcoinException {
+        synchronized (flushLock) {
+            List<Payout> batch = new ArrayList<Payout>();
+            LinkedHashMap<String, Long> merged = new LinkedHashMap<String, Long>();
+            synchronized (this) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                for (Payout p : pending) {
+                    Long sum = merged.get(p.address);
+                    if (sum == null && merged.size() >= maxOutputs)
+                        continue;
+                    merged.put(p.address, (sum == null ? 0 : sum) + UtxoIndex.toSatoshis(p.amount));
+                    batch.add(p);
+                }
+                if (batch.isEmpty())
+                    return null;
+                pending.removeAll(batch);
+                for (Payout p : batch)
+                    p.sending = true;
+                sending.addAll(batch);
+                // the batch must be marked as sending before anything goes out
+                try {
+                    persist();
+                } catch (BitcoinException ex) {
+                    sending.removeAll(batch);
+                    for (Payout p : batch)
+                        p.sending = false;
+                    pending.addAll(0, batch);
+                    schedule();
+                    throw ex;
+                }
+            }
+            List<Bitcoin.TxOutput> outputs = new ArrayList<Bitcoin.TxOutput>(merged.size());
+            long total = 0;
+            for (Map.Entry<String, Long> e : merged.entrySet()) {
+                outputs.add(new Bitcoin.BasicTxOutput(e.getKey(), UtxoIndex.toAmount(e.getValue())));
+                total += e.getValue();
+            }
+            String txId = null;
+            BitcoinException failure = null;
+            // only a txid or an error answered by the node tell whether the batch went out
+            boolean outcomeUnknown = true;
+            try {
+                txId = send(outputs, total);
+                outcomeUnknown = false;
+            } catch (BitcoinException ex) {
+                failure = ex;
+                outcomeUnknown = ex instanceof BitcoinRPCException && ((BitcoinRPCException) ex).isOutcomeUnknown();
+            } catch (RuntimeException ex) {
+                failure = new BitcoinException("Batch failed", ex);
+            } finally {
+                if (failure == null && outcomeUnknown)
+                    failure = new BitcoinException("Batch failed");
+                synchronized (this) {
+                    sending.removeAll(batch);
+                    if (outcomeUnknown)
+                        uncertain.addAll(batch);
+                    try {
+                        persist();
+                    } catch (BitcoinException ex) {
+                        logger.log(Level.SEVERE, null, ex);
+                    }
+                    schedule();
+                }
+                for (Payout p : batch)
+                    p.complete(txId, failure);
+            }
+            if (failure != null)
+                throw failure;
+            return txId;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Persists payouts queued in a {@link PayoutBatcher}, so that a restart neither loses nor repeats them
+ */
+public interface PayoutStore {
+
+    public static class Entry {
+        public final long id;
+        public final String address;
+        public final double amount;
+        /**
+         * set while the payout is part of a batch being sent, its outcome is unknown after a crash
+         */
+        public final boolean sending;
+
+        public Entry(long id, String address, double amount, boolean sending) {
+            this.id = id;
+            this.address = address;
+            this.amount = amount;
+            this.sending = sending;
+        }
+    }
+
+    /**
+     * @return saved entries, empty if there are none
+     * @throws IOException 
+     */
+    public List<Entry> load() throws IOException;
+
+    public void save(List<Entry> entries) throws IOException;
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most recent main chain headers in memory and detects chain reorganizations when the tip changes.
+ * A tip extending the known one costs one getblockheader call, a reorganization one more getblockhash batch.
+ * <p>
+ * One tracker can be shared by acceptors of the same node: each of them calls {@link #advance(String)} and
+ * {@link #since(String)} with its own tips, so the headers are only fetched once.
+ */
+public class RecentHeaderTracker {
+
+    public static class Reorg {
+        /**
+         * Last block shared by both chains, null if the fork is deeper than the tracked headers
+         */
+        public final String forkPoint;
+        public final int forkHeight;
+        /**
+         * Hashes of the blocks removed from the main chain, newest first
+         */
+        public final List<String> disconnected;
+
+        public Reorg(String forkPoint, int forkHeight, List<String> disconnected) {
+            this.forkPoint = forkPoint;
+            this.forkHeight = forkHeight;
+            this.disconnected = disconnected;
+        }
+    }
+
+    public final Bitcoin bitcoin;
+    public final int depth;
+
+    // oldest first
+    private final ArrayDeque<Bitcoin.BlockHeader> chain = new ArrayDeque<Bitcoin.BlockHeader>();
+    // recently seen headers that are not in the chain above, e.g. disconnected ones
+    private final LinkedHashMap<String, Bitcoin.BlockHeader> known = new LinkedHashMap<String, Bitcoin.BlockHeader>() {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bitcoin.BlockHeader> eldest) {
+            return size() > depth * 2;
+        }
+    };
+
+    public RecentHeaderTracker(Bitcoin bitcoin, int depth) {
+        if (depth <= 0)
+            throw new IllegalArgumentException("depth must be positive");
+        this.bitcoin = bitcoin;
+        this.depth = depth;
+    }
+
+    public synchronized String getTip() {
+        return chain.isEmpty() ? null : chain.peekLast().hash();
+    }
+
+    private Bitcoin.BlockHeader mainHeader(String hash) {
+        for (Iterator<Bitcoin.BlockHeader> i = chain.descendingIterator(); i.hasNext();) {
+            Bitcoin.BlockHeader h = i.next();
+            if (h.hash().equals(hash))
+                return h;
+        }
+        return null;
+    }
+
+    private Bitcoin.BlockHeader header(String hash) throws BitcoinException {
+        Bitcoin.BlockHeader h = mainHeader(hash);
+        if (h == null)
+            h = known.get(hash);
+        if (h == null)
+            known.put(hash, h = bitcoin.getBlockHeader(hash));
+        return h;
+    }
+
+    private void load(int toHeight) throws BitcoinException {
+        chain.clear();
+        chain.addAll(bitcoin.getBlockHeaders(Math.max(0, toHeight - depth + 1), toHeight));
+    }
+
+    /**
+     * Moves the tracker to a new main chain tip
+     *
+     * @param tipHash
+     * @return the reorganization that happened since the previous tip, null if the chain was only extended
+     * @throws BitcoinException 
+     */
+    public synchronized Reorg update(String tipHash) throws BitcoinException {
+        if (chain.isEmpty()) {
+            load(header(tipHash).height());
+            return null;
+        }
+        Bitcoin.BlockHeader tip = chain.peekLast();
+        if (tip.hash().equals(tipHash))
+            return null;
+        Bitcoin.BlockHeader header = header(tipHash);
+        if (tip.hash().equals(header.previousHash())) {
+            chain.add(header);
+            if (chain.size() > depth)
+                chain.poll();
+            return null;
+        }
+
+        int from = chain.peekFirst().height();
+        int to = Math.min(tip.height(), header.height());
+        List<String> mainChain = from <= to ? bitcoin.getBlockHashes(from, to) : Collections.<String>emptyList();
+        List<String> disconnected = new ArrayList<String>();
+        Bitcoin.BlockHeader fork = null;
+        for (Iterator<Bitcoin.BlockHeader> i = chain.descendingIterator(); i.hasNext();) {
+            Bitcoin.BlockHeader h = i.next();
+            int index = h.height() - from;
+            if (index < mainChain.size() && h.hash().equals(mainChain.get(index))) {
+                fork = h;
+                break;
+            }
+            disconnected.add(h.hash());
+            known.put(h.hash(), h);
+        }
+        Reorg r = null;
+        if (!disconnected.isEmpty()) {
+            if (fork != null)
+                r = new Reorg(fork.hash(), fork.height(), disconnected);
+            else
+                r = new Reorg(null, from - 1, disconnected);
+        }
+        load(header.height());
+        return r;
+    }
+
+    /**
+     * Moves a shared tracker to the tip seen by one of its acceptors, unless the tracker is already there or
+     * further
+     *
+     * @param tipHash
+     * @throws BitcoinException 
+     */
+    public synchronized void advance(String tipHash) throws BitcoinException {
+        if (!chain.isEmpty()) {
+            if (mainHeader(tipHash) != null)
+                return;
+            Bitcoin.BlockHeader tip = chain.peekLast();
+            // a lagging acceptor must not move the tracker back, unless the tracked tip has been disconnected
+            if (header(tipHash).height() < tip.height() && bitcoin.getBlockHeader(tip.hash()).confirmations() >= 0)
+                return;
+        }
+        update(tipHash);
+    }
+
+    /**
+     * Reorganization between a previous tip and the tracked main chain, without moving the tracker
+     *
+     * @param previousTip
+     * @return the reorganization, null if previousTip is on the main chain
+     * @throws BitcoinException 
+     */
+    public synchronized Reorg since(String previousTip) throws BitcoinException {
+        if (chain.isEmpty())
+            throw new IllegalStateException("No tip");
+        int from = chain.peekFirst().height(), to = chain.peekLast().height();
+        List<String> disconnected = new ArrayList<String>();
+        for (String hash = previousTip; hash != null;) {
+            Bitcoin.BlockHeader h = mainHeader(hash);
+            if (h == null) {
+                h = header(hash);
+                // outside the tracked heights only the node can tell whether the block is on the main chain
+                boolean outside = h.height() < from || h.height() > to;
+                if (!outside || bitcoin.getBlockHeader(hash).confirmations() < 0) {
+                    disconnected.add(hash);
+                    if (h.height() < from)
+                        return new Reorg(null, from - 1, disconnected);
+                    hash = h.previousHash();
+                    continue;
+                }
+            }
+            return disconnected.isEmpty() ? null : new Reorg(h.hash(), h.height(), disconnected);
+        }
+        return disconnected.isEmpty() ? null : new Reorg(null, -1, disconnected);
+    }
+
+    /**
+     * @param hash main chain block
+     * @param back number of blocks to go back
+     * @return hash of the main chain ancestor, null if it is not among the tracked headers
+     */
+    public synchronized String getAncestor(String hash, int back) {
+        Bitcoin.BlockHeader h = mainHeader(hash);
+        if (h == null || back < 0)
+            return null;
+        for (Bitcoin.BlockHeader a : chain)
+            if (a.height() == h.height() - back)
+                return a.hash();
+        return null;
+    }
+
+}
@@ -0,0 +1,344 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import wang.lcs.bitcoin.account.BitcoinAccount;
+
+/**
+ * Signs P2PKH and P2WPKH inputs with local keys, without the wallet of the node. Signatures use RFC6979 nonces and
+ * low S, so signing the same transaction twice gives the same result.
+ */
+public class TransactionSigner {
+
+    public static final int SIGHASH_ALL = 1;
+
+    /**
+     * Output spent by an input
+     */
+    public static class Prevout {
+
+        public final long value;
+        public final byte[] script;
+
+        /**
+         * @param value value in satoshis, only used for witness inputs
+         * @param script scriptPubKey
+         */
+        public Prevout(long value, byte[] script) {
+            this.value = value;
+            this.script = script;
+        }
+
+        public Prevout(Bitcoin.TxOut out) {
+            this(UtxoIndex.toSatoshis(out.value()), BitcoinUtil.hexToBytes(out.scriptPubKey()));
+        }
+    }
+
+    private final Map<String, BitcoinAccount> keys = new ConcurrentHashMap<String, BitcoinAccount>();
+
+    public TransactionSigner(BitcoinAccount... keys) {
+        for (BitcoinAccount key : keys)
+            addKey(key);
+    }
+
+    public void addKey(BitcoinAccount key) {
+        keys.put(BitcoinUtil.bytesToHex(key.getPublicHash()), key);
+    }
+
+    private BitcoinAccount getKey(byte[] script, int offset) {
+        byte[] hash = new byte[20];
+        System.arraycopy(script, offset, hash, 0, 20);
+        return keys.get(BitcoinUtil.bytesToHex(hash));
+    }
+
+    private ExecutorService executor = null;
+
+    /**
+     * Get the value of executor
+     *
+     * @return the value of executor
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the value of executor. When set, inputs of large transactions are signed on it in batches, it is not
+     * shut down by the signer.
+     *
+     * @param executor new value of executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    private int batchSize = 64;
+
+    /**
+     * Get the value of batchSize
+     *
+     * @return the number of inputs signed per executor task
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the value of batchSize
+     *
+     * @param batchSize the number of inputs signed per executor task
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+
+        @Override
+        protected MessageDigest initialValue() {
+            return BitcoinAccount.newDigest();
+        }
+    };
+
+    private static byte[] hashTwice(byte[] data, int offset, int length) {
+        MessageDigest digest = DIGEST.get();
+        digest.update(data, offset, length);
+        return digest.digest(digest.digest());
+    }
+
+    private static byte[] hashTwice(ByteArrayOutputStream out) {
+        return hashTwice(out.toByteArray(), 0, out.size());
+    }
+
+    private static void writeOutPoint(ByteArrayOutputStream out, BinaryRawTransaction.Input in) {
+        byte[] h = BinaryRawTransaction.hexToHash(in.txid);
+        out.write(h, 0, h.length);
+        BinaryRawTransaction.writeU32(out, in.vout);
+    }
+
+    /**
+     * @return P2PKH script code signed for a P2WPKH program
+     */
+    private static byte[] keyHashScriptCode(byte[] program) {
+        byte[] hash = new byte[20];
+        System.arraycopy(program, 2, hash, 0, 20);
+        return BitcoinScript.payToPubKeyHash(hash);
+    }
+
+    /**
+     * Parts of the signature hash preimages shared by all inputs of a transaction. Legacy hashes stream the
+     * serialized inputs with empty scripts instead of serializing a modified copy per input, witness v0 hashes
+     * reuse hashPrevouts, hashSequence and hashOutputs. Scripts and witnesses of the inputs are not part of
+     * either, so the cache stays valid while inputs are signed. Safe for concurrent use.
+     */
+    public static class SighashCache {
+
+        // outpoint, empty script and sequence
+        private static final int INPUT_SIZE = 41;
+
+        private final BinaryRawTransaction tx;
+        private final byte[] head;
+        private final byte[] inputs;
+        private final byte[] tail;
+        private final byte[] hashPrevouts;
+        private final byte[] hashSequence;
+        private final byte[] hashOutputs;
+
+        public SighashCache(BinaryRawTransaction tx) {
+            this.tx = tx;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(13);
+            BinaryRawTransaction.writeU32(out, tx.version);
+            BinaryRawTransaction.writeVarInt(out, tx.inputs.size());
+            head = out.toByteArray();
+            out = new ByteArrayOutputStream(tx.inputs.size() * INPUT_SIZE);
+            ByteArrayOutputStream prevouts = new ByteArrayOutputStream(tx.inputs.size() * 36);
+            ByteArrayOutputStream sequences = new ByteArrayOutputStream(tx.inputs.size() * 4);
+            for (BinaryRawTransaction.Input in : tx.inputs) {
+                writeOutPoint(out, in);
+                out.write(0);
+                BinaryRawTransaction.writeU32(out, in.sequence);
+                writeOutPoint(prevouts, in);
+                BinaryRawTransaction.writeU32(sequences, in.sequence);
+            }
+            inputs = out.toByteArray();
+            out = new ByteArrayOutputStream(tx.outputs.size() * 34);
+            for (BinaryRawTransaction.Output o : tx.outputs) {
+                BinaryRawTransaction.writeU64(out, o.value);
+                BinaryRawTransaction.writeBytes(out, o.script);
+            }
+            hashOutputs = hashTwice(out);
+            hashPrevouts = hashTwice(prevouts);
+            hashSequence = hashTwice(sequences);
+            ByteArrayOutputStream t = new ByteArrayOutputStream(out.size() + 13);
+            BinaryRawTransaction.writeVarInt(t, tx.outputs.size());
+            t.write(out.toByteArray(), 0, out.size());
+            BinaryRawTransaction.writeU32(t, tx.lockTime);
+            tail = t.toByteArray();
+        }
+
+        /**
+         * @return legacy signature hash of an input
+         */
+        public byte[] legacy(int index, byte[] scriptCode, int hashType) {
+            int at = index * INPUT_SIZE;
+            ByteArrayOutputStream script = new ByteArrayOutputStream(scriptCode.length + 9);
+            BinaryRawTransaction.writeBytes(script, scriptCode);
+            ByteArrayOutputStream type = new ByteArrayOutputStream(4);
+            BinaryRawTransaction.writeU32(type, hashType);
+            MessageDigest digest = DIGEST.get();
+            digest.update(head);
+            digest.update(inputs, 0, at + 36);
+            digest.update(script.toByteArray());
+            digest.update(inputs, at + 37, inputs.length - at - 37);
+            digest.update(tail);
+            digest.update(type.toByteArray());
+            return digest.digest(digest.digest());
+        }
+
+        /**
+         * @return BIP143 signature hash of a witness v0 input
+         */
+        public byte[] witness(int index, byte[] scriptCode, long value, int hashType) {
+            BinaryRawTransaction.Input in = tx.inputs.get(index);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(160 + scriptCode.length);
+            BinaryRawTransaction.writeU32(out, tx.version);
+            out.write(hashPrevouts, 0, 32);
+            out.write(hashSequence, 0, 32);
+            writeOutPoint(out, in);
+            BinaryRawTransaction.writeBytes(out, scriptCode);
+            BinaryRawTransaction.writeU64(out, value);
+            BinaryRawTransaction.writeU32(out, in.sequence);
+            out.write(hashOutputs, 0, 32);
+            BinaryRawTransaction.writeU32(out, tx.lockTime);
+            BinaryRawTransaction.writeU32(out, hashType);
+            return hashTwice(out);
+        }
+    }
+
+    /**
+     * @return legacy signature hash of an input
+     */
+    public static byte[] legacySighash(BinaryRawTransaction tx, int index, byte[] scriptCode, int hashType) {
+        return new SighashCache(tx).legacy(index, scriptCode, hashType);
+    }
+
+    /**
+     * @return BIP143 signature hash of a witness v0 input
+     */
+    public static byte[] witnessSighash(BinaryRawTransaction tx, int index, byte[] scriptCode, long value, int hashType) {
+        return new SighashCache(tx).witness(index, scriptCode, value, hashType);
+    }
+
+    private static byte[] signature(BitcoinAccount key, byte[] sighash) {
+        byte[] der = key.sign(sighash);
+        byte[] sig = new byte[der.length + 1];
+        System.arraycopy(der, 0, sig, 0, der.length);
+        sig[der.length] = SIGHASH_ALL;
+        return sig;
+    }
+
+    private void sign(BinaryRawTransaction tx, List<Prevout> prevouts, SighashCache sighashes, int from, int to) throws BitcoinException {
+        for (int i = from; i < to; i++) {
+            BinaryRawTransaction.Input in = tx.inputs.get(i);
+            byte[] script = prevouts.get(i).script;
+            String type = BitcoinScript.type(script);
+            if ("pubkeyhash".equals(type)) {
+                BitcoinAccount key = getKey(script, 3);
+                if (key == null)
+                    throw new BitcoinException("No key for input " + in.txid + ":" + in.vout);
+                ByteArrayOutputStream scriptSig = new ByteArrayOutputStream(107);
+                BitcoinScript.writePush(scriptSig, signature(key, sighashes.legacy(i, script, SIGHASH_ALL)));
+                BitcoinScript.writePush(scriptSig, key.getPublicKey());
+                in.scriptSig = scriptSig.toByteArray();
+                in.witness = new byte[0][];
+            } else if ("witness_v0_keyhash".equals(type)) {
+                BitcoinAccount key = getKey(script, 2);
+                if (key == null)
+                    throw new BitcoinException("No key for input " + in.txid + ":" + in.vout);
+                byte[] sighash = sighashes.witness(i, keyHashScriptCode(script), prevouts.get(i).value, SIGHASH_ALL);
+                in.scriptSig = new byte[0];
+                in.witness = new byte[][] { signature(key, sighash), key.getPublicKey() };
+            } else
+                throw new BitcoinException("Unsupported script type " + type + " of input " + in.txid + ":" + in.vout);
+        }
+    }
+
+    /**
+     * Signs all inputs in place with SIGHASH_ALL, on the executor if one is set and there is more than one batch
+     * of inputs
+     *
+     * @param tx transaction to sign
+     * @param prevouts outputs spent by the inputs, in the same order
+     * @return tx
+     * @throws BitcoinException if an input has an unsupported script or no key
+     */
+    public BinaryRawTransaction sign(final BinaryRawTransaction tx, final List<Prevout> prevouts) throws BitcoinException {
+        if (prevouts.size() != tx.inputs.size())
+            throw new BitcoinException("Expected " + tx.inputs.size() + " prevouts, got " + prevouts.size());
+        final SighashCache sighashes = new SighashCache(tx);
+        int n = tx.inputs.size();
+        ExecutorService pool = executor;
+        int batch = batchSize;
+        if (pool == null || n <= batch) {
+            sign(tx, prevouts, sighashes, 0, n);
+            return tx;
+        }
+        List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+        try {
+            for (int from = 0; from < n; from += batch) {
+                final int f = from;
+                final int t = Math.min(n, from + batch);
+                tasks.add(pool.submit(new Callable<Void>() {
+
+                    public Void call() throws Exception {
+                        sign(tx, prevouts, sighashes, f, t);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> task : tasks)
+                task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BitcoinException("Signing interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof BitcoinException)
+                throw (BitcoinException) ex.getCause();
+            throw new BitcoinException(ex.getCause());
+        } finally {
+            for (Future<Void> task : tasks)
+                task.cancel(true);
+        }
+        return tx;
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Set of 256 bit hashes (txids) kept in one long array with open addressing, about 40 bytes per entry instead of
+ * a few hundred for a HashSet of hex Strings
+ */
+public class TxIdSet {
+
+    private long[] keys;
+    private int mask;
+    private int size = 0;
+
+    public TxIdSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 < expectedSize * 4)
+            capacity <<= 1;
+        keys = new long[capacity * 4];
+        mask = capacity - 1;
+    }
+
+    public TxIdSet() {
+        this(16);
+    }
+
+    private static long[] toKey(String txId) {
+        return TxIdWords.parse(txId);
+    }
+
+    private static String toTxId(long[] keys, int slot) {
+        return TxIdWords.format(keys, slot * 4);
+    }
+
+    private int home(long[] k) {
+        long h = k[3] * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private boolean empty(int slot) {
+        int o = slot * 4;
+        return keys[o] == 0 && keys[o + 1] == 0 && keys[o + 2] == 0 && keys[o + 3] == 0;
+    }
+
+    private boolean matches(int slot, long[] k) {
+        int o = slot * 4;
+        return keys[o] == k[0] && keys[o + 1] == k[1] && keys[o + 2] == k[2] && keys[o + 3] == k[3];
+    }
+
+    private int find(long[] k) {
+        for (int i = home(k);; i = (i + 1) & mask) {
+            if (empty(i))
+                return -1;
+            if (matches(i, k))
+                return i;
+        }
+    }
+
+    public boolean contains(String txId) {
+        return find(toKey(txId)) >= 0;
+    }
+
+    public boolean add(String txId) {
+        long[] k = toKey(txId);
+        if ((k[0] | k[1] | k[2] | k[3]) == 0)
+            throw new IllegalArgumentException("Zero txid");
+        if (find(k) >= 0)
+            return false;
+        if ((size + 1) * 4 > (mask + 1) * 3)
+            grow();
+        insert(k);
+        size++;
+        return true;
+    }
+
+    private void insert(long[] k) {
+        int i = home(k);
+        while (!empty(i))
+            i = (i + 1) & mask;
+        System.arraycopy(k, 0, keys, i * 4, 4);
+    }
+
+    private void grow() {
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        mask = (keys.length / 4) - 1;
+        long[] k = new long[4];
+        for (int o = 0; o < old.length; o += 4) {
+            if ((old[o] | old[o + 1] | old[o + 2] | old[o + 3]) == 0)
+                continue;
+            System.arraycopy(old, o, k, 0, 4);
+            insert(k);
+        }
+    }
+
+    public boolean remove(String txId) {
+        int i = find(toKey(txId));
+        if (i < 0)
+            return false;
+        // backward shift deletion keeps probe chains intact without tombstones
+        long[] k = new long[4];
+        for (int j = (i + 1) & mask; !empty(j); j = (j + 1) & mask) {
+            System.arraycopy(keys, j * 4, k, 0, 4);
+            int h = home(k);
+            if ((j > i && (h <= i || h > j)) || (j < i && (h <= i && h > j))) {
+                System.arraycopy(keys, j * 4, keys, i * 4, 4);
+                i = j;
+            }
+        }
+        keys[i * 4] = keys[i * 4 + 1] = keys[i * 4 + 2] = keys[i * 4 + 3] = 0;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    /**
+     * @param other
+     * @return txids in this set that are not in other
+     */
+    public List<String> difference(TxIdSet other) {
+        List<String> r = new ArrayList<String>();
+        long[] k = new long[4];
+        for (int slot = 0; slot <= mask; slot++) {
+            if (empty(slot))
+                continue;
+            System.arraycopy(keys, slot * 4, k, 0, 4);
+            if (other.find(k) < 0)
+                r.add(toTxId(keys, slot));
+        }
+        return r;
+    }
+
+    public List<String> toList() {
+        return difference(new TxIdSet());
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+/**
+ * Conversion of 256 bit hex txids to four longs, the compact binary key of {@link ConfirmationTracker},
+ * {@link TxIdSet} and {@link OutPoint}
+ */
+final class TxIdWords {
+
+    private TxIdWords() {
+    }
+
+    private static long word(byte[] h, int o) {
+        long r = 0;
+        for (int i = 0; i < 8; i++)
+            r = (r << 8) | (h[o + i] & 0xff);
+        return r;
+    }
+
+    /**
+     * @throws IllegalArgumentException if txId is not 32 bytes of hex
+     */
+    static long[] parse(String txId) {
+        byte[] h = BitcoinUtil.hexToBytes(txId);
+        if (h.length != 32)
+            throw new IllegalArgumentException("Invalid txid: " + txId);
+        return new long[] { word(h, 0), word(h, 8), word(h, 16), word(h, 24) };
+    }
+
+    /**
+     * @return hex txid of words[offset..offset + 3]
+     */
+    static String format(long[] words, int offset) {
+        byte[] h = new byte[32];
+        for (int w = 0; w < 4; w++) {
+            long v = words[offset + w];
+            for (int i = 7; i >= 0; i--) {
+                h[w * 8 + i] = (byte) v;
+                v >>>= 8;
+            }
+        }
+        return BitcoinUtil.bytesToHex(h);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least-recently-used cache of output values by outpoint. An outpoint always refers to the same value,
+ * so entries never go stale and one cache can be shared by all builders.
+ */
+public class TxOutValueCache {
+
+    private static final TxOutValueCache shared = new TxOutValueCache(100000);
+
+    /**
+     * @return process wide cache used by {@link BitcoinRawTxBuilder} by default
+     */
+    public static TxOutValueCache getShared() {
+        return shared;
+    }
+
+    private final LinkedHashMap<OutPoint, Long> values;
+
+    public TxOutValueCache(final int capacity) {
+        this.values = new LinkedHashMap<OutPoint, Long>(Math.min(capacity, 1024), 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<OutPoint, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return value of the output, null if it is not cached
+     */
+    public synchronized Double get(Bitcoin.TxInput output) {
+        Long v = values.get(OutPoint.of(output));
+        return v == null ? null : UtxoIndex.toAmount(v);
+    }
+
+    public synchronized void put(Bitcoin.TxInput output, double value) {
+        values.put(OutPoint.of(output), UtxoIndex.toSatoshis(value));
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    public synchronized void clear() {
+        values.clear();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Unspent outputs sorted by amount, amounts kept as satoshis in a primitive array so coin selection can binary
+ * search and walk them without touching the coin objects.
+ */
+public class UtxoIndex {
+
+    // accessed directly by CoinSelector while holding the index monitor
+    long[] amounts;
+    Bitcoin.Unspent[] coins;
+    int size = 0;
+    private long total = 0;
+
+    public UtxoIndex(int expectedSize) {
+        amounts = new long[Math.max(16, expectedSize)];
+        coins = new Bitcoin.Unspent[amounts.length];
+    }
+
+    public UtxoIndex() {
+        this(16);
+    }
+
+    public UtxoIndex(List<Bitcoin.Unspent> unspent) {
+        this(unspent.size());
+        final long[] keys = new long[unspent.size()];
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = toSatoshis(unspent.get(i).amount());
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            public int compare(Integer o1, Integer o2) {
+                long a = keys[o1], b = keys[o2];
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length; i++) {
+            amounts[i] = keys[order[i]];
+            coins[i] = unspent.get(order[i]);
+            total += amounts[i];
+        }
+        size = keys.length;
+    }
+
+    public static long toSatoshis(double amount) {
+        return Math.round(amount * 1e8d);
+    }
+
+    public static double toAmount(long satoshis) {
+        return BitcoinUtil.normalizeAmount(satoshis / 1e8d);
+    }
+
+    /**
+     * @return index of the first coin with amount not less than satoshis
+     */
+    synchronized int lowerBound(long satoshis) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (amounts[mid] < satoshis)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public synchronized void add(Bitcoin.Unspent u) {
+        long a = toSatoshis(u.amount());
+        if (size == amounts.length) {
+            amounts = Arrays.copyOf(amounts, size * 2);
+            coins = Arrays.copyOf(coins, size * 2);
+        }
+        int i = lowerBound(a + 1);
+        System.arraycopy(amounts, i, amounts, i + 1, size - i);
+        System.arraycopy(coins, i, coins, i + 1, size - i);
+        amounts[i] = a;
+        coins[i] = u;
+        size++;
+        total += a;
+    }
+
+    /**
+     * @return removed coin, or null if there is no such coin with this amount
+     */
+    public synchronized Bitcoin.Unspent remove(Bitcoin.TxInput in, double amount) {
+        long a = toSatoshis(amount);
+        for (int i = lowerBound(a); i < size && amounts[i] == a; i++) {
+            if (coins[i].vout() == in.vout() && coins[i].txid().equals(in.txid())) {
+                Bitcoin.Unspent u = coins[i];
+                System.arraycopy(amounts, i + 1, amounts, i, size - i - 1);
+                System.arraycopy(coins, i + 1, coins, i, size - i - 1);
+                coins[--size] = null;
+                total -= a;
+                return u;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(coins, 0, size, null);
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * @return coins in ascending amount order
+     */
+    public synchronized List<Bitcoin.Unspent> toList() {
+        return new ArrayList<Bitcoin.Unspent>(Arrays.asList(coins).subList(0, size));
+    }
+}
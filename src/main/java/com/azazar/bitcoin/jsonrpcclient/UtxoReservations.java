@@ -0,0 +1,228 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of outputs claimed by transaction builders, so parallel builders never pick the same coin.
+ * Claims are leases that expire after {@link #getLeaseTime()} unless renewed, and all state changes are single
+ * compare-and-set operations on a {@link ConcurrentHashMap}, so claiming never blocks another thread.
+ * Reservations can optionally be mirrored to the node with lockunspent, which keeps the wallet's own
+ * sendtoaddress/fundrawtransaction away from them too.
+ */
+public class UtxoReservations {
+
+    private static final Logger logger = Logger.getLogger(UtxoReservations.class.getCanonicalName());
+
+    private static final class Lease {
+        final Object owner;
+        final long expires;
+
+        Lease(Object owner, long expires) {
+            this.owner = owner;
+            this.expires = expires;
+        }
+    }
+
+    private final ConcurrentHashMap<OutPoint, Lease> leases;
+    private final Bitcoin bitcoin;
+
+    /**
+     * @param bitcoin node to mirror reservations to with lockunspent, null to keep them local
+     * @param concurrencyLevel expected number of concurrently claiming threads
+     */
+    public UtxoReservations(Bitcoin bitcoin, int concurrencyLevel) {
+        this.bitcoin = bitcoin;
+        this.leases = new ConcurrentHashMap<OutPoint, Lease>(64, 0.75f, concurrencyLevel);
+    }
+
+    public UtxoReservations() {
+        this(null, 16);
+    }
+
+    private volatile long leaseTime = 120000;
+
+    /**
+     * Get the value of leaseTime
+     *
+     * @return milliseconds a claim stays valid unless renewed
+     */
+    public long getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * Set the value of leaseTime
+     *
+     * @param leaseTime milliseconds a claim stays valid unless renewed
+     */
+    public void setLeaseTime(long leaseTime) {
+        this.leaseTime = leaseTime;
+    }
+
+    private void mirror(boolean unlock, List<? extends Bitcoin.TxInput> outputs) {
+        if (bitcoin == null || outputs.isEmpty())
+            return;
+        try {
+            bitcoin.lockUnspent(unlock, outputs);
+        } catch (BitcoinException ex) {
+            // the local registry stays authoritative
+            logger.log(Level.WARNING, unlock ? "lockunspent unlock failed" : "lockunspent lock failed", ex);
+        }
+    }
+
+    /**
+     * @param replaced receives the lease the new one replaced, null if there was none
+     */
+    private Lease tryClaim(OutPoint o, Object owner, long now, Lease[] replaced) {
+        Lease lease = new Lease(owner, now + leaseTime);
+        while (true) {
+            Lease current = leases.putIfAbsent(o, lease);
+            if (current == null) {
+                replaced[0] = null;
+                return lease;
+            }
+            if (current.owner == owner || current.expires <= now) {
+                if (leases.replace(o, current, lease)) {
+                    replaced[0] = current;
+                    return lease;
+                }
+            } else
+                return null;
+        }
+    }
+
+    /**
+     * @return true if the output was free or its lease has expired, or it is already claimed by owner
+     */
+    public boolean claim(Bitcoin.TxInput output, Object owner) {
+        OutPoint o = OutPoint.of(output);
+        if (tryClaim(o, owner, System.currentTimeMillis(), new Lease[1]) == null)
+            return false;
+        List<OutPoint> l = new ArrayList<OutPoint>(1);
+        l.add(o);
+        mirror(false, l);
+        return true;
+    }
+
+    /**
+     * Claims all outputs or none of them
+     * @return false if any output is claimed by another owner
+     */
+    public boolean claimAll(Collection<? extends Bitcoin.TxInput> outputs, Object owner) {
+        long now = System.currentTimeMillis();
+        List<OutPoint> claimed = new ArrayList<OutPoint>(outputs.size());
+        List<Lease> claimedLeases = new ArrayList<Lease>(outputs.size());
+        List<Lease> replacedLeases = new ArrayList<Lease>(outputs.size());
+        Lease[] replaced = new Lease[1];
+        for (Bitcoin.TxInput output : outputs) {
+            OutPoint o = OutPoint.of(output);
+            Lease lease = tryClaim(o, owner, now, replaced);
+            if (lease == null) {
+                // newest first, so an output listed twice ends up as it was before the call
+                for (int i = claimed.size() - 1; i >= 0; i--)
+                    if (replacedLeases.get(i) == null)
+                        leases.remove(claimed.get(i), claimedLeases.get(i));
+                    else
+                        leases.replace(claimed.get(i), claimedLeases.get(i), replacedLeases.get(i));
+                return false;
+            }
+            claimed.add(o);
+            claimedLeases.add(lease);
+            replacedLeases.add(replaced[0]);
+        }
+        mirror(false, claimed);
+        return true;
+    }
+
+    /**
+     * Extends the lease of an output claimed by owner
+     * @return false if owner doesn't hold the output any more
+     */
+    public boolean renew(Bitcoin.TxInput output, Object owner) {
+        OutPoint o = OutPoint.of(output);
+        Lease current = leases.get(o);
+        if (current == null || current.owner != owner)
+            return false;
+        return leases.replace(o, current, new Lease(owner, System.currentTimeMillis() + leaseTime));
+    }
+
+    /**
+     * @return false if owner doesn't hold the output
+     */
+    public boolean release(Bitcoin.TxInput output, Object owner) {
+        OutPoint o = OutPoint.of(output);
+        Lease current = leases.get(o);
+        if (current == null || current.owner != owner || !leases.remove(o, current))
+            return false;
+        List<OutPoint> l = new ArrayList<OutPoint>(1);
+        l.add(o);
+        mirror(true, l);
+        return true;
+    }
+
+    /**
+     * Releases every output held by owner
+     * @return number of released outputs
+     */
+    public int releaseAll(Object owner) {
+        List<OutPoint> released = new ArrayList<OutPoint>();
+        for (Map.Entry<OutPoint, Lease> e : leases.entrySet())
+            if (e.getValue().owner == owner && leases.remove(e.getKey(), e.getValue()))
+                released.add(e.getKey());
+        mirror(true, released);
+        return released.size();
+    }
+
+    public boolean isReserved(Bitcoin.TxInput output) {
+        if (leases.isEmpty())
+            return false;
+        Lease current = leases.get(OutPoint.of(output));
+        return current != null && current.expires > System.currentTimeMillis();
+    }
+
+    /**
+     * Drops expired leases, unlocking them on the node when mirroring
+     * @return number of dropped leases
+     */
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        List<OutPoint> expired = new ArrayList<OutPoint>();
+        for (Iterator<Map.Entry<OutPoint, Lease>> it = leases.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<OutPoint, Lease> e = it.next();
+            if (e.getValue().expires <= now && leases.remove(e.getKey(), e.getValue()))
+                expired.add(e.getKey());
+        }
+        mirror(true, expired);
+        return expired.size();
+    }
+
+    public int size() {
+        return leases.size();
+    }
+}
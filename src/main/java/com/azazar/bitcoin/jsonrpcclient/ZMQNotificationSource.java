@@ -0,0 +1,70 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+/**
+ * Wakes a {@link BitcoinAcceptor} on bitcoind push notifications. Any notification, or a lost one, triggers a
+ * payment check, so zero-conf payments are seen right away and missed notifications are resynced by the
+ * acceptor's listsinceblock query.
+ * <pre>
+ * ZMQSubscriber subscriber = new ZMQSubscriber("localhost", 28332, "hashblock", "hashtx");
+ * ZMQNotificationSource source = new ZMQNotificationSource();
+ * subscriber.addListener(source);
+ * acceptor.setBlockNotificationSource(source);
+ * </pre>
+ */
+public class ZMQNotificationSource implements BlockNotificationSource, ZMQSubscriber.Listener {
+
+    private String block = null;
+    private boolean pending = false;
+
+    public synchronized void notification(String topic, byte[] body, long sequence) {
+        if (("hashblock".equals(topic) && body.length == 32) || ("sequence".equals(topic) && body.length >= 33 && body[32] == 'C')) {
+            byte[] hash = new byte[32];
+            System.arraycopy(body, 0, hash, 0, 32);
+            block = BitcoinUtil.bytesToHex(hash);
+        }
+        pending = true;
+        notifyAll();
+    }
+
+    public synchronized void missed(String topic, long expected, long received) {
+        pending = true;
+        notifyAll();
+    }
+
+    /**
+     * Also returns early, with null, on transaction notifications
+     */
+    public synchronized String waitForBlock(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!pending) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0)
+                return null;
+            wait(left);
+        }
+        String r = block;
+        block = null;
+        pending = false;
+        return r;
+    }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Bitcoin-JSON-RPC-Client License
+ * 
+ * Copyright (c) 2013, Mikhail Yevchenko.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the 
+ * Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+ * ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+ * THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Minimal ZMTP 3.0 SUB socket for bitcoind -zmqpub* notifications (hashblock, hashtx, rawblock, rawtx, sequence).
+ * Only the NULL security mechanism and a single publisher per subscriber are supported.
+ * <p>
+ * Messages are delivered with the sequence number bitcoind appends to them. Gaps in a topic's sequence, and
+ * reconnects, are reported through {@link Listener#missed(String, long, long)} so that state can be resynced over RPC.
+ */
+public class ZMQSubscriber implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(ZMQSubscriber.class.getCanonicalName());
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int FLAG_MORE = 1;
+    private static final int FLAG_LONG = 2;
+    private static final int FLAG_COMMAND = 4;
+
+    public static interface Listener {
+
+        /**
+         * @param topic notification topic, e.g. "hashblock"
+         * @param body notification payload, hashes are in the same byte order as their hex representation
+         * @param sequence per topic sequence number of the publisher
+         */
+        public void notification(String topic, byte[] body, long sequence);
+
+        /**
+         * Called when notifications of the topic were lost
+         * 
+         * @param topic
+         * @param expected expected sequence number, -1 if the connection was re-established
+         * @param received received sequence number, -1 if the connection was re-established
+         */
+        public void missed(String topic, long expected, long received);
+
+    }
+
+    public final String host;
+    public final int port;
+    private final String[] topics;
+    private final LinkedHashSet<Listener> listeners = new LinkedHashSet<Listener>();
+    private final Map<String, Long> sequences = new HashMap<String, Long>();
+
+    private Socket socket;
+    private volatile boolean stop = false;
+
+    /**
+     * @param host
+     * @param port
+     * @param topics topics to subscribe to, e.g. "hashblock", "rawtx" or "sequence"
+     */
+    public ZMQSubscriber(String host, int port, String... topics) {
+        this.host = host;
+        this.port = port;
+        this.topics = topics;
+    }
+
+    public synchronized Listener[] getListeners() {
+        return listeners.toArray(new Listener[0]);
+    }
+
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private int connectTimeout = 10000;
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    private long reconnectInterval = 5000;
+
+    public long getReconnectInterval() {
+        return reconnectInterval;
+    }
+
+    public void setReconnectInterval(long reconnectInterval) {
+        this.reconnectInterval = reconnectInterval;
+    }
+
+    private int maxMessageSize = 64 << 20;
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    private static byte[] greeting() {
+        byte[] g = new byte[64];
+        g[0] = (byte) 0xFF;
+        g[9] = 0x7F;
+        g[10] = 3;
+        g[11] = 0;
+        byte[] mechanism = "NULL".getBytes(ASCII);
+        System.arraycopy(mechanism, 0, g, 12, mechanism.length);
+        return g;
+    }
+
+    private static byte[] readyCommand() {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        byte[] name = "READY".getBytes(ASCII);
+        byte[] property = "Socket-Type".getBytes(ASCII);
+        byte[] type = "SUB".getBytes(ASCII);
+        b.write(name.length);
+        b.write(name, 0, name.length);
+        b.write(property.length);
+        b.write(property, 0, property.length);
+        b.write(0);
+        b.write(0);
+        b.write(0);
+        b.write(type.length);
+        b.write(type, 0, type.length);
+        return b.toByteArray();
+    }
+
+    private static void writeFrame(OutputStream out, int flags, byte[] body) throws IOException {
+        if (body.length > 255) {
+            out.write(flags | FLAG_LONG);
+            for (int i = 7; i >= 0; i--)
+                out.write((int) ((long) body.length >>> (i * 8)));
+        } else {
+            out.write(flags);
+            out.write(body.length);
+        }
+        out.write(body);
+    }
+
+    private int lastFlags;
+
+    private byte[] readFrame(DataInputStream in) throws IOException {
+        lastFlags = in.readUnsignedByte();
+        long size = (lastFlags & FLAG_LONG) != 0 ? in.readLong() : in.readUnsignedByte();
+        if (size < 0 || size > maxMessageSize)
+            throw new IOException("Frame too large: " + size);
+        byte[] body = new byte[(int) size];
+        in.readFully(body);
+        return body;
+    }
+
+    private DataInputStream connect() throws IOException {
+        Socket s = new Socket();
+        s.connect(new InetSocketAddress(host, port), connectTimeout);
+        s.setTcpNoDelay(true);
+        synchronized (this) {
+            socket = s;
+        }
+        if (stop)
+            throw new IOException("Subscriber stopped");
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        OutputStream out = new BufferedOutputStream(s.getOutputStream());
+
+        out.write(greeting());
+        out.flush();
+        byte[] peer = new byte[64];
+        in.readFully(peer);
+        if (peer[0] != (byte) 0xFF || peer[9] != 0x7F)
+            throw new IOException("Not a ZMTP peer");
+        if (peer[10] < 3)
+            throw new IOException("Unsupported ZMTP version " + peer[10]);
+        if (!"NULL".equals(new String(peer, 12, 4, ASCII)) || peer[16] != 0)
+            throw new IOException("Unsupported ZMTP security mechanism");
+
+        writeFrame(out, FLAG_COMMAND, readyCommand());
+        out.flush();
+        byte[] ready = readFrame(in);
+        if ((lastFlags & FLAG_COMMAND) == 0 || ready.length < 6 || !"READY".equals(new String(ready, 1, ready[0], ASCII)))
+            throw new IOException("Expected READY command");
+
+        for (String topic : topics) {
+            byte[] t = topic.getBytes(ASCII);
+            byte[] subscription = new byte[t.length + 1];
+            subscription[0] = 1;
+            System.arraycopy(t, 0, subscription, 1, t.length);
+            writeFrame(out, 0, subscription);
+        }
+        out.flush();
+        return in;
+    }
+
+    private List<byte[]> readMessage(DataInputStream in) throws IOException {
+        List<byte[]> parts = new ArrayList<byte[]>(3);
+        do {
+            byte[] frame = readFrame(in);
+            if ((lastFlags & FLAG_COMMAND) != 0)
+                continue;
+            parts.add(frame);
+        } while ((lastFlags & (FLAG_MORE | FLAG_COMMAND)) != 0);
+        return parts;
+    }
+
+    private void dispatch(List<byte[]> parts) {
+        if (parts.size() < 2)
+            return;
+        String topic = new String(parts.get(0), ASCII);
+        byte[] body = parts.get(1);
+        long sequence = -1;
+        if (parts.size() >= 3 && parts.get(2).length == 4) {
+            byte[] s = parts.get(2);
+            sequence = (s[0] & 0xffL) | (s[1] & 0xffL) << 8 | (s[2] & 0xffL) << 16 | (s[3] & 0xffL) << 24;
+            Long last = sequences.put(topic, sequence);
+            if (last != null && sequence != ((last + 1) & 0xffffffffL))
+                for (Listener listener : getListeners())
+                    try {
+                        listener.missed(topic, (last + 1) & 0xffffffffL, sequence);
+                    } catch (Exception ex) {
+                        logger.log(Level.SEVERE, null, ex);
+                    }
+        }
+        for (Listener listener : getListeners())
+            try {
+                listener.notification(topic, body, sequence);
+            } catch (Exception ex) {
+                logger.log(Level.SEVERE, null, ex);
+            }
+    }
+
+    private void reconnected() {
+        sequences.clear();
+        for (String topic : topics)
+            for (Listener listener : getListeners())
+                try {
+                    listener.missed(topic, -1, -1);
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+    }
+
+    @Override
+    public void run() {
+        stop = false;
+        boolean connectedBefore = false;
+        while (!(Thread.interrupted() || stop)) {
+            try {
+                DataInputStream in = connect();
+                if (connectedBefore)
+                    reconnected();
+                connectedBefore = true;
+                while (!stop)
+                    dispatch(readMessage(in));
+            } catch (IOException ex) {
+                if (stop)
+                    break;
+                logger.log(Level.WARNING, "ZMQ subscription to " + host + ":" + port + " failed", ex);
+            } finally {
+                closeSocket();
+            }
+            try {
+                Thread.sleep(reconnectInterval);
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+    }
+
+    private synchronized void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                logger.log(Level.FINE, null, ex);
+            }
+            socket = null;
+        }
+    }
+
+    public void stopSubscribing() {
+        stop = true;
+        closeSocket();
+    }
+
+}
@@ -0,0 +1,116 @@
+package wang.lcs.bitcoin.account;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+
+/**
+ * Segwit address encoding as specified in BIP173 (bech32) and BIP350 (bech32m).
+ */
+public class Bech32 {
+	private static final String CHARSET = "qpzry9x8gf2tvdw0s3jn54khce6mua7l";
+	private static final int BECH32_CONST = 1;
+	private static final int BECH32M_CONST = 0x2bc830a3;
+
+	private static int polymod(byte[] values) {
+		int chk = 1;
+		for (byte v : values) {
+			int top = chk >>> 25;
+			chk = ((chk & 0x1ffffff) << 5) ^ (v & 0xff);
+			if ((top & 1) != 0)
+				chk ^= 0x3b6a57b2;
+			if ((top & 2) != 0)
+				chk ^= 0x26508e6d;
+			if ((top & 4) != 0)
+				chk ^= 0x1ea119fa;
+			if ((top & 8) != 0)
+				chk ^= 0x3d4233dd;
+			if ((top & 16) != 0)
+				chk ^= 0x2a1462b3;
+		}
+		return chk;
+	}
+
+	private static byte[] expandHrp(String hrp, byte[] data) {
+		int n = hrp.length();
+		byte[] r = new byte[n * 2 + 1 + data.length];
+		for (int i = 0; i < n; i++) {
+			r[i] = (byte) (hrp.charAt(i) >> 5);
+			r[n + 1 + i] = (byte) (hrp.charAt(i) & 31);
+		}
+		System.arraycopy(data, 0, r, n * 2 + 1, data.length);
+		return r;
+	}
+
+	private static byte[] convertBits(byte[] data, int offset, int length, int from, int to, boolean pad) {
+		int acc = 0, bits = 0, maxv = (1 << to) - 1;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = offset; i < offset + length; i++) {
+			int value = data[i] & 0xff;
+			if ((value >>> from) != 0)
+				throw new IllegalArgumentException("Invalid data range");
+			acc = (acc << from) | value;
+			bits += from;
+			while (bits >= to) {
+				bits -= to;
+				out.write((acc >>> bits) & maxv);
+			}
+		}
+		if (pad) {
+			if (bits > 0)
+				out.write((acc << (to - bits)) & maxv);
+		} else if (bits >= from || ((acc << (to - bits)) & maxv) != 0) {
+			throw new IllegalArgumentException("Invalid padding");
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a segwit address.
+	 * 
+	 * @return witness version followed by the witness program
+	 */
+	public static byte[] decodeSegwitAddress(String hrp, String address) throws IllegalArgumentException {
+		String lower = address.toLowerCase(Locale.ROOT);
+		if (!lower.equals(address) && !address.toUpperCase(Locale.ROOT).equals(address))
+			throw new IllegalArgumentException("Mixed case address");
+		int sep = lower.lastIndexOf('1');
+		if (sep < 1 || sep + 7 > lower.length() || lower.length() > 90)
+			throw new IllegalArgumentException("Invalid bech32 address");
+		if (!lower.substring(0, sep).equals(hrp))
+			throw new IllegalArgumentException("Unexpected human readable part");
+		byte[] data = new byte[lower.length() - sep - 1];
+		for (int i = 0; i < data.length; i++) {
+			int v = CHARSET.indexOf(lower.charAt(sep + 1 + i));
+			if (v < 0)
+				throw new IllegalArgumentException("Illegal character " + lower.charAt(sep + 1 + i));
+			data[i] = (byte) v;
+		}
+		int version = data[0];
+		int check = polymod(expandHrp(hrp, data));
+		if (check != (version == 0 ? BECH32_CONST : BECH32M_CONST))
+			throw new IllegalArgumentException("Checksum does not validate");
+		byte[] program = convertBits(data, 1, data.length - 7, 5, 8, false);
+		if (version > 16 || program.length < 2 || program.length > 40 || (version == 0 && program.length != 20 && program.length != 32))
+			throw new IllegalArgumentException("Invalid witness program");
+		byte[] r = new byte[program.length + 1];
+		r[0] = (byte) version;
+		System.arraycopy(program, 0, r, 1, program.length);
+		return r;
+	}
+
+	public static String encodeSegwitAddress(String hrp, int version, byte[] program) {
+		byte[] conv = convertBits(program, 0, program.length, 8, 5, true);
+		byte[] data = new byte[conv.length + 1];
+		data[0] = (byte) version;
+		System.arraycopy(conv, 0, data, 1, conv.length);
+		byte[] values = expandHrp(hrp, new byte[data.length + 6]);
+		System.arraycopy(data, 0, values, hrp.length() * 2 + 1, data.length);
+		int mod = polymod(values) ^ (version == 0 ? BECH32_CONST : BECH32M_CONST);
+		StringBuilder b = new StringBuilder(hrp).append('1');
+		for (byte d : data)
+			b.append(CHARSET.charAt(d));
+		for (int i = 0; i < 6; i++)
+			b.append(CHARSET.charAt((mod >>> (5 * (5 - i))) & 31));
+		return b.toString();
+	}
+}
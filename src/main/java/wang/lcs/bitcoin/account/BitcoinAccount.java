@@ -1,5 +1,6 @@
 package wang.lcs.bitcoin.account;
 
+import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -12,6 +13,18 @@ public class BitcoinAccount {
 	private final byte[] privateKey;
 	private byte[] publicKey;
 
+	/**
+	 * Import a private key in wallet import format.
+	 */
+	public static BitcoinAccount fromPrivateKeyBase58(String wif, BitcoinAccountConfig config) throws IllegalArgumentException, NoSuchAlgorithmException {
+		byte[] decoded = Base58.decodeChecked(wif);
+		if (decoded[0] != config.getDumpedPrivateKeyHeader() || decoded.length != 34 || decoded[33] != 1)
+			throw new IllegalArgumentException("Not a compressed private key");
+		byte[] privateKey = new byte[32];
+		System.arraycopy(decoded, 1, privateKey, 0, 32);
+		return new BitcoinAccount(privateKey, config);
+	}
+
 	public static BitcoinAccount createBitcoinAccount(BitcoinAccountConfig config) {
 		return new BitcoinAccount(config);
 	}
@@ -47,6 +60,25 @@ public class BitcoinAccount {
 		return publicKey;
 	}
 
+	/**
+	 * Sign a 32 byte hash deterministically.
+	 * 
+	 * @return DER encoded low S signature
+	 */
+	public byte[] sign(byte[] hash) {
+		BigInteger[] sig = Secp256k1.signDeterministic(hash, privateKey);
+		return Secp256k1.toDER(sig[0], sig[1]);
+	}
+
+	/**
+	 * Sign a 32 byte hash deterministically.
+	 * 
+	 * @return 65 byte compact signature the public key can be recovered from
+	 */
+	public byte[] signCompact(byte[] hash) {
+		return Secp256k1.signCompact(hash, privateKey);
+	}
+
 	public byte[] getPublicHash() {
 		return sha256hash160(this.getPublicKey());
 	}
@@ -2,25 +2,35 @@ package wang.lcs.bitcoin.account;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.security.Security;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.asn1.x9.X9IntegerConverter;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.params.ECDomainParameters;
-import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
-import org.bouncycastle.crypto.params.ParametersWithRandom;
-import org.bouncycastle.crypto.signers.ECDSASigner;
-import org.bouncycastle.jce.ECNamedCurveTable;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.crypto.signers.DSAKCalculator;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.crypto.signers.RandomDSAKCalculator;
 import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECMultiplier;
 import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
 
 public class Secp256k1 {
 	private static final Logger logger = Logger.getLogger(Secp256k1.class.getCanonicalName());
 
+	/**
+	 * Curve with the GLV endomorphism and specialized field arithmetic. G caches its
+	 * fixed-base comb table after the first multiplication.
+	 */
+	private static final X9ECParameters CURVE = CustomNamedCurves.getByName("secp256k1");
+	private static final ECDomainParameters DOMAIN = new ECDomainParameters(CURVE.getCurve(), CURVE.getG(), CURVE.getN(), CURVE.getH());
+	private static final BigInteger HALF_N = CURVE.getN().shiftRight(1);
+	private static final ECMultiplier BASE_MULTIPLIER = new FixedPointCombMultiplier();
+
 	private static final String RANDOM_NUMBER_ALGORITHM = "SHA1PRNG";
 	private static final String RANDOM_NUMBER_ALGORITHM_PROVIDER = "SUN";
 
@@ -57,40 +67,64 @@ public class Secp256k1 {
 	 */
 	public static byte[] getPublicKey(byte[] privateKey) {
 		try {
-			ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp256k1");
-			ECPoint pointQ = spec.getG().multiply(new BigInteger(1, privateKey));
-			return pointQ.getEncoded(true);
+			ECPoint pointQ = BASE_MULTIPLIER.multiply(DOMAIN.getG(), new BigInteger(1, privateKey));
+			return pointQ.normalize().getEncoded(true);
 		} catch (Exception e) {
 			logger.log(Level.WARNING, e.getMessage(), e);
 			return new byte[0];
 		}
 	}
 
+	/**
+	 * Sign with the nonces of kCalculator. The recovery ID is taken from the nonce
+	 * point: bit 0 is the parity of its y coordinate, bit 1 is set if its x
+	 * coordinate overflowed the group order.
+	 * 
+	 * @return r, s and the recovery ID
+	 */
+	private static BigInteger[] sign(byte[] data, byte[] privateKey, DSAKCalculator kCalculator, boolean lowS) {
+		BigInteger n = DOMAIN.getN();
+		BigInteger d = new BigInteger(1, privateKey);
+		BigInteger e = new BigInteger(1, data);
+		if (data.length * 8 > n.bitLength()) {
+			e = e.shiftRight(data.length * 8 - n.bitLength());
+		}
+		if (kCalculator.isDeterministic()) {
+			kCalculator.init(n, d, data);
+		} else {
+			kCalculator.init(n, new SecureRandom());
+		}
+		while (true) {
+			BigInteger k = kCalculator.nextK();
+			ECPoint pointR = BASE_MULTIPLIER.multiply(DOMAIN.getG(), k).normalize();
+			BigInteger x = pointR.getAffineXCoord().toBigInteger();
+			BigInteger r = x.mod(n);
+			if (r.signum() == 0) {
+				continue;
+			}
+			BigInteger s = k.modInverse(n).multiply(e.add(d.multiply(r))).mod(n);
+			if (s.signum() == 0) {
+				continue;
+			}
+			int recoveryId = (pointR.getAffineYCoord().testBitZero() ? 1 : 0) | (x.compareTo(n) >= 0 ? 2 : 0);
+			if (lowS && s.compareTo(HALF_N) > 0) {
+				// negating s signs with -k, whose point has the other y
+				s = n.subtract(s);
+				recoveryId ^= 1;
+			}
+			return new BigInteger[] { r, s, BigInteger.valueOf(recoveryId) };
+		}
+	}
+
 	/**
 	 * Sign data using the ECDSA algorithm.
+	 * 
+	 * @return r, s and the recovery ID
 	 */
 	public static byte[][] signTransaction(byte[] data, byte[] privateKey) {
 		try {
-			Security.addProvider(new BouncyCastleProvider());
-			ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp256k1");
-
-			ECDSASigner ecdsaSigner = new ECDSASigner();
-			ECDomainParameters domain = new ECDomainParameters(spec.getCurve(), spec.getG(), spec.getN());
-			ECPrivateKeyParameters privateKeyParms = new ECPrivateKeyParameters(new BigInteger(1, privateKey), domain);
-			ParametersWithRandom params = new ParametersWithRandom(privateKeyParms);
-
-			ecdsaSigner.init(true, params);
-
-			BigInteger[] sig = ecdsaSigner.generateSignature(data);
-			LinkedList<byte[]> sigData = new LinkedList<byte[]>();
-			byte[] publicKey = getPublicKey(privateKey);
-			byte recoveryId = getRecoveryId(sig[0].toByteArray(), sig[1].toByteArray(), data, publicKey);
-			for (BigInteger sigChunk : sig) {
-				sigData.add(sigChunk.toByteArray());
-			}
-			sigData.add(new byte[] { recoveryId });
-			return sigData.toArray(new byte[][] {});
-
+			BigInteger[] sig = sign(data, privateKey, new RandomDSAKCalculator(), false);
+			return new byte[][] { sig[0].toByteArray(), sig[1].toByteArray(), new byte[] { sig[2].byteValue() } };
 		} catch (Exception e) {
 			logger.log(Level.WARNING, e.getMessage(), e);
 			return new byte[0][0];
@@ -98,50 +132,122 @@ public class Secp256k1 {
 	}
 
 	/**
-	 * Determine the recovery ID for the given signature and public key.
+	 * Sign a 32 byte hash with an RFC6979 deterministic nonce. The signature is
+	 * normalized to low S, as required for standard transactions.
+	 * 
+	 * @return r and s
+	 */
+	public static BigInteger[] signDeterministic(byte[] hash, byte[] privateKey) {
+		BigInteger[] sig = sign(hash, privateKey, new HMacDSAKCalculator(new SHA256Digest()), true);
+		return new BigInteger[] { sig[0], sig[1] };
+	}
+
+	/**
+	 * Sign a 32 byte hash like {@link #signDeterministic(byte[], byte[])} into the
+	 * 65 byte compact format of signmessage: a header of 27 + recovery ID, plus 4
+	 * for compressed public keys, followed by r and s.
+	 */
+	public static byte[] signCompact(byte[] hash, byte[] privateKey) {
+		BigInteger[] sig = sign(hash, privateKey, new HMacDSAKCalculator(new SHA256Digest()), true);
+		byte[] compact = new byte[65];
+		compact[0] = (byte) (27 + 4 + sig[2].intValue());
+		toBytes32(sig[0], compact, 1);
+		toBytes32(sig[1], compact, 33);
+		return compact;
+	}
+
+	/**
+	 * Recover the public key from a compact signature.
+	 * 
+	 * @return the public key, compressed if the header says so, empty if the
+	 *         signature is invalid
+	 */
+	public static byte[] recoverCompact(byte[] signature, byte[] hash) {
+		if (signature == null || signature.length != 65) {
+			return new byte[0];
+		}
+		int header = (signature[0] & 0xFF) - 27;
+		if (header < 0 || header > 7) {
+			return new byte[0];
+		}
+		ECPoint pointQ = recoverPoint(new BigInteger(1, Arrays.copyOfRange(signature, 1, 33)), new BigInteger(1, Arrays.copyOfRange(signature, 33, 65)), header & 3, hash);
+		return pointQ == null ? new byte[0] : pointQ.getEncoded(header >= 4);
+	}
+
+	private static void toBytes32(BigInteger value, byte[] out, int offset) {
+		byte[] b = value.toByteArray();
+		int length = Math.min(b.length, 32);
+		System.arraycopy(b, b.length - length, out, offset + 32 - length, length);
+	}
+
+	/**
+	 * DER encode a signature.
+	 */
+	public static byte[] toDER(BigInteger r, BigInteger s) {
+		byte[] rb = r.toByteArray();
+		byte[] sb = s.toByteArray();
+		byte[] der = new byte[6 + rb.length + sb.length];
+		der[0] = 0x30;
+		der[1] = (byte) (4 + rb.length + sb.length);
+		der[2] = 0x02;
+		der[3] = (byte) rb.length;
+		System.arraycopy(rb, 0, der, 4, rb.length);
+		der[4 + rb.length] = 0x02;
+		der[5 + rb.length] = (byte) sb.length;
+		System.arraycopy(sb, 0, der, 6 + rb.length, sb.length);
+		return der;
+	}
+
+	/**
+	 * @return the public key point for a recovery ID, null if there is none
+	 */
+	private static ECPoint recoverPoint(BigInteger r, BigInteger s, int recoveryId, byte[] message) {
+		BigInteger pointN = DOMAIN.getN();
+		if (r.signum() <= 0 || r.compareTo(pointN) >= 0 || s.signum() <= 0 || s.compareTo(pointN) >= 0) {
+			return null;
+		}
+		BigInteger pointX = (recoveryId & 2) == 0 ? r : r.add(pointN);
+		if (pointX.compareTo(DOMAIN.getCurve().getField().getCharacteristic()) >= 0) {
+			return null;
+		}
+
+		X9IntegerConverter x9 = new X9IntegerConverter();
+		byte[] compEnc = x9.integerToBytes(pointX, 1 + x9.getByteLength(DOMAIN.getCurve()));
+		compEnc[0] = (byte) ((recoveryId & 1) == 1 ? 0x03 : 0x02);
+		ECPoint pointR;
+		try {
+			pointR = DOMAIN.getCurve().decodePoint(compEnc);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		BigInteger pointE = new BigInteger(1, message);
+		BigInteger pointEInv = BigInteger.ZERO.subtract(pointE).mod(pointN);
+		BigInteger pointRInv = r.modInverse(pointN);
+		BigInteger srInv = pointRInv.multiply(s).mod(pointN);
+		BigInteger pointEInvRInv = pointRInv.multiply(pointEInv).mod(pointN);
+		return ECAlgorithms.sumOfTwoMultiplies(DOMAIN.getG(), pointEInvRInv, pointR, srInv).normalize();
+	}
+
+	/**
+	 * Determine the recovery ID for the given signature and public key by trial
+	 * recovery. Signatures made here already carry it, this is for signatures made
+	 * elsewhere.
 	 * 
 	 * <p>
-	 * Any signed message can resolve to one of two public keys due to the nature
-	 * ECDSA. The recovery ID provides information about which one it is, allowing
-	 * confirmation that the message was signed by a specific key.
+	 * Any signed message can resolve to one of several public keys due to the
+	 * nature ECDSA. The recovery ID provides information about which one it is,
+	 * allowing confirmation that the message was signed by a specific key.
 	 * </p>
+	 * 
+	 * @param publicKey compressed or uncompressed public key
 	 */
 	public static byte getRecoveryId(byte[] sigR, byte[] sigS, byte[] message, byte[] publicKey) {
-		ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp256k1");
-		BigInteger pointN = spec.getN();
-		for (int recoveryId = 0; recoveryId < 2; recoveryId++) {
-			try {
-				BigInteger pointX = new BigInteger(1, sigR);
-
-				X9IntegerConverter x9 = new X9IntegerConverter();
-				byte[] compEnc = x9.integerToBytes(pointX, 1 + x9.getByteLength(spec.getCurve()));
-				compEnc[0] = (byte) ((recoveryId & 1) == 1 ? 0x03 : 0x02);
-				ECPoint pointR = spec.getCurve().decodePoint(compEnc);
-				if (!pointR.multiply(pointN).isInfinity()) {
-					continue;
-				}
-
-				BigInteger pointE = new BigInteger(1, message);
-				BigInteger pointEInv = BigInteger.ZERO.subtract(pointE).mod(pointN);
-				BigInteger pointRInv = new BigInteger(1, sigR).modInverse(pointN);
-				BigInteger srInv = pointRInv.multiply(new BigInteger(1, sigS)).mod(pointN);
-				BigInteger pointEInvRInv = pointRInv.multiply(pointEInv).mod(pointN);
-				ECPoint pointQ = ECAlgorithms.sumOfTwoMultiplies(spec.getG(), pointEInvRInv, pointR, srInv);
-				byte[] pointQBytes = pointQ.getEncoded(false);
-				boolean matchedKeys = true;
-				for (int j = 0; j < publicKey.length; j++) {
-					if (pointQBytes[j] != publicKey[j]) {
-						matchedKeys = false;
-						break;
-					}
-				}
-				if (!matchedKeys) {
-					continue;
-				}
-				return (byte) (0xFF & recoveryId);
-			} catch (Exception e) {
-				logger.log(Level.WARNING, e.getMessage(), e);
-				continue;
+		boolean compressed = publicKey.length == 33;
+		for (int recoveryId = 0; recoveryId < 4; recoveryId++) {
+			ECPoint pointQ = recoverPoint(new BigInteger(1, sigR), new BigInteger(1, sigS), recoveryId, message);
+			if (pointQ != null && Arrays.equals(pointQ.getEncoded(compressed), publicKey)) {
+				return (byte) recoveryId;
 			}
 		}
 
@@ -151,30 +257,15 @@ public class Secp256k1 {
 	/**
 	 * Recover the public key that corresponds to the private key, which signed this
 	 * message.
+	 * 
+	 * @return uncompressed public key, empty if the signature is invalid
 	 */
 	public static byte[] recoverPublicKey(byte[] sigR, byte[] sigS, byte[] sigV, byte[] message) {
-		ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp256k1");
-		BigInteger pointN = spec.getN();
-
 		try {
-			BigInteger pointX = new BigInteger(1, sigR);
-
-			X9IntegerConverter x9 = new X9IntegerConverter();
-			byte[] compEnc = x9.integerToBytes(pointX, 1 + x9.getByteLength(spec.getCurve()));
-			compEnc[0] = (byte) ((sigV[0] & 1) == 1 ? 0x03 : 0x02);
-			ECPoint pointR = spec.getCurve().decodePoint(compEnc);
-			if (!pointR.multiply(pointN).isInfinity()) {
-				return new byte[0];
+			ECPoint pointQ = recoverPoint(new BigInteger(1, sigR), new BigInteger(1, sigS), sigV[0] & 3, message);
+			if (pointQ != null) {
+				return pointQ.getEncoded(false);
 			}
-
-			BigInteger pointE = new BigInteger(1, message);
-			BigInteger pointEInv = BigInteger.ZERO.subtract(pointE).mod(pointN);
-			BigInteger pointRInv = new BigInteger(1, sigR).modInverse(pointN);
-			BigInteger srInv = pointRInv.multiply(new BigInteger(1, sigS)).mod(pointN);
-			BigInteger pointEInvRInv = pointRInv.multiply(pointEInv).mod(pointN);
-			ECPoint pointQ = ECAlgorithms.sumOfTwoMultiplies(spec.getG(), pointEInvRInv, pointR, srInv);
-			byte[] pointQBytes = pointQ.getEncoded(false);
-			return pointQBytes;
 		} catch (Exception e) {
 			logger.log(Level.WARNING, e.getMessage(), e);
 		}
@@ -182,4 +273,4 @@ public class Secp256k1 {
 		return new byte[0];
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package com.azazar.bitcoin.jsonrpcclient;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AddressWatchListTest {
+
+	// hash160 of the compressed generator point, the BIP173 example program
+	private static final String HASH = "751e76e8199196d454941c45d1b3a323f1433bd6";
+
+	@Test
+	public void testAddresses() throws Exception {
+		AddressWatchList watchList = new AddressWatchList();
+		assertTrue(watchList.addAddress("1BgGZ9tcN4rm9KBzDn7KprQz87SZ26SAMH"));
+		assertFalse(watchList.addAddress("bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4"));
+		assertEquals(1, watchList.size());
+		assertTrue(watchList.contains(BitcoinUtil.hexToBytes(HASH)));
+		assertTrue(watchList.containsAddress("BC1QW508D6QEJXTDG4Y5R3ZARVARY0C5XW7KV8F3T4"));
+		assertFalse(watchList.containsAddress(null));
+		assertFalse(watchList.containsAddress("1BgGZ9tcN4rm9KBzDn7KprQz87SZ26SAMh"));
+		assertFalse(watchList.containsAddress("bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqzk5jj0"));
+		// same hash160 with the testnet version byte
+		assertFalse(watchList.containsAddress("mrCDrCybB6J1vRfbwM5hemdJz73FwDBC8r"));
+		try {
+			watchList.addAddress("mrCDrCybB6J1vRfbwM5hemdJz73FwDBC8r");
+			fail();
+		} catch (BitcoinException ex) {
+		}
+
+		AddressWatchList testnet = new AddressWatchList(16, BitcoinNetwork.TEST);
+		assertTrue(testnet.addAddress("mrCDrCybB6J1vRfbwM5hemdJz73FwDBC8r"));
+		assertTrue(testnet.containsAddress("tb1qw508d6qejxtdg4y5r3zarvary0c5xw7kxpjzsx"));
+		assertFalse(testnet.containsAddress("1BgGZ9tcN4rm9KBzDn7KprQz87SZ26SAMH"));
+	}
+
+	@Test
+	public void testScripts() throws Exception {
+		byte[] hash = BitcoinUtil.hexToBytes(HASH);
+		assertEquals(HASH, BitcoinUtil.bytesToHex(AddressWatchList.scriptHash160("76a914" + HASH + "88ac")));
+		assertEquals(HASH, BitcoinUtil.bytesToHex(AddressWatchList.scriptHash160("a914" + HASH + "87")));
+		assertEquals(HASH, BitcoinUtil.bytesToHex(AddressWatchList.scriptHash160("0014" + HASH)));
+		assertNull(AddressWatchList.scriptHash160("0020" + HASH + "000000000000000000000000"));
+
+		AddressWatchList watchList = new AddressWatchList();
+		watchList.add(hash);
+		BinaryRawTransaction tx = new BinaryRawTransaction();
+		tx.addInput(String.format("%064x", 1), 0);
+		tx.addOutput(1000, BitcoinUtil.hexToBytes("0014" + HASH.replace('7', '8')));
+		tx.addOutput(2000, BitcoinUtil.hexToBytes("0014" + HASH));
+		List<AddressWatchList.Hit> hits = watchList.match(tx);
+		assertEquals(1, hits.size());
+		assertEquals(1, hits.get(0).vout);
+		assertEquals(0.00002, hits.get(0).value, 1e-12);
+	}
+
+	@Test
+	public void testNoFalsePositives() {
+		Random random = new Random(1);
+		AddressWatchList watchList = new AddressWatchList(16, "bc");
+		byte[][] added = new byte[20000][20];
+		for (byte[] h : added) {
+			random.nextBytes(h);
+			watchList.add(h);
+		}
+		assertEquals(added.length, watchList.size());
+		// doubled on every growth, not more
+		assertEquals(32768, watchList.capacity());
+		for (byte[] h : added)
+			assertTrue(watchList.contains(h));
+		byte[] other = new byte[20];
+		for (int i = 0; i < 20000; i++) {
+			random.nextBytes(other);
+			assertFalse(watchList.contains(other));
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.azazar.bitcoin.jsonrpcclient;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BinaryRawTransactionTest {
+
+	// genesis block coinbase
+	private static final String LEGACY = "01000000010000000000000000000000000000000000000000000000000000000000000000ffffffff4d04ffff001d0104455468652054696d65732030332f4a616e2f32303039204368616e63656c6c6f72206f6e206272696e6b206f66207365636f6e64206261696c6f757420666f722062616e6b73ffffffff0100f2052a01000000434104678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac00000000";
+
+	// BIP143 native P2WPKH example, signed
+	private static final String SEGWIT = "01000000000102fff7f7881a8099afa6940d42d1e7f6362bec38171ea3edf433541db4e4ad969f00000000494830450221008b9d1dc26ba6a9cb62127b02742fa9d754cd3bebf337f7a55d114c8e5cdd30be022040529b194ba3f9281a99f2b1c0a19c0489bc22ede944ccf4ecbab4cc618ef3ed01eeffffffef51e1b804cc89d182d279655c3aa89e815b1b309fe287d9b2b55d57b90ec68a0100000000ffffffff02202cb206000000001976a9148280b37df378db99f66f85c95a783a76ac7a6d5988ac9093510d000000001976a9143bde42dbee7e4dbe6a21b2d50ce2f0167faa815988ac000247304402203609e17b84f6a7d30c80bfa610b5b4542f32a8a0d5447a12fb1366d7f01cc44a0220573a954c4518331561406f90300e8f3358f51928d43c212a8caed02de67eebee0121025476c2e83188368da1ff3e292e7acafcdb3566bb0ad253f62fc70f07aeee635711000000";
+
+	// address, network, output script
+	private static final Object[][] ADDRESSES = {
+		{ "1BgGZ9tcN4rm9KBzDn7KprQz87SZ26SAMH", BitcoinNetwork.MAIN, "76a914751e76e8199196d454941c45d1b3a323f1433bd688ac" },
+		{ "3J98t1WpEZ73CNmQviecrnyiWrnqRhWNLy", BitcoinNetwork.MAIN, "a914b472a266d0bd89c13706a4132ccfb16f7c3b9fcb87" },
+		{ "mipcBbFg9gMiCh81Kj8tqqdgoZub1ZJRfn", BitcoinNetwork.TEST, "76a914243f1394f44554f4ce3fd68649c19adc483ce92488ac" },
+		{ "bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4", BitcoinNetwork.MAIN, "0014751e76e8199196d454941c45d1b3a323f1433bd6" },
+		{ "tb1qrp33g0q5c5txsp9arysrx4k6zdkfs4nce4xj0gdcccefvpysxf3q0sl5k7", BitcoinNetwork.TEST, "00201863143c14c5166804bd19203356da136c985678cd4d27a1b8c6329604903262" },
+		{ "bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqzk5jj0", BitcoinNetwork.MAIN, "512079be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798" },
+	};
+
+	@Test
+	public void testLegacy() {
+		BinaryRawTransaction tx = BinaryRawTransaction.parse(LEGACY);
+		assertEquals(LEGACY, tx.hex());
+		assertFalse(tx.hasWitness());
+		assertEquals("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b", tx.txId());
+		assertEquals(tx.txId(), tx.wtxId());
+		assertEquals(816, tx.getWeight());
+		assertNull(tx.vIn().get(0).txid());
+		Bitcoin.RawTransaction.Out.ScriptPubKey spk = tx.vOut().get(0).scriptPubKey();
+		assertEquals(50.0, tx.vOut().get(0).value(), 0);
+		assertEquals("pubkey", spk.type());
+		assertEquals("04678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5f OP_CHECKSIG", spk.asm());
+		assertEquals(Collections.<String>emptyList(), spk.addresses());
+	}
+
+	@Test
+	public void testSegwit() {
+		BinaryRawTransaction tx = BinaryRawTransaction.parse(SEGWIT);
+		assertEquals(SEGWIT, tx.hex());
+		assertTrue(tx.hasWitness());
+		assertEquals("e8151a2af31c368a35053ddd4bdb285a8595c769a3ad83e0fa02314a602d4609", tx.txId());
+		assertEquals("c36c38370907df2324d9ce9d149d191192f338b37665a82e78e76a12c909b762", tx.wtxId());
+		assertEquals(1042, tx.getWeight());
+		assertEquals(261, tx.getVirtualSize());
+		assertEquals(17, tx.lockTime());
+		assertEquals("9f96ade4b41d5433f4eda31e1738ec2b36f6e7d1420d94a6af99801a88f7f7ff", tx.vIn().get(0).txid());
+		assertEquals(0xffffffeeL, tx.vIn().get(0).sequence());
+		assertEquals(1, tx.vIn().get(1).vout());
+		assertEquals(2, tx.inputs.get(1).witness.length);
+		Bitcoin.RawTransaction.Out.ScriptPubKey spk = tx.vOut().get(0).scriptPubKey();
+		assertEquals(1.1234, tx.vOut().get(0).value(), 0);
+		assertEquals("pubkeyhash", spk.type());
+		assertEquals("OP_DUP OP_HASH160 8280b37df378db99f66f85c95a783a76ac7a6d59 OP_EQUALVERIFY OP_CHECKSIG", spk.asm());
+		assertEquals(Arrays.asList("1Cu32FVupVCgHkMMRJdYJugxwo2Aprgk7H"), spk.addresses());
+		assertEquals(Arrays.asList("16TZ8J6Q5iZKBWizWzFAYnrsaox5Z5aBRV"), tx.vOut().get(1).scriptPubKey().addresses());
+		// without witnesses the transaction serializes to its txid preimage
+		assertEquals(tx.txId(), BinaryRawTransaction.parse(BitcoinUtil.bytesToHex(tx.serialize(false))).wtxId());
+	}
+
+	@Test
+	public void testAddresses() {
+		for (Object[] v : ADDRESSES) {
+			String address = (String) v[0];
+			BitcoinNetwork network = (BitcoinNetwork) v[1];
+			byte[] script = BitcoinScript.fromAddress(address, network);
+			assertEquals(address, v[2], BitcoinUtil.bytesToHex(script));
+			assertArrayEquals(address, script, BitcoinScript.fromAddress(address));
+			assertEquals(address, BitcoinScript.toAddress(script, network));
+		}
+		byte[] regtest = BitcoinScript.fromAddress("bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4");
+		String address = BitcoinScript.toAddress(regtest, BitcoinNetwork.REGTEST);
+		assertTrue(address.startsWith("bcrt1q"));
+		assertArrayEquals(regtest, BitcoinScript.fromAddress(address, BitcoinNetwork.REGTEST));
+		assertArrayEquals(regtest, BitcoinScript.fromAddress(address.toUpperCase(), BitcoinNetwork.REGTEST));
+	}
+
+	@Test
+	public void testWrongNetwork() {
+		for (Object[] v : ADDRESSES)
+			for (BitcoinNetwork network : new BitcoinNetwork[] { BitcoinNetwork.MAIN, BitcoinNetwork.REGTEST }) {
+				// regtest shares base58 versions with testnet
+				if (v[0].equals(BitcoinScript.toAddress(BitcoinUtil.hexToBytes((String) v[2]), network)))
+					continue;
+				try {
+					BitcoinScript.fromAddress((String) v[0], network);
+					fail(v[0] + " accepted for " + network);
+				} catch (IllegalArgumentException ex) {
+				}
+			}
+		try {
+			new BinaryRawTransaction().addOutput("mipcBbFg9gMiCh81Kj8tqqdgoZub1ZJRfn", 1);
+			fail();
+		} catch (IllegalArgumentException ex) {
+		}
+	}
+
+	@Test
+	public void testCreate() throws Exception {
+		AbstractBitcoinClient client = new AbstractBitcoinClient() {
+			@Override
+			public Object query(String method, Object... o) throws BitcoinException {
+				throw new BitcoinException("Unexpected call: " + method);
+			}
+		};
+		client.setNetwork(BitcoinNetwork.TEST);
+		List<Bitcoin.TxInput> inputs = Arrays.<Bitcoin.TxInput>asList(new Bitcoin.BasicTxInput("9f96ade4b41d5433f4eda31e1738ec2b36f6e7d1420d94a6af99801a88f7f7ff", 0));
+		String hex = client.createRawTransaction(inputs, Arrays.<Bitcoin.TxOutput>asList(
+				new Bitcoin.BasicTxOutput("mipcBbFg9gMiCh81Kj8tqqdgoZub1ZJRfn", 0.5),
+				new Bitcoin.BasicTxOutput("tb1qrp33g0q5c5txsp9arysrx4k6zdkfs4nce4xj0gdcccefvpysxf3q0sl5k7", 0.25),
+				new Bitcoin.BasicTxOutput("mipcBbFg9gMiCh81Kj8tqqdgoZub1ZJRfn", 0.25)));
+		BinaryRawTransaction tx = BinaryRawTransaction.parse(hex, client, BitcoinNetwork.TEST);
+		assertEquals(2, tx.vOut().size());
+		assertEquals(0.75, tx.vOut().get(0).value(), 0);
+		assertEquals(Arrays.asList("mipcBbFg9gMiCh81Kj8tqqdgoZub1ZJRfn"), tx.vOut().get(0).scriptPubKey().addresses());
+		assertEquals("witness_v0_scripthash", tx.vOut().get(1).scriptPubKey().type());
+		try {
+			client.createRawTransaction(inputs, Arrays.<Bitcoin.TxOutput>asList(new Bitcoin.BasicTxOutput("1BgGZ9tcN4rm9KBzDn7KprQz87SZ26SAMH", 1)));
+			fail();
+		} catch (BitcoinException ex) {
+		}
+	}
+}
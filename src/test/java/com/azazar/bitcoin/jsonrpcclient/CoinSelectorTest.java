@@ -0,0 +1,164 @@
+package com.azazar.bitcoin.jsonrpcclient;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CoinSelectorTest {
+
+	private static class Coin implements Bitcoin.Unspent {
+
+		final int n;
+		final long satoshis;
+		final int confirmations;
+
+		Coin(int n, long satoshis, int confirmations) {
+			this.n = n;
+			this.satoshis = satoshis;
+			this.confirmations = confirmations;
+		}
+
+		public String txid() {
+			return String.format("%064x", n);
+		}
+
+		public int vout() {
+			return 0;
+		}
+
+		public String address() {
+			return null;
+		}
+
+		public String account() {
+			return null;
+		}
+
+		public String scriptPubKey() {
+			return null;
+		}
+
+		public double amount() {
+			return UtxoIndex.toAmount(satoshis);
+		}
+
+		public int confirmations() {
+			return confirmations;
+		}
+	}
+
+	private static final CoinSelector.CoinFilter CONFIRMED = new CoinSelector.CoinFilter() {
+
+		public boolean accept(Bitcoin.Unspent coin) {
+			return coin.confirmations() > 0;
+		}
+	};
+
+	// satoshis, confirmations
+	private static CoinSelector selector(long[][] coins) {
+		List<Bitcoin.Unspent> unspent = new ArrayList<Bitcoin.Unspent>();
+		for (int i = 0; i < coins.length; i++)
+			unspent.add(new Coin(i, coins[i][0], (int) coins[i][1]));
+		return new CoinSelector(new UtxoIndex(unspent));
+	}
+
+	private static final long[][] COINS = { { 20000, 6 }, { 1000, 6 }, { 7000, 0 }, { 3000, 6 }, { 5000, 6 }, { 2000, 6 } };
+
+	private static long sum(CoinSelector.Selection s) {
+		long total = 0;
+		for (Bitcoin.Unspent coin : s.coins)
+			total += ((Coin) coin).satoshis;
+		return total;
+	}
+
+	@Test
+	public void testBranchAndBound() throws Exception {
+		CoinSelector selector = selector(COINS);
+		CoinSelector.Selection s = selector.select(10000, 50, CoinSelector.Strategy.BRANCH_AND_BOUND, null);
+		assertTrue(s.changeless);
+		assertEquals(10000, s.total);
+		assertEquals(10000, sum(s));
+
+		// within costOfChange above the target is changeless as well
+		s = selector.select(9980, 50, CoinSelector.Strategy.BRANCH_AND_BOUND, null);
+		assertTrue(s.changeless);
+		assertEquals(10000, sum(s));
+
+		// no subset between 500 and 550
+		assertNull(selector.select(500, 50, CoinSelector.Strategy.BRANCH_AND_BOUND, null));
+	}
+
+	@Test
+	public void testFilter() throws Exception {
+		CoinSelector selector = selector(COINS);
+		for (CoinSelector.Strategy strategy : CoinSelector.Strategy.values()) {
+			CoinSelector.Selection s = selector.select(11000, 100, strategy, CONFIRMED);
+			assertNotNull(strategy.name(), s);
+			assertTrue(strategy.name(), s.total >= 11000);
+			assertEquals(strategy.name(), s.total, sum(s));
+			for (Bitcoin.Unspent coin : s.coins)
+				assertTrue(strategy.name(), coin.confirmations() > 0);
+		}
+		// the unconfirmed coin is needed for a changeless 15000
+		CoinSelector.Selection s = selector.select(15000, 100, CoinSelector.Strategy.BRANCH_AND_BOUND, null);
+		assertEquals(15000, sum(s));
+		assertNull(selector.select(15000, 100, CoinSelector.Strategy.BRANCH_AND_BOUND, CONFIRMED));
+		// 16000 needs the 1000 coin
+		assertNotNull(selector.select(16000, 0, CoinSelector.Strategy.BRANCH_AND_BOUND, null));
+		assertNull(selector.select(16000, 0, CoinSelector.Strategy.BRANCH_AND_BOUND, new CoinSelector.CoinFilter() {
+
+			public boolean accept(Bitcoin.Unspent coin) {
+				return ((Coin) coin).satoshis != 1000;
+			}
+		}));
+	}
+
+	@Test
+	public void testInsufficientFunds() throws Exception {
+		CoinSelector selector = selector(COINS);
+		for (CoinSelector.Strategy strategy : CoinSelector.Strategy.values())
+			if (strategy != CoinSelector.Strategy.BRANCH_AND_BOUND)
+				try {
+					selector.select(38001, 0, strategy, null);
+					fail(strategy.name());
+				} catch (BitcoinException ex) {
+				}
+		// enough in total, but not among the confirmed coins
+		try {
+			selector.select(31001, 0, CoinSelector.Strategy.AUTO, CONFIRMED);
+			fail();
+		} catch (BitcoinException ex) {
+		}
+		assertNull(selector.select(38001, 0, CoinSelector.Strategy.BRANCH_AND_BOUND, null));
+		assertEquals(38000, selector.select(38000, 0, CoinSelector.Strategy.AUTO, null).total);
+	}
+
+	@Test
+	public void testAutoFallback() throws Exception {
+		CoinSelector selector = selector(COINS);
+		// branch and bound comes first when it finds a changeless set
+		CoinSelector.Selection s = selector.select(10000, 50, CoinSelector.Strategy.AUTO, null);
+		assertTrue(s.changeless);
+		assertEquals(10000, s.total);
+
+		// no changeless set: the fewer inputs of knapsack and a random draw, then the smaller total
+		CoinSelector.Selection k = selector.select(16500, 100, CoinSelector.Strategy.KNAPSACK, null);
+		assertEquals(4, k.coins.size());
+		for (int i = 0; i < 20; i++) {
+			s = selector.select(16500, 100, CoinSelector.Strategy.AUTO, null);
+			assertFalse(s.changeless);
+			assertEquals(s.total, sum(s));
+			assertTrue(s.coins.size() < k.coins.size() || (s.coins.size() == k.coins.size() && s.total <= k.total));
+		}
+		// the smaller coins fall short, no draw beats the single 20000 coin knapsack takes
+		for (int i = 0; i < 20; i++) {
+			s = selector.select(18500, 100, CoinSelector.Strategy.AUTO, null);
+			assertEquals(1, s.coins.size());
+			assertEquals(20000, s.total);
+		}
+	}
+
+}
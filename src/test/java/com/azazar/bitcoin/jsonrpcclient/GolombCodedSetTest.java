@@ -0,0 +1,106 @@
+package com.azazar.bitcoin.jsonrpcclient;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GolombCodedSetTest {
+
+	@Test
+	public void testSipHash() {
+		// reference vectors of the SipHash paper, key 00..0f
+		byte[] key = new byte[16];
+		for (int i = 0; i < key.length; i++)
+			key[i] = (byte) i;
+		GolombCodedSet set = new GolombCodedSet(key, new byte[] { 0 }, GolombCodedSet.BASIC_P, GolombCodedSet.BASIC_M);
+		assertEquals(0x726fdb47dd0e0e31L, set.sipHash(new byte[0]));
+		byte[] m = new byte[15];
+		for (int i = 0; i < m.length; i++)
+			m[i] = (byte) i;
+		assertEquals(0xa129ca6149be45e5L, set.sipHash(m));
+	}
+
+	@Test
+	public void testBip158Vector() {
+		// testnet genesis block of the BIP158 test vectors
+		GolombCodedSet set = GolombCodedSet.basic("000000000933ea01ad0ee984209779baaec3ced90fa3f408719526f8d77f4943", "019dfca8");
+		assertEquals(1, set.size());
+		assertTrue(set.match(BitcoinUtil.hexToBytes("4104678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac")));
+		assertFalse(set.match(BitcoinUtil.hexToBytes("0014751e76e8199196d454941c45d1b3a323f1433bd6")));
+	}
+
+	private static class BitWriter {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int current = 0, bits = 0;
+
+		void write(long value, int count) {
+			for (int i = count - 1; i >= 0; i--) {
+				current = (current << 1) | (int) ((value >>> i) & 1);
+				if (++bits == 8) {
+					out.write(current);
+					current = 0;
+					bits = 0;
+				}
+			}
+		}
+
+		byte[] finish() {
+			if (bits > 0)
+				out.write(current << (8 - bits));
+			return out.toByteArray();
+		}
+	}
+
+	@Test
+	public void testGolombRiceDecoding() {
+		Random random = new Random(1);
+		byte[] key = new byte[16];
+		random.nextBytes(key);
+		List<byte[]> items = new ArrayList<byte[]>();
+		for (int i = 0; i < 300; i++) {
+			byte[] item = new byte[22 + random.nextInt(12)];
+			random.nextBytes(item);
+			items.add(item);
+		}
+		// encode like BIP158: sorted hashes, deltas coded with unary quotient and P bit remainder
+		byte[] header = { (byte) 0xfd, (byte) items.size(), (byte) (items.size() >> 8) };
+		GolombCodedSet hasher = new GolombCodedSet(key, header, GolombCodedSet.BASIC_P, GolombCodedSet.BASIC_M);
+		long[] hashes = new long[items.size()];
+		for (int i = 0; i < hashes.length; i++)
+			hashes[i] = hasher.hashToRange(items.get(i));
+		Arrays.sort(hashes);
+		BitWriter w = new BitWriter();
+		w.write(0xfd, 8);
+		w.write(items.size() & 0xff, 8);
+		w.write(items.size() >> 8, 8);
+		long last = 0;
+		for (long h : hashes) {
+			long delta = h - last;
+			last = h;
+			for (long q = delta >>> GolombCodedSet.BASIC_P; q > 0; q--)
+				w.write(1, 1);
+			w.write(0, 1);
+			w.write(delta, GolombCodedSet.BASIC_P);
+		}
+		GolombCodedSet set = new GolombCodedSet(key, w.finish(), GolombCodedSet.BASIC_P, GolombCodedSet.BASIC_M);
+		assertEquals(items.size(), set.size());
+		for (byte[] item : items)
+			assertTrue(set.match(item));
+		assertTrue(set.matchAny(items));
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			byte[] other = new byte[22];
+			random.nextBytes(other);
+			if (set.match(other))
+				falsePositives++;
+		}
+		assertTrue(falsePositives < 10);
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.azazar.bitcoin.jsonrpcclient;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HeaderChainStoreTest {
+
+	private static class Chain extends AbstractBitcoinClient {
+
+		final List<String> hashes = new ArrayList<String>();
+		final Map<String, Map<String, Object>> headers = new HashMap<String, Map<String, Object>>();
+		volatile CountDownLatch entered, release;
+
+		void extend(int blocks, int branch) {
+			for (int i = 0; i < blocks; i++) {
+				int height = hashes.size();
+				String hash = String.format("%056x%08x", branch, height);
+				Map<String, Object> header = new HashMap<String, Object>();
+				header.put("hash", hash);
+				header.put("height", height);
+				header.put("time", 1231006505L + height * 600L);
+				header.put("bits", String.format("%08x", 0x1d00ffff - branch));
+				if (height > 0)
+					header.put("previousblockhash", hashes.get(height - 1));
+				headers.put(hash, header);
+				hashes.add(hash);
+			}
+		}
+
+		void reorg(int depth, int blocks, int branch) {
+			for (int i = 0; i < depth; i++)
+				hashes.remove(hashes.size() - 1);
+			extend(blocks, branch);
+		}
+
+		@Override
+		public Object query(String method, Object... o) throws BitcoinException {
+			if (method.equals("getblockcount"))
+				return hashes.size() - 1;
+			if (method.equals("getblockhash"))
+				return hashes.get(((Number) o[0]).intValue());
+			if (method.equals("getblockheader")) {
+				CountDownLatch e = entered, r = release;
+				if (e != null) {
+					e.countDown();
+					try {
+						r.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException ex) {
+						throw new BitcoinException(ex);
+					}
+				}
+				return headers.get((String) o[0]);
+			}
+			throw new BitcoinException("Unexpected call: " + method);
+		}
+	}
+
+	private static void assertChain(Chain chain, HeaderChainStore store) {
+		assertEquals(chain.hashes.size() - 1, store.getBlockCount());
+		for (int height = 0; height < chain.hashes.size(); height += 97) {
+			String hash = chain.hashes.get(height);
+			assertEquals(hash, store.getBlockHash(height));
+			assertEquals(height, store.getHeight(hash));
+			assertEquals(chain.hashes.size() - height, store.getConfirmations(hash));
+			assertEquals((1231006505L + height * 600L) * 1000, store.getTime(height).getTime());
+			assertEquals(chain.headers.get(hash).get("bits"), store.getBits(height));
+		}
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		File file = File.createTempFile("headers", ".dat");
+		file.delete();
+		try {
+			Chain chain = new Chain();
+			// more than the initial capacity, so the mapping grows
+			chain.extend(70000, 0);
+			HeaderChainStore store = new HeaderChainStore(chain, file);
+			store.setBatchSize(5000);
+			assertEquals(0, store.sync());
+			assertChain(chain, store);
+			assertEquals(-1, store.getHeight(String.format("%056x%08x", 7, 1)));
+			assertNull(store.getBlockHash(70000));
+			store.close();
+
+			store = new HeaderChainStore(chain, file);
+			assertChain(chain, store);
+
+			String stale = chain.hashes.get(69995);
+			chain.reorg(10, 12, 1);
+			assertEquals(10, store.sync());
+			assertChain(chain, store);
+			assertEquals(-1, store.getHeight(stale));
+			assertEquals(0, store.getConfirmations(stale));
+			store.close();
+
+			store = new HeaderChainStore(chain, file);
+			assertChain(chain, store);
+			assertEquals(-1, store.getHeight(stale));
+			store.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testLookupsDuringSync() throws Exception {
+		File file = File.createTempFile("headers", ".dat");
+		file.delete();
+		try {
+			final Chain chain = new Chain();
+			chain.extend(100, 0);
+			final HeaderChainStore store = new HeaderChainStore(chain, file);
+			store.sync();
+			chain.extend(10, 0);
+			chain.entered = new CountDownLatch(1);
+			chain.release = new CountDownLatch(1);
+			Thread sync = new Thread() {
+				@Override
+				public void run() {
+					try {
+						store.sync();
+					} catch (BitcoinException ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			};
+			sync.start();
+			assertTrue(chain.entered.await(10, TimeUnit.SECONDS));
+			// the sync thread is waiting for the node, lookups must not wait for it
+			long start = System.nanoTime();
+			assertEquals(99, store.getBlockCount());
+			assertEquals(50, store.getHeight(chain.hashes.get(50)));
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			chain.entered = null;
+			chain.release.countDown();
+			sync.join();
+			assertChain(chain, store);
+			store.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.azazar.bitcoin.jsonrpcclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import wang.lcs.bitcoin.account.BitcoinAccount;
+
+/**
+ * Signing throughput of {@link TransactionSigner}, sequential and on all cores. Not run by the build, start it with
+ * the test classpath and optionally the number of inputs as the argument.
+ */
+public class TransactionSignerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		BitcoinAccount key = TransactionSignerTest.key("619c335025c7f4012e556c2a58b2506e30b8511b53ade95ea316fd8c3286feb9");
+		List<TransactionSigner.Prevout> prevouts = new ArrayList<TransactionSigner.Prevout>();
+		TransactionSigner signer = new TransactionSigner(key);
+		// warm up
+		signer.sign(TransactionSignerTest.consolidation(200, prevouts, key), prevouts);
+		prevouts.clear();
+
+		BinaryRawTransaction tx = TransactionSignerTest.consolidation(inputs, prevouts, key);
+		long start = System.nanoTime();
+		signer.sign(tx, prevouts);
+		long sequentialTime = System.nanoTime() - start;
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			signer.setExecutor(executor);
+			prevouts.clear();
+			tx = TransactionSignerTest.consolidation(inputs, prevouts, key);
+			start = System.nanoTime();
+			signer.sign(tx, prevouts);
+			long parallelTime = System.nanoTime() - start;
+			System.out.println("Signed " + inputs + " inputs: " + (inputs * 1000000000L / sequentialTime) + "/s sequential, " + (inputs * 1000000000L / parallelTime) + "/s on " + threads + " threads");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
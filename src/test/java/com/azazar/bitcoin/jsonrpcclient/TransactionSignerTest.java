@@ -0,0 +1,77 @@
+package com.azazar.bitcoin.jsonrpcclient;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+
+import wang.lcs.bitcoin.account.BitcoinAccount;
+import wang.lcs.bitcoin.account.BitcoinAccountConfig;
+
+public class TransactionSignerTest {
+
+	// BIP143 native P2WPKH example
+	private static final String UNSIGNED = "0100000002fff7f7881a8099afa6940d42d1e7f6362bec38171ea3edf433541db4e4ad969f0000000000eeffffffef51e1b804cc89d182d279655c3aa89e815b1b309fe287d9b2b55d57b90ec68a0100000000ffffffff02202cb206000000001976a9148280b37df378db99f66f85c95a783a76ac7a6d5988ac9093510d000000001976a9143bde42dbee7e4dbe6a21b2d50ce2f0167faa815988ac11000000";
+
+	static BitcoinAccount key(String hex) {
+		return new BitcoinAccount(BitcoinUtil.hexToBytes(hex), BitcoinAccountConfig.mainConfig);
+	}
+
+	@Test
+	public void testSighashes() throws Exception {
+		BinaryRawTransaction tx = BinaryRawTransaction.parse(UNSIGNED);
+		byte[] p2pk = BitcoinUtil.hexToBytes("2103c9f4836b9a4f77fc0d81f7bcb01b7f1b35916864b9476c241ce9fc198bd25432ac");
+		byte[] sig = key("bbc27228ddcb9209d7fd6f36b02f7dfa6252af40bb2f1cbc7a557da8027ff866").sign(TransactionSigner.legacySighash(tx, 0, p2pk, TransactionSigner.SIGHASH_ALL));
+		assertEquals("30450221008b9d1dc26ba6a9cb62127b02742fa9d754cd3bebf337f7a55d114c8e5cdd30be022040529b194ba3f9281a99f2b1c0a19c0489bc22ede944ccf4ecbab4cc618ef3ed", BitcoinUtil.bytesToHex(sig));
+		byte[] scriptCode = BitcoinUtil.hexToBytes("76a9141d0f172a0ecb48aee1be1f2687d2963ae33f71a188ac");
+		assertEquals("c37af31116d1b27caf68aae9e3ac82f1477929014d5b917657d0eb49478cb670", BitcoinUtil.bytesToHex(TransactionSigner.witnessSighash(tx, 1, scriptCode, 600000000L, TransactionSigner.SIGHASH_ALL)));
+	}
+
+	@Test
+	public void testSignWitnessInput() throws Exception {
+		BinaryRawTransaction tx = BinaryRawTransaction.parse(UNSIGNED);
+		tx.inputs.remove(0);
+		BitcoinAccount key = key("619c335025c7f4012e556c2a58b2506e30b8511b53ade95ea316fd8c3286feb9");
+		new TransactionSigner(key).sign(tx, Arrays.asList(new TransactionSigner.Prevout(600000000L, BitcoinUtil.hexToBytes("00141d0f172a0ecb48aee1be1f2687d2963ae33f71a1"))));
+		assertEquals(0, tx.inputs.get(0).scriptSig.length);
+		assertEquals(key.getPublicKeyHex(), BitcoinUtil.bytesToHex(tx.inputs.get(0).witness[1]));
+		assertEquals(tx.hex(), BinaryRawTransaction.parse(tx.hex()).hex());
+	}
+
+	static BinaryRawTransaction consolidation(int inputs, List<TransactionSigner.Prevout> prevouts, BitcoinAccount key) {
+		BinaryRawTransaction tx = new BinaryRawTransaction();
+		for (int i = 0; i < inputs; i++) {
+			tx.addInput(String.format("%064x", i + 1), i % 3);
+			byte[] script = i % 2 == 0 ? BitcoinScript.payToPubKeyHash(key.getPublicHash()) : BitcoinUtil.hexToBytes("0014" + BitcoinUtil.bytesToHex(key.getPublicHash()));
+			prevouts.add(new TransactionSigner.Prevout(100000L + i, script));
+		}
+		tx.addOutput(inputs * 100000L, BitcoinScript.payToPubKeyHash(key.getPublicHash()));
+		return tx;
+	}
+
+	@Test
+	public void testParallelSigning() throws Exception {
+		BitcoinAccount key = key("619c335025c7f4012e556c2a58b2506e30b8511b53ade95ea316fd8c3286feb9");
+		List<TransactionSigner.Prevout> prevouts = new ArrayList<TransactionSigner.Prevout>();
+		TransactionSigner signer = new TransactionSigner(key);
+		String sequential = signer.sign(consolidation(64, prevouts, key), prevouts).hex();
+
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(4);
+		try {
+			signer.setExecutor(executor);
+			// 64 inputs in batches of 8, the default batch would sign them all on the calling thread
+			signer.setBatchSize(8);
+			prevouts.clear();
+			assertEquals(sequential, signer.sign(consolidation(64, prevouts, key), prevouts).hex());
+			assertEquals(8, executor.getTaskCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
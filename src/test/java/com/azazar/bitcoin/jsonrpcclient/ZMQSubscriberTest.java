@@ -0,0 +1,114 @@
+package com.azazar.bitcoin.jsonrpcclient;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ZMQSubscriberTest {
+
+	private static void frame(OutputStream out, int flags, byte[] body) throws IOException {
+		out.write(flags);
+		out.write(body.length);
+		out.write(body);
+	}
+
+	private static byte[] readFrame(DataInputStream in) throws IOException {
+		in.readUnsignedByte();
+		byte[] body = new byte[in.readUnsignedByte()];
+		in.readFully(body);
+		return body;
+	}
+
+	private static void publish(OutputStream out, String topic, byte[] body, int sequence) throws IOException {
+		frame(out, 1, topic.getBytes("US-ASCII"));
+		frame(out, 1, body);
+		frame(out, 0, new byte[] { (byte) sequence, (byte) (sequence >> 8), (byte) (sequence >> 16), (byte) (sequence >> 24) });
+	}
+
+	@Test
+	public void testSubscription() throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		final List<String> subscriptions = new ArrayList<String>();
+		final byte[] hash = new byte[32];
+		hash[0] = 0x00;
+		hash[31] = (byte) 0xab;
+
+		Thread publisher = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Socket s = server.accept();
+					DataInputStream in = new DataInputStream(s.getInputStream());
+					OutputStream out = s.getOutputStream();
+					byte[] greeting = new byte[64];
+					in.readFully(greeting);
+					greeting[10] = 3;
+					greeting[11] = 1;
+					greeting[32] = 1;
+					out.write(greeting);
+					readFrame(in);
+					frame(out, 4, new byte[] { 5, 'R', 'E', 'A', 'D', 'Y', 11, 'S', 'o', 'c', 'k', 'e', 't', '-', 'T', 'y', 'p', 'e', 0, 0, 0, 3, 'P', 'U', 'B' });
+					for (int i = 0; i < 2; i++) {
+						byte[] sub = readFrame(in);
+						assertEquals(1, sub[0]);
+						subscriptions.add(new String(sub, 1, sub.length - 1, "US-ASCII"));
+					}
+					publish(out, "hashblock", hash, 0);
+					publish(out, "hashtx", hash, 0);
+					publish(out, "hashblock", hash, 2);
+					out.flush();
+					in.read();
+					s.close();
+				} catch (IOException ex) {
+				}
+			}
+		};
+		publisher.start();
+
+		final CountDownLatch received = new CountDownLatch(3);
+		final List<String> events = new ArrayList<String>();
+		ZMQSubscriber subscriber = new ZMQSubscriber("127.0.0.1", server.getLocalPort(), "hashblock", "hashtx");
+		ZMQNotificationSource source = new ZMQNotificationSource();
+		subscriber.addListener(source);
+		subscriber.addListener(new ZMQSubscriber.Listener() {
+			public void notification(String topic, byte[] body, long sequence) {
+				synchronized (events) {
+					events.add(topic + ":" + sequence);
+				}
+				received.countDown();
+			}
+
+			public void missed(String topic, long expected, long received) {
+				synchronized (events) {
+					events.add("missed " + topic + ":" + expected + "-" + received);
+				}
+			}
+		});
+		Thread t = new Thread(subscriber);
+		t.start();
+		try {
+			assertTrue(received.await(10, TimeUnit.SECONDS));
+			synchronized (events) {
+				assertEquals("[hashblock:0, hashtx:0, missed hashblock:1-2, hashblock:2]", events.toString());
+			}
+			assertEquals("[hashblock, hashtx]", subscriptions.toString());
+			assertEquals(BitcoinUtil.bytesToHex(hash), source.waitForBlock(1000));
+			assertNull(source.waitForBlock(10));
+		} finally {
+			subscriber.stopSubscribing();
+			t.join(5000);
+			server.close();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package wang.lcs.bitcoin.account;
+
+import static org.junit.Assert.*;
+
+import java.util.Locale;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Test;
+
+public class Bech32Test {
+
+	// BIP173 and BIP350 valid segwit addresses with their scriptPubKey
+	private static final String[][] VALID = {
+		{ "BC1QW508D6QEJXTDG4Y5R3ZARVARY0C5XW7KV8F3T4", "0014751e76e8199196d454941c45d1b3a323f1433bd6" },
+		{ "tb1qrp33g0q5c5txsp9arysrx4k6zdkfs4nce4xj0gdcccefvpysxf3q0sl5k7", "00201863143c14c5166804bd19203356da136c985678cd4d27a1b8c6329604903262" },
+		{ "bc1pw508d6qejxtdg4y5r3zarvary0c5xw7kw508d6qejxtdg4y5r3zarvary0c5xw7kt5nd6y", "5128751e76e8199196d454941c45d1b3a323f1433bd6751e76e8199196d454941c45d1b3a323f1433bd6" },
+		{ "BC1SW50QGDZ25J", "6002751e" },
+		{ "bc1zw508d6qejxtdg4y5r3zarvaryvaxxpcs", "5210751e76e8199196d454941c45d1b3a323" },
+		{ "tb1qqqqqp399et2xygdj5xreqhjjvcmzhxw4aywxecjdzew6hylgvsesrxh6hy", "0020000000c4a5cad46221b2a187905e5266362b99d5e91c6ce24d165dab93e86433" },
+		{ "tb1pqqqqp399et2xygdj5xreqhjjvcmzhxw4aywxecjdzew6hylgvsesf3hn0c", "5120000000c4a5cad46221b2a187905e5266362b99d5e91c6ce24d165dab93e86433" },
+		{ "bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqzk5jj0", "512079be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798" },
+	};
+
+	// BIP173 and BIP350 invalid segwit addresses
+	private static final String[] INVALID = {
+		"tc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vq5zuyut",
+		"bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqh2y7hd",
+		"tb1z0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqglt7rf",
+		"BC1S0XLXVLHEMJA6C4DQV22UAPCTQUPFHLXM9H8Z3K2E72Q4K9HCZ7VQ54WELL",
+		"bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kemeawh",
+		"tb1q0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vq24jc47",
+		"bc1p38j9r5y49hruaue7wxjce0updqjuyyx0kh56v8s25huc6995vvpql3jow4",
+		"BC130XLXVLHEMJA6C4DQV22UAPCTQUPFHLXM9H8Z3K2E72Q4K9HCZ7VQ7ZWS8R",
+		"bc1pw5dgrnzv",
+		"bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7v8n0nx0muaewav253zgeav",
+		"BC1QR508D6QEJXTDG4Y5R3ZARVARYV98GJ9P",
+		"tb1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vq47Zagq",
+		"bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7v07qwwzcrf",
+		"tb1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vpggkg4j",
+		"bc1gmk9yu",
+	};
+
+	private static String hrp(String address) {
+		return address.substring(0, address.lastIndexOf('1')).toLowerCase(Locale.ROOT);
+	}
+
+	@Test
+	public void testValid() {
+		for (String[] v : VALID) {
+			byte[] script = Hex.decode(v[1]);
+			int version = script[0] == 0 ? 0 : (script[0] & 0xff) - 0x50;
+			byte[] decoded = Bech32.decodeSegwitAddress(hrp(v[0]), v[0]);
+			assertEquals(v[0], version, decoded[0]);
+			assertEquals(v[0], v[1].substring(4), Hex.toHexString(decoded).substring(2));
+			byte[] program = new byte[decoded.length - 1];
+			System.arraycopy(decoded, 1, program, 0, program.length);
+			assertEquals(v[0].toLowerCase(Locale.ROOT), Bech32.encodeSegwitAddress(hrp(v[0]), version, program));
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		for (String address : INVALID) {
+			try {
+				Bech32.decodeSegwitAddress(address.toLowerCase(Locale.ROOT).startsWith("tb") ? "tb" : "bc", address);
+				fail(address);
+			} catch (IllegalArgumentException ex) {
+			}
+		}
+	}
+
+}
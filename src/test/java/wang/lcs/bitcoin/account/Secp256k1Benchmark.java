@@ -0,0 +1,65 @@
+package wang.lcs.bitcoin.account;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+
+/**
+ * Key derivation and signing throughput of {@link Secp256k1} against the generic curve implementation. Not run by the
+ * build, start it with the test classpath and optionally the number of operations as the argument.
+ */
+public class Secp256k1Benchmark {
+
+	private static final X9ECParameters GENERIC = SECNamedCurves.getByName("secp256k1");
+	private static final ECDomainParameters GENERIC_DOMAIN = new ECDomainParameters(GENERIC.getCurve(), GENERIC.getG(), GENERIC.getN(), GENERIC.getH());
+
+	private static void report(String name, int count, long nanos) {
+		System.out.println(name + ": " + (count * 1000000000L / nanos) + "/s");
+	}
+
+	private static void run(byte[][] keys, byte[] hash) {
+		long start = System.nanoTime();
+		for (byte[] key : keys)
+			Secp256k1.getPublicKey(key);
+		report("getPublicKey", keys.length, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		for (byte[] key : keys)
+			GENERIC.getG().multiply(new BigInteger(1, key)).getEncoded(true);
+		report("generic public key", keys.length, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		for (byte[] key : keys)
+			Secp256k1.signDeterministic(hash, key);
+		report("signDeterministic", keys.length, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		for (byte[] key : keys) {
+			ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+			signer.init(true, new ECPrivateKeyParameters(new BigInteger(1, key), GENERIC_DOMAIN));
+			signer.generateSignature(hash);
+		}
+		report("generic signature", keys.length, System.nanoTime() - start);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		Random random = new Random(49);
+		byte[][] keys = new byte[count][];
+		for (int i = 0; i < count; i++)
+			keys[i] = Secp256k1Test.randomKey(random);
+		byte[] hash = Secp256k1Test.sha256("benchmark");
+		// warm up
+		run(keys, hash);
+		System.out.println();
+		run(keys, hash);
+	}
+
+}
@@ -0,0 +1,133 @@
+package wang.lcs.bitcoin.account;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.util.BigIntegers;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Test;
+
+public class Secp256k1Test {
+
+	// generic curve implementation, to check the endomorphism curve and comb multiplier against
+	private static final X9ECParameters REFERENCE = SECNamedCurves.getByName("secp256k1");
+	private static final ECDomainParameters REFERENCE_DOMAIN = new ECDomainParameters(REFERENCE.getCurve(), REFERENCE.getG(), REFERENCE.getN(), REFERENCE.getH());
+
+	// private key, compressed public key, RFC6979 low-S signature of sha256("Satoshi Nakamoto")
+	private static final String[][] VECTORS = {
+		{ "0000000000000000000000000000000000000000000000000000000000000001", "0279be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798",
+				"934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d8", "2442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5" },
+		{ "0000000000000000000000000000000000000000000000000000000000000002", "02c6047f9441ed7d6d3045406e95c07cd85c778e4b8cef3ca7abac09b95c709ee5",
+				"a25eb12c6446bed840c93260c6e8f0e91f81b60c375538f0461463dd4fbd621e", "583ccd150e446daaafda69717a14cc35117dac464917755e9d5a5695b98164c6" },
+		{ "fffffffffffffffffffffffffffffffebaaedce6af48a03bbfd25e8cd0364140", "0379be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798",
+				"fd567d121db66e382991534ada77a6bd3106f0a1098c231e47993447cd6af2d0", "6b39cd0eb1bc8603e159ef5c20a5c8ad685a45b06ce9bebed3f153d10d93bed5" },
+	};
+
+	static byte[] sha256(String s) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(s.getBytes("UTF-8"));
+	}
+
+	static byte[] randomKey(Random random) {
+		byte[] key = new byte[32];
+		do {
+			random.nextBytes(key);
+		} while (new BigInteger(1, key).signum() == 0 || new BigInteger(1, key).compareTo(REFERENCE.getN()) >= 0);
+		return key;
+	}
+
+	@Test
+	public void testKnownVectors() throws Exception {
+		byte[] hash = sha256("Satoshi Nakamoto");
+		for (String[] v : VECTORS) {
+			byte[] key = Hex.decode(v[0]);
+			assertEquals(v[1], Hex.toHexString(Secp256k1.getPublicKey(key)));
+			BigInteger[] sig = Secp256k1.signDeterministic(hash, key);
+			assertEquals(v[2], sig[0].toString(16));
+			assertEquals(v[3], sig[1].toString(16));
+		}
+	}
+
+	@Test
+	public void testAgainstReference() throws Exception {
+		Random random = new Random(49);
+		for (int i = 0; i < 50; i++) {
+			byte[] key = randomKey(random);
+			byte[] hash = sha256("message " + i);
+			assertArrayEquals(REFERENCE.getG().multiply(new BigInteger(1, key)).getEncoded(true), Secp256k1.getPublicKey(key));
+
+			ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+			signer.init(true, new ECPrivateKeyParameters(new BigInteger(1, key), REFERENCE_DOMAIN));
+			BigInteger[] expected = signer.generateSignature(hash);
+			if (expected[1].compareTo(REFERENCE.getN().shiftRight(1)) > 0)
+				expected[1] = REFERENCE.getN().subtract(expected[1]);
+			BigInteger[] sig = Secp256k1.signDeterministic(hash, key);
+			assertEquals(expected[0], sig[0]);
+			assertEquals(expected[1], sig[1]);
+		}
+	}
+
+	@Test
+	public void testCompactRecovery() throws Exception {
+		Random random = new Random(50);
+		BigInteger halfN = REFERENCE.getN().shiftRight(1);
+		boolean[] seen = new boolean[2];
+		for (int i = 0; i < 50; i++) {
+			byte[] key = randomKey(random);
+			byte[] hash = sha256("message " + i);
+			byte[] compressed = Secp256k1.getPublicKey(key);
+			byte[] uncompressed = REFERENCE.getCurve().decodePoint(compressed).getEncoded(false);
+
+			byte[] compact = Secp256k1.signCompact(hash, key);
+			assertEquals(65, compact.length);
+			assertArrayEquals(compressed, Secp256k1.recoverCompact(compact, hash));
+			byte[] r = Arrays.copyOfRange(compact, 1, 33), s = Arrays.copyOfRange(compact, 33, 65);
+			assertTrue(new BigInteger(1, s).compareTo(halfN) <= 0);
+
+			// the header carries the recovery ID that trial recovery finds for either key encoding
+			int recoveryId = compact[0] - 27 - 4;
+			assertEquals(recoveryId, Secp256k1.getRecoveryId(r, s, hash, compressed));
+			assertEquals(recoveryId, Secp256k1.getRecoveryId(r, s, hash, uncompressed));
+			assertArrayEquals(uncompressed, Secp256k1.recoverPublicKey(r, s, new byte[] { (byte) recoveryId }, hash));
+			compact[0] -= 4;
+			assertArrayEquals(uncompressed, Secp256k1.recoverCompact(compact, hash));
+
+			// low-S normalization flips the parity bit, the unnormalized signature recovers with the other one
+			BigInteger[] sig = Secp256k1.signDeterministic(hash, key);
+			assertEquals(new BigInteger(1, r), sig[0]);
+			assertEquals(new BigInteger(1, s), sig[1]);
+			ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+			signer.init(true, new ECPrivateKeyParameters(new BigInteger(1, key), REFERENCE_DOMAIN));
+			BigInteger rawS = signer.generateSignature(hash)[1];
+			boolean flipped = rawS.compareTo(halfN) > 0;
+			seen[flipped ? 1 : 0] = true;
+			byte[] rawSBytes = BigIntegers.asUnsignedByteArray(32, rawS);
+			assertEquals(flipped ? recoveryId ^ 1 : recoveryId, Secp256k1.getRecoveryId(r, rawSBytes, hash, compressed));
+		}
+		assertTrue(seen[0] && seen[1]);
+	}
+
+	@Test
+	public void testInvalidCompact() throws Exception {
+		byte[] hash = sha256("Satoshi Nakamoto");
+		assertEquals(0, Secp256k1.recoverCompact(new byte[0], hash).length);
+		assertEquals(0, Secp256k1.recoverCompact(null, hash).length);
+		assertEquals(0, Secp256k1.recoverCompact(new byte[64], hash).length);
+		byte[] compact = Secp256k1.signCompact(hash, Hex.decode(VECTORS[0][0]));
+		compact[0] = 26;
+		assertEquals(0, Secp256k1.recoverCompact(compact, hash).length);
+		compact[0] = 35;
+		assertEquals(0, Secp256k1.recoverCompact(compact, hash).length);
+	}
+
+}